@@ -0,0 +1,171 @@
+package src.benchmark;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH JSON result file against a baseline in the same format.
+ * <p>
+ * Benchmarks are matched by name and parameters. A benchmark regresses when it got worse by more than the
+ * threshold (0.2 is 20%) and the 99.9% confidence intervals of the two runs do not overlap, so noise alone
+ * does not fail a build. Benchmarks missing from either side are listed but never fail.
+ */
+public class BaselineReport {
+
+    public static final double DEFAULT_THRESHOLD = 0.2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * One benchmark's primary metric.
+     */
+    static class Score {
+        final String key, mode, unit;
+        final double score, low, high;
+
+        Score(JsonObject result) {
+            StringBuilder key = new StringBuilder(result.get("benchmark").getAsString());
+            if (result.has("params")) {
+                Map<String, String> params = new TreeMap<String, String>();
+                for (Map.Entry<String, JsonElement> p : result.getAsJsonObject("params").entrySet())
+                    params.put(p.getKey(), p.getValue().getAsString());
+                key.append(params);
+            }
+            this.key = key.toString();
+            this.mode = result.get("mode").getAsString();
+
+            JsonObject metric = result.getAsJsonObject("primaryMetric");
+            this.unit = metric.get("scoreUnit").getAsString();
+            this.score = metric.get("score").getAsDouble();
+            JsonArray ci = metric.getAsJsonArray("scoreConfidence");
+            double low = ci.get(0).getAsDouble(), high = ci.get(1).getAsDouble();
+            // a single iteration has no interval
+            this.low = Double.isNaN(low) ? score : low;
+            this.high = Double.isNaN(high) ? score : high;
+        }
+
+        boolean lowerIsBetter() {
+            return !"thrpt".equals(mode);
+        }
+    }
+
+    private final Map<String, Score> baseline, current;
+    private final double threshold;
+    private final List<String> regressions = new ArrayList<String>();
+
+
+    public BaselineReport(File baseline, File current, double threshold) throws IOException {
+        this.baseline = read(baseline);
+        this.current = read(current);
+        this.threshold = threshold;
+    }
+
+    /**
+     * Writes the report to out.
+     *
+     * @return true if no benchmark regressed.
+     */
+    public boolean print(PrintStream out) {
+        regressions.clear();
+        out.println(String.format("%-70s %14s %14s %9s  %s", "benchmark", "baseline", "current", "delta", "99.9% CI (baseline / current)"));
+        for (Score now : current.values()) {
+            Score then = baseline.get(now.key);
+            if (then == null) {
+                out.println(String.format("%-70s %14s %14.3f %9s  new", now.key, "-", now.score, "-"));
+                continue;
+            }
+            if (!then.unit.equals(now.unit) || !then.mode.equals(now.mode)) {
+                out.println(String.format("%-70s unit or mode changed (%s %s -> %s %s), not compared",
+                        now.key, then.mode, then.unit, now.mode, now.unit));
+                continue;
+            }
+
+            // positive delta = worse
+            double delta = (now.score - then.score) / then.score;
+            boolean disjoint = now.low > then.high || now.high < then.low;
+            if (!now.lowerIsBetter())
+                delta = -delta;
+            boolean regressed = delta > threshold && disjoint;
+            if (regressed)
+                regressions.add(now.key);
+
+            out.println(String.format("%-70s %14.3f %14.3f %+8.1f%%  [%.3f, %.3f] / [%.3f, %.3f] %s%s", now.key,
+                    then.score, now.score, 100 * delta, then.low, then.high, now.low, now.high, now.unit,
+                    regressed ? "  REGRESSION" : ""));
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key))
+                out.println(String.format("%-70s missing from the current run", key));
+        }
+
+        if (regressions.isEmpty())
+            out.println(String.format("no regression beyond %.0f%%", 100 * threshold));
+        else
+            out.println(String.format("%d benchmark(s) regressed by more than %.0f%%: %s", regressions.size(), 100 * threshold, regressions));
+        return regressions.isEmpty();
+    }
+
+    /**
+     * Copies a result file to baseline, pretty printed so that diffs of the baseline stay readable.
+     */
+    public static void record(File result, File baseline) throws IOException {
+        JsonElement json = parse(result);
+        Writer out = new OutputStreamWriter(new FileOutputStream(baseline), UTF8);
+        try {
+            new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create().toJson(json, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * BaselineReport baseline.json jmh-result.json [threshold]; exits with 1 on a regression.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BaselineReport <baseline.json> <result.json> [threshold]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+        if (!new BaselineReport(new File(args[0]), new File(args[1]), threshold).print(System.out))
+            System.exit(1);
+    }
+
+
+    private static Map<String, Score> read(File file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<String, Score>();
+        for (JsonElement result : parse(file).getAsJsonArray()) {
+            Score score = new Score(result.getAsJsonObject());
+            scores.put(score.key, score);
+        }
+        return scores;
+    }
+
+    private static JsonElement parse(File file) throws IOException {
+        Reader in = new InputStreamReader(new FileInputStream(file), UTF8);
+        try {
+            return new JsonParser().parse(in);
+        } finally {
+            in.close();
+        }
+    }
+}
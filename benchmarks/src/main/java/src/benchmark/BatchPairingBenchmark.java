@@ -0,0 +1,68 @@
+package src.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import src.api.Element;
+import src.pairing.f.accumulator.BatchPairingEngine;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A batch of independent pairings on {@link BatchPairingEngine} for growing thread counts; the time per batch
+ * at t threads against 1 thread gives the scaling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BatchPairingBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"64"})
+    public int batch;
+
+    @Param({"1"})
+    public int chunkSize;
+
+    private BatchPairingEngine engine;
+    private Element[] in1, in2;
+
+    @Setup
+    public void setUp(Sm9State state) {
+        engine = new BatchPairingEngine(state.pairing, threads, chunkSize);
+
+        SecureRandom random = new SecureRandom();
+        in1 = new Element[batch];
+        in2 = new Element[batch];
+        for (int i = 0; i < batch; i++) {
+            in1[i] = state.kgc.getG1().duplicate().mul(new BigInteger(256, random));
+            in2[i] = state.kgc.getG2().duplicate().mul(new BigInteger(256, random));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public Element[] pairing() {
+        return engine.pairing(in1, in2);
+    }
+}
@@ -0,0 +1,43 @@
+package src.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import src.field.curve.CurveElement;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scalar multiplication in G1 and G2, generic and through the fixed-base combs of P1 and P2.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CurveBenchmark {
+
+    @Benchmark
+    public CurveElement g1Mul(Sm9State state) {
+        return state.p1.duplicate().mul(state.scalar);
+    }
+
+    @Benchmark
+    public CurveElement g2Mul(Sm9State state) {
+        return state.p2.duplicate().mul(state.scalar);
+    }
+
+    @Benchmark
+    public CurveElement g1CombMul(Sm9State state) {
+        return state.domain.getG1Comb().pow(state.scalar);
+    }
+
+    @Benchmark
+    public CurveElement g2CombMul(Sm9State state) {
+        return state.domain.getG2Comb().pow(state.scalar);
+    }
+}
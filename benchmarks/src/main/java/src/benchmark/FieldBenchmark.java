@@ -0,0 +1,75 @@
+package src.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import src.api.Element;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multiplication, squaring and inversion in Fp, Fp2 and Fp12. The operations work in place on per-thread
+ * operands, so nothing but the arithmetic itself is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldBenchmark {
+
+    private Element fp, fpOther, fp2, fp2Other, fp12, fp12Other;
+
+    @Setup
+    public void setUp(Sm9State state) {
+        fp = state.pairing.getFq().newRandomElement();
+        fpOther = state.pairing.getFq().newRandomElement();
+        fp2 = state.pairing.getFq2().newRandomElement();
+        fp2Other = state.pairing.getFq2().newRandomElement();
+        fp12 = state.pairing.getFp12().newRandomElement();
+        fp12Other = state.pairing.getFp12().newRandomElement();
+    }
+
+    @Benchmark
+    public Element fpMul() {
+        return fp.mul(fpOther);
+    }
+
+    @Benchmark
+    public Element fpSquare() {
+        return fp.square();
+    }
+
+    @Benchmark
+    public Element fpInvert() {
+        return fp.invert();
+    }
+
+    @Benchmark
+    public Element fp2Mul() {
+        return fp2.mul(fp2Other);
+    }
+
+    @Benchmark
+    public Element fp2Square() {
+        return fp2.square();
+    }
+
+    @Benchmark
+    public Element fp12Mul() {
+        return fp12.mul(fp12Other);
+    }
+
+    @Benchmark
+    public Element fp12Square() {
+        return fp12.square();
+    }
+}
@@ -0,0 +1,63 @@
+package src.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import src.Sm9Util;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SM3 based functions H1, H2 and KDF over inputs of size bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    @Param({"32", "1024", "65536"})
+    public int size;
+
+    private byte[] input;
+    private BigInteger n;
+
+    @Setup
+    public void setUp(Sm9State state) {
+        input = new byte[size];
+        new Random(size).nextBytes(input);
+        n = state.kgc.getN();
+    }
+
+    @Benchmark
+    public BigInteger h1() {
+        return Sm9Util.h1(input, n);
+    }
+
+    @Benchmark
+    public BigInteger h2() {
+        return Sm9Util.h2(input, n);
+    }
+
+    /**
+     * size bytes of key material from a 64 byte seed.
+     */
+    @Benchmark
+    public byte[] kdf() {
+        byte[] seed = new byte[64];
+        System.arraycopy(input, 0, seed, 0, Math.min(seed.length, input.length));
+        return Sm9Util.KDF(seed, size * 8L);
+    }
+}
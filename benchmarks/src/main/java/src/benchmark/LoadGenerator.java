@@ -0,0 +1,322 @@
+package src.benchmark;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import src.KeyGenerationCenter;
+import src.Signature;
+import src.Sm9EncryptPrivateKey;
+import src.Sm9Engine;
+import src.Sm9SignPrivateKey;
+import src.Sm9Signer;
+import src.util.metrics.LatencyHistogram;
+
+import javax.crypto.Cipher;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a mix of sign, verify, encrypt and decrypt from a number of threads for a fixed time and reports
+ * throughput, latency percentiles, allocation rate and CPU use; for sizing the hardware of SM9 gateways.
+ * <pre>
+ *   -threads 8                                   worker threads, default the number of processors
+ *   -duration 60 -warmup 10                      seconds measured, after seconds not measured
+ *   -identities 100                              identities with keys, picked at random per operation
+ *   -mix sign=4,verify=4,encrypt=1,decrypt=1     relative weights of the operations
+ *   -size 1024                                   message bytes
+ *   -rate 500                                    open loop at 500 operations per second in total
+ * </pre>
+ * Without -rate every thread starts its next operation as soon as the last one returns (closed loop). With
+ * -rate the operations are scheduled at fixed times and each latency is measured from its scheduled time, so
+ * an operation delayed by a slow one before it is reported as late instead of being left out (coordinated
+ * omission); when the rate is above the capacity the latencies grow without bound, which is the answer.
+ * <p>
+ * Runs from the benchmarks jar: java -jar target/benchmarks.jar load [options].
+ */
+public class LoadGenerator {
+
+    enum Operation {
+        SIGN, VERIFY, ENCRYPT, DECRYPT
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final int K1LEN = 16, K2LEN = 32;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int durationSeconds = 60, warmupSeconds = 10;
+    private int identities = 100;
+    private int[] weights = {4, 4, 1, 1};
+    private int size = 1024;
+    private double rate;
+
+    // per identity
+    private String[] ids;
+    private Sm9SignPrivateKey[] signKeys;
+    private Sm9EncryptPrivateKey[] encryptKeys;
+    private Signature[] signatures;
+    private byte[][] ciphertexts;
+    private byte[] message;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[OPERATIONS.length];
+    private final AtomicLong errors = new AtomicLong();
+    private volatile boolean recording, running = true;
+
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            if (args[i].equals("-threads"))
+                generator.threads = Integer.parseInt(value);
+            else if (args[i].equals("-duration"))
+                generator.durationSeconds = Integer.parseInt(value);
+            else if (args[i].equals("-warmup"))
+                generator.warmupSeconds = Integer.parseInt(value);
+            else if (args[i].equals("-identities"))
+                generator.identities = Integer.parseInt(value);
+            else if (args[i].equals("-mix"))
+                generator.weights = parseMix(value);
+            else if (args[i].equals("-size"))
+                generator.size = Integer.parseInt(value);
+            else if (args[i].equals("-rate"))
+                generator.rate = Double.parseDouble(value);
+            else
+                throw new IllegalArgumentException("unknown option " + args[i]);
+        }
+        if (args.length % 2 != 0)
+            throw new IllegalArgumentException("missing value of " + args[args.length - 1]);
+        int total = 0;
+        for (int weight : generator.weights)
+            total += weight;
+        if (total <= 0 || generator.threads <= 0 || generator.identities <= 0)
+            throw new IllegalArgumentException("threads, identities and the mix must be positive");
+
+        generator.setUp();
+        generator.run();
+    }
+
+    /**
+     * Parses "sign=4,verify=4,..."; operations left out get weight 0.
+     */
+    static int[] parseMix(String mix) {
+        int[] weights = new int[OPERATIONS.length];
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split("=");
+            weights[Operation.valueOf(kv[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(kv[1].trim());
+        }
+        return weights;
+    }
+
+    private void setUp() throws Exception {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null)
+            Security.addProvider(new BouncyCastleProvider());
+
+        System.out.println(String.format("preparing %d identities", identities));
+        KeyGenerationCenter kgc = KeyGenerationCenter.getInstance();
+        kgc.getDomain().warmUp();
+        message = new byte[size];
+        new SecureRandom().nextBytes(message);
+
+        ids = new String[identities];
+        signKeys = new Sm9SignPrivateKey[identities];
+        encryptKeys = new Sm9EncryptPrivateKey[identities];
+        signatures = new Signature[identities];
+        ciphertexts = new byte[identities][];
+        Sm9Signer signer = new Sm9Signer();
+        Sm9Engine engine = newEngine();
+        for (int i = 0; i < identities; i++) {
+            ids[i] = "user" + i + "@example.com";
+            signKeys[i] = kgc.generateSignPrivatekey(ids[i]);
+            encryptKeys[i] = kgc.generateEncrypyPrivateKey(ids[i]);
+            signer.initSign(signKeys[i]);
+            signatures[i] = signer.generateSignature(message);
+            engine.initEncrypt(true, ids[i], K1LEN, K2LEN, 1);
+            ciphertexts[i] = engine.processBlock(message, 0, message.length);
+        }
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+    }
+
+    private void run() throws Exception {
+        System.out.println(String.format("%d threads, %s, mix %s, %d byte messages, %ds warm-up, %ds measured",
+                threads, rate > 0 ? String.format("open loop at %.0f ops/s", rate) : "closed loop", mixToString(),
+                size, warmupSeconds, durationSeconds));
+
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Worker(i, start), "sm9-load-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+        long allocated0 = allocatedBytes(workers), cpu0 = processCpuTime(), t0 = System.nanoTime();
+        recording = true;
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        recording = false;
+        long allocated1 = allocatedBytes(workers), cpu1 = processCpuTime(), t1 = System.nanoTime();
+        running = false;
+        for (Thread worker : workers)
+            worker.join();
+
+        report(t1 - t0, allocated0 < 0 ? -1 : allocated1 - allocated0, cpu0 < 0 ? -1 : cpu1 - cpu0);
+    }
+
+    private void report(long nanos, long allocated, long cpuNanos) {
+        double seconds = nanos / 1e9;
+        long total = 0;
+        System.out.println();
+        System.out.println(String.format("%-10s %10s %10s %10s %10s %10s %10s %10s %10s", "operation", "count",
+                "ops/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Operation operation : OPERATIONS) {
+            LatencyHistogram.Snapshot latency = histograms[operation.ordinal()].snapshot();
+            if (latency.getCount() == 0)
+                continue;
+            total += latency.getCount();
+            System.out.println(String.format("%-10s %10d %10.1f %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f",
+                    operation.name().toLowerCase(), latency.getCount(), latency.getCount() / seconds,
+                    latency.getMean() / 1e6, latency.getValueAtPercentile(50) / 1e6,
+                    latency.getValueAtPercentile(90) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+                    latency.getValueAtPercentile(99.9) / 1e6, latency.getMax() / 1e6));
+        }
+        System.out.println(String.format("%-10s %10d %10.1f", "total", total, total / seconds));
+        if (errors.get() != 0)
+            System.out.println(String.format("errors: %d", errors.get()));
+
+        if (allocated >= 0)
+            System.out.println(String.format("allocation: %.1f MB/s, %.0f bytes/op", allocated / seconds / (1 << 20),
+                    total == 0 ? 0 : (double) allocated / total));
+        if (cpuNanos >= 0)
+            System.out.println(String.format("cpu: %.1f%% of %d processors", 100.0 * cpuNanos / nanos
+                    / Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors()));
+    }
+
+    private class Worker implements Runnable {
+        private final Random random;
+        private final long interval;
+        private long next;
+
+        Worker(int index, long start) {
+            this.random = new Random(index * 0x9e3779b97f4a7c15L);
+            // each thread takes an equal share of the rate, the threads' schedules interleaved
+            this.interval = rate > 0 ? (long) (threads * 1e9 / rate) : 0;
+            this.next = start + interval * index / threads;
+        }
+
+        public void run() {
+            try {
+                Sm9Signer signer = new Sm9Signer();
+                Sm9Engine engine = newEngine();
+                int total = 0;
+                for (int weight : weights)
+                    total += weight;
+
+                while (running) {
+                    long scheduled;
+                    if (interval > 0) {
+                        scheduled = next;
+                        next += interval;
+                        long now;
+                        while ((now = System.nanoTime()) < scheduled) {
+                            if (!running)
+                                return;
+                            LockSupport.parkNanos(scheduled - now);
+                        }
+                    } else {
+                        scheduled = System.nanoTime();
+                    }
+
+                    Operation operation = pick(random.nextInt(total));
+                    int i = random.nextInt(identities);
+                    boolean ok = execute(operation, i, signer, engine);
+                    long latency = System.nanoTime() - scheduled;
+                    if (recording) {
+                        histograms[operation.ordinal()].record(latency);
+                        if (!ok)
+                            errors.incrementAndGet();
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                errors.incrementAndGet();
+            }
+        }
+
+        private Operation pick(int r) {
+            for (int i = 0; i < weights.length; i++) {
+                r -= weights[i];
+                if (r < 0)
+                    return OPERATIONS[i];
+            }
+            throw new IllegalStateException();
+        }
+    }
+
+    private boolean execute(Operation operation, int i, Sm9Signer signer, Sm9Engine engine) {
+        try {
+            switch (operation) {
+                case SIGN:
+                    signer.initSign(signKeys[i]);
+                    return signer.generateSignature(message) != null;
+                case VERIFY:
+                    signer.initVerify(ids[i]);
+                    return signer.verifySignature(message, signatures[i]);
+                case ENCRYPT:
+                    engine.initEncrypt(true, ids[i], K1LEN, K2LEN, 1);
+                    return engine.processBlock(message, 0, message.length).length > 0;
+                default:
+                    engine.initDecrypt(false, ids[i], encryptKeys[i], K1LEN, K2LEN, 1);
+                    return engine.processBlock(ciphertexts[i], 0, ciphertexts[i].length).length == message.length;
+            }
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static Sm9Engine newEngine() throws Exception {
+        return new Sm9Engine(Cipher.getInstance("SM4/ECB/PKCS5Padding", "BC"));
+    }
+
+    private String mixToString() {
+        StringBuilder sb = new StringBuilder();
+        for (Operation operation : OPERATIONS) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(operation.name().toLowerCase()).append('=').append(weights[operation.ordinal()]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Bytes allocated so far by the workers, -1 if the JVM cannot tell.
+     */
+    private static long allocatedBytes(Thread[] workers) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported())
+            return -1;
+
+        long total = 0;
+        for (Thread worker : workers)
+            total += Math.max(0, threads.getThreadAllocatedBytes(worker.getId()));
+        return total;
+    }
+
+    /**
+     * CPU time of the whole process in nanoseconds, -1 if the JVM cannot tell.
+     */
+    private static long processCpuTime() {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (!(bean instanceof com.sun.management.OperatingSystemMXBean))
+            return -1;
+        return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+    }
+}
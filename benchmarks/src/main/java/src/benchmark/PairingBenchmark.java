@@ -0,0 +1,60 @@
+package src.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import src.api.Element;
+import src.pairing.f.TypeFRatePairingMap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The R-ate pairing whole and in its two halves, the Miller loop and the final exponentiation, and
+ * exponentiation in GT.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PairingBenchmark {
+
+    private TypeFRatePairingMap map;
+    private Element millerOutput;
+    private Element gt;
+
+    @Setup
+    public void setUp(Sm9State state) {
+        map = new TypeFRatePairingMap(state.pairing);
+        millerOutput = map.millerLoop(state.p1, state.p2);
+        gt = state.domain.getSignGT();
+    }
+
+    @Benchmark
+    public Element pairing(Sm9State state) {
+        return state.kgc.pair(state.p1, state.p2);
+    }
+
+    @Benchmark
+    public Element millerLoop(Sm9State state) {
+        return map.millerLoop(state.p1, state.p2);
+    }
+
+    @Benchmark
+    public Element finalExponentiation() {
+        return map.finalExponentiation(millerOutput);
+    }
+
+    @Benchmark
+    public Element gtPow(Sm9State state) {
+        return gt.pow(state.scalar);
+    }
+}
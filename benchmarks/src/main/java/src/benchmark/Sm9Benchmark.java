@@ -0,0 +1,99 @@
+package src.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import src.EncapsulatedKey;
+import src.KEM;
+import src.Signature;
+import src.Sm9CiphertextCodec;
+import src.Sm9Engine;
+import src.Sm9Signer;
+
+import javax.crypto.Cipher;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SM9 operations end to end on messages of messageSize bytes: sign, verify, encrypt and decrypt with SM4,
+ * and encapsulation of a 256 bit key.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Sm9Benchmark {
+
+    @Param({"32", "1024", "65536"})
+    public int messageSize;
+
+    private byte[] message;
+    private Signature signature;
+    private byte[] ciphertext;
+    private EncapsulatedKey encapsulated;
+
+    private Sm9Signer signer, verifier;
+    private Sm9Engine encryptor, decryptor;
+    private KEM kem;
+
+    @Setup
+    public void setUp(Sm9State state) throws Exception {
+        message = new byte[messageSize];
+        new Random(messageSize).nextBytes(message);
+
+        signer = new Sm9Signer(state.domain);
+        signer.initSign(state.signKey);
+        verifier = new Sm9Signer(state.domain);
+        verifier.initVerify(Sm9State.ID);
+        signature = signer.generateSignature(message);
+
+        encryptor = new Sm9Engine(Cipher.getInstance("SM4/ECB/PKCS5Padding", "BC"), Sm9CiphertextCodec.DER, state.domain);
+        encryptor.initEncrypt(true, Sm9State.ID, 16, 32, 1);
+        decryptor = new Sm9Engine(Cipher.getInstance("SM4/ECB/PKCS5Padding", "BC"), Sm9CiphertextCodec.DER, state.domain);
+        decryptor.initDecrypt(false, Sm9State.ID, state.encryptKey, 16, 32, 1);
+        ciphertext = encryptor.processBlock(message, 0, message.length);
+
+        kem = new KEM(state.domain);
+        encapsulated = kem.encapsulate(Sm9State.ID.getBytes(), 256);
+    }
+
+    @Benchmark
+    public Signature sign() throws Exception {
+        return signer.generateSignature(message);
+    }
+
+    @Benchmark
+    public boolean verify() throws Exception {
+        return verifier.verifySignature(message, signature);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        return encryptor.processBlock(message, 0, message.length);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return decryptor.processBlock(ciphertext, 0, ciphertext.length);
+    }
+
+    @Benchmark
+    public EncapsulatedKey encapsulate() {
+        return kem.encapsulate(Sm9State.ID.getBytes(), 256);
+    }
+
+    @Benchmark
+    public byte[] decapsulate(Sm9State state) throws Exception {
+        return kem.decapsulate(encapsulated.getC(), Sm9State.ID.getBytes(), state.encryptKey, 256);
+    }
+}
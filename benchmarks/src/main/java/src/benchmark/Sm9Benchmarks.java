@@ -0,0 +1,78 @@
+package src.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Runs the benchmarks selected on the command line (all of them by default) with the GC profiler on, so every
+ * result comes with its allocation rate, and writes the results as JSON to jmh-result.json.
+ * Any JMH option given on the command line takes precedence.
+ * <p>
+ * Two commands run the regression suite instead, the pairing, curve, hash, sign and verify benchmarks:
+ * <pre>
+ *   record  [jmh options]                      saves the results as the baseline, baseline.json
+ *   compare [-threshold 0.2] [jmh options]     compares the results with the baseline, exits with 1 on a regression
+ * </pre>
+ * The baseline file is looked up in the working directory; -Dsm9.baseline=path overrides it.
+ * <p>
+ * <code>load [options]</code> runs the {@link LoadGenerator} instead of JMH.
+ */
+public class Sm9Benchmarks {
+
+    public static final String RESULT = "jmh-result.json";
+    public static final String[] REGRESSION_SUITE = {
+            "src\\.benchmark\\.PairingBenchmark\\..*",
+            "src\\.benchmark\\.CurveBenchmark\\..*",
+            "src\\.benchmark\\.HashBenchmark\\..*",
+            "src\\.benchmark\\.Sm9Benchmark\\.(sign|verify)$"};
+
+    public static void main(String[] args) throws Exception {
+        String command = args.length > 0 ? args[0] : "";
+        if (command.equals("load")) {
+            LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (!command.equals("record") && !command.equals("compare")) {
+            run(args, new String[]{"src\\.benchmark\\..*"});
+            return;
+        }
+
+        args = Arrays.copyOfRange(args, 1, args.length);
+        double threshold = BaselineReport.DEFAULT_THRESHOLD;
+        if (args.length > 1 && args[0].equals("-threshold")) {
+            threshold = Double.parseDouble(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        File baseline = new File(System.getProperty("sm9.baseline", "baseline.json"));
+
+        run(args, REGRESSION_SUITE);
+        if (command.equals("record")) {
+            BaselineReport.record(new File(RESULT), baseline);
+            System.out.println("baseline written to " + baseline);
+        } else if (!new BaselineReport(baseline, new File(RESULT), threshold).print(System.out)) {
+            System.exit(1);
+        }
+    }
+
+    private static void run(String[] args, String[] defaultIncludes) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(cli)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(RESULT);
+        if (cli.getIncludes().isEmpty()) {
+            for (String include : defaultIncludes)
+                options.include(include);
+        }
+
+        new Runner(options.build()).run();
+    }
+}
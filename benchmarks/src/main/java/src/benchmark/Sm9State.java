@@ -0,0 +1,48 @@
+package src.benchmark;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import src.KeyGenerationCenter;
+import src.Sm9Domain;
+import src.Sm9EncryptPrivateKey;
+import src.Sm9SignPrivateKey;
+import src.field.curve.CurveElement;
+import src.pairing.f.TypeFPairing;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.security.Security;
+
+/**
+ * The key generation center, one identity's keys and random inputs, shared by the benchmarks of a fork.
+ */
+@State(Scope.Benchmark)
+public class Sm9State {
+
+    public static final String ID = "alice@example.com";
+
+    public KeyGenerationCenter kgc;
+    public Sm9Domain domain;
+    public TypeFPairing pairing;
+    public Sm9SignPrivateKey signKey;
+    public Sm9EncryptPrivateKey encryptKey;
+    public CurveElement p1, p2;
+    public BigInteger scalar;
+
+    @Setup
+    public void setUp() throws Exception {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null)
+            Security.addProvider(new BouncyCastleProvider());
+
+        kgc = KeyGenerationCenter.getInstance();
+        domain = kgc.getDomain().warmUp();
+        pairing = kgc.getPairing();
+        signKey = kgc.generateSignPrivatekey(ID);
+        encryptKey = kgc.generateEncrypyPrivateKey(ID);
+        scalar = new BigInteger(kgc.getN().bitLength() - 1, new SecureRandom());
+        p1 = kgc.getG1().duplicate().mul(scalar);
+        p2 = kgc.getG2().duplicate().mul(scalar);
+    }
+}
@@ -4,6 +4,8 @@ import iaik.security.ec.math.curve.ECPoint;
 import mcl.bn254.Ec1;
 import src.field.curve.CurveElement;
 
+import java.nio.ByteBuffer;
+
 /**
  * Created by mzy on 2017/4/24.
  */
@@ -23,4 +25,18 @@ public class EncapsulatedKey {
     public CurveElement getC() {
         return c;
     }
+
+    public int getEncodedLength() {
+        return c.getField().getLengthInBytes();
+    }
+
+    /**
+     * Writes C (x || y) into out. K stays with the sender and is never written.
+     *
+     * @return the number of bytes written.
+     */
+    public int writeTo(ByteBuffer out) {
+        out.put(c.toBytes());
+        return getEncodedLength();
+    }
 }
@@ -4,10 +4,16 @@ import iaik.security.ec.math.curve.ECPoint;
 import iaik.security.ec.math.curve.EllipticCurve;
 import iaik.security.ec.math.field.GenericFieldElement;
 import mcl.bn254.*;
+import org.bouncycastle.crypto.OutputLengthException;
 import src.api.Element;
 import src.field.curve.CurveElement;
+import src.field.curve.CurveField;
+import src.util.metrics.OperationCounters;
+import src.util.metrics.Sm9Metrics;
+import src.util.metrics.Sm9Metrics.Stage;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.Arrays;
 
@@ -16,38 +22,86 @@ import java.util.Arrays;
  */
 public class KEM {
 
+    private SecureRandom random;
+    private Sm9Domain domain;
+
+    public KEM(){
+
+    }
+
+    /**
+     * A KEM working in domain instead of the domain of {@link KeyGenerationCenter#getInstance()}.
+     */
+    public KEM(Sm9Domain domain){
+        this.domain=domain;
+    }
+
+    /**
+     * Sets the source of the random scalars; null, the default, uses {@link Sm9Random#current()}.
+     */
+    public void setRandom(SecureRandom random){
+        this.random=random;
+    }
+
+    /**
+     * A key of klen bits. When klen is not a whole number of bytes, the key is the first klen bits of the KDF
+     * output right-aligned in (klen + 7) / 8 bytes, the same as {@link Sm9Util#KDF(byte[], long)}.
+     */
     public EncapsulatedKey encapsulate(byte [] id,long klen){
-        KeyGenerationCenter kgc =KeyGenerationCenter.getInstance();
-        BigInteger N=kgc.getN();
+        byte [] k=new byte[(int)((klen+7)/8)];
+        CurveElement c;
+        do {
+            c=encapsulate(id,ByteBuffer.wrap(k));
+            alignRight(k,klen);
+        }while(testZeros(k));
+        return new EncapsulatedKey(k,c);
+    }
+
+    /**
+     * Writes k.remaining() bytes of fresh key material into k and returns the matching C.
+     */
+    public CurveElement encapsulate(byte [] id,ByteBuffer k){
+        OperationCounters.Scope scope=OperationCounters.enter("encapsulate");
+        Sm9Metrics.Trace trace=Sm9Metrics.begin(Sm9Metrics.Operation.ENCAPSULATE,id);
+        try {
+            return doEncapsulate(id,k,trace);
+        } finally {
+            trace.end();
+            scope.exit();
+        }
+    }
+
+    private CurveElement doEncapsulate(byte [] id,ByteBuffer k,Sm9Metrics.Trace trace){
+        Sm9Domain domain=domain();
+        BigInteger N=domain.getN();
         CurveElement g1,g2,ppube;
 //        Ec1 g1=kgc.getG1();
 //        Ec2 g2=kgc.getG2();
 //        Ec1 ppube=kgc.getPpube();
-        g1=kgc.getG1();
-        g2=kgc.getG2();
-        ppube=kgc.getPpube();
+        g1=domain.getG1();
+        g2=domain.getG2();
+        ppube=domain.getPpube();
 
         byte []merge=new byte[id.length+1];
         System.arraycopy(id,0,merge,0,id.length);
-        merge[id.length]=kgc.hid2;
+        merge[id.length]=domain.getEncryptHid();
 
         BigInteger h1=Sm9Util.h1(merge,N);
+        trace.stage(Stage.H1);
 
 //        Ec1 qb=new Ec1(g1);
 //        qb.mul(new Mpz(h1.toString(10)));
 //        qb.add(ppube);
-        CurveElement qb=g1.duplicate().mul(h1).add(ppube);
+        CurveElement qb=domain.getG1Comb().pow(h1).add(ppube);
 
-        byte [] k;
+        int start=k.position();
         CurveElement c;
         do{
-            BigInteger r;
-            do {
-                r = new BigInteger(N.bitLength(), new SecureRandom());
-
-            } while (r.compareTo(N) >= 0||r.compareTo(BigInteger.ONE)<0);
+            k.position(start);
+            BigInteger r=Sm9Random.nextScalar(random!=null ? random : Sm9Random.current(),N);
 
-            c=qb.mul(r);
+            c=qb.duplicate().mul(r);
+            trace.stage(Stage.SCALAR_MUL);
 
           //  byte [] cb=Sm9Util.ECpoint1Tobytes(c);
             byte [] cb=c.toBytes();
@@ -57,21 +111,79 @@ public class KEM {
 //            Fp12 w=new Fp12(g);
 //            w.power(new Mpz(r.toString(10)));
 //            byte [] wb=Sm9Util.Fp12ToBytes(w);
-            Element g=kgc.pair(ppube,g2);
+            Element g=domain.getEncryptGT();
             Element w=g.pow(r);
             byte [] wb=Sm9Util.GTFiniteElementToByte(w);
+            trace.stage(Stage.GT_POW);
 
             byte [] merge1=Sm9Util.byteMerger(cb,wb);
             byte [] merge2=Sm9Util.byteMerger(merge1,id);
-            k=Sm9Util.KDF(merge2,klen);
-        }while (testZeros(k));
+            Sm9Util.KDF(merge2,k);
+            trace.stage(Stage.KDF);
+        }while (testZeros(k,start));
 
 
-        return new EncapsulatedKey(k,c);
+        return c;
+
+    }
 
+    /**
+     * Encapsulates into caller buffers: k.remaining() bytes of key go to k and the encoded C to c.
+     *
+     * @return the number of bytes written to c.
+     */
+    public int encapsulate(byte [] id,ByteBuffer k,ByteBuffer c){
+        int len=domain().getCurve1().getLengthInBytes();
+        if(c.remaining()<len)
+            throw new OutputLengthException("output buffer too short");
+        c.put(encapsulate(id,k).toBytes());
+        return len;
     }
+
     public byte[] decapsulate(CurveElement c,byte [] id,Sm9EncryptPrivateKey de,long klen) throws Exception{
-        KeyGenerationCenter kgc=KeyGenerationCenter.getInstance();
+        byte [] k=new byte[(int)((klen+7)/8)];
+        decapsulate(c,id,de,ByteBuffer.wrap(k));
+        alignRight(k,klen);
+        if(testZeros(k))
+        {
+            throw new Exception("k is zeroo");
+        }
+        return k;
+    }
+
+    /**
+     * Reads an encoded C from c and writes k.remaining() bytes of the recovered key into k.
+     */
+    public void decapsulate(ByteBuffer c,byte [] id,Sm9EncryptPrivateKey de,ByteBuffer k) throws Exception{
+        CurveField curve=domain().getCurve1();
+        CurveElement point=curve.newElement();
+        byte [] cb=new byte[curve.getLengthInBytes()];
+        if(c.remaining()<cb.length)
+        {
+            throw new Exception("invalid content");
+        }
+        c.get(cb);
+        point.setFromBytes(cb);
+        if(point.isZero())
+        {
+            throw new Exception("invalid content");
+        }
+        decapsulate(point,id,de,k);
+    }
+
+    public void decapsulate(CurveElement c,byte [] id,Sm9EncryptPrivateKey de,ByteBuffer k) throws Exception{
+        OperationCounters.Scope scope=OperationCounters.enter("decapsulate");
+        Sm9Metrics.Trace trace=Sm9Metrics.begin(Sm9Metrics.Operation.DECAPSULATE,id);
+        try {
+            doDecapsulate(c,id,de,k,trace);
+        } finally {
+            trace.end();
+            scope.exit();
+        }
+    }
+
+    private void doDecapsulate(CurveElement c,byte [] id,Sm9EncryptPrivateKey de,ByteBuffer k,Sm9Metrics.Trace trace) throws Exception{
+        Sm9Domain domain=domain();
         //EllipticCurve curve1=kgc.getCurve1();
        // if(!curve1.containsPoint(c.toJDKECPoint()))
         if(!c.isValid())
@@ -83,25 +195,52 @@ public class KEM {
 //        w.pairing(de.getDe(),ec1);
 //        byte [] wb=Sm9Util.Fp12ToBytes(w);
 //        byte [] cb=Sm9Util.ec1ToBytes(ec1);
-        Element w=kgc.pair(c,de.getDe());
+        Element w=domain.pair(c,de.getDe());
         byte [] wb=Sm9Util.GTFiniteElementToByte(w);
+        trace.stage(Stage.PAIRING);
        // byte [] cb=Sm9Util.ECpoint1Tobytes(c);
         byte [] cb=c.toBytes();
         byte [] merge1=Sm9Util.byteMerger(cb,wb);
         byte [] merge2=Sm9Util.byteMerger(merge1,id);
-        byte [] k=Sm9Util.KDF(merge2,klen);
-        if(testZeros(k))
+        int start=k.position();
+        Sm9Util.KDF(merge2,k);
+        trace.stage(Stage.KDF);
+        if(testZeros(k,start))
         {
             throw new Exception("k is zeroo");
         }
-        return k;
     }
 
-    private boolean testZeros(byte[] in) {
-        for (byte b : in) {
+    private Sm9Domain domain(){
+        return domain!=null ? domain : KeyGenerationCenter.getInstance().getDomain();
+    }
+
+    /**
+     * Shifts the first klen bits of k, which holds (klen + 7) / 8 bytes, to its end.
+     */
+    private static void alignRight(byte [] k,long klen){
+        int shift=(int)((8-klen%8)%8);
+        if(shift==0)
+            return;
+        for(int i=k.length-1;i>=0;i--){
+            int high=i>0 ? k[i-1]<<(8-shift) : 0;
+            k[i]=(byte)(((k[i]&0xff)>>>shift)|high);
+        }
+    }
+
+    private boolean testZeros(byte [] k) {
+        for (byte b : k) {
             if (b != 0)
                 return false;
         }
         return true;
     }
+
+    private boolean testZeros(ByteBuffer k,int start) {
+        for (int i = start; i < k.position(); i++) {
+            if (k.get(i) != 0)
+                return false;
+        }
+        return true;
+    }
 }
@@ -5,14 +5,24 @@ import src.api.Element;
 import src.api.PairingParameters;
 import src.api.PairingParametersGenerator;
 import src.api.Point;
+import src.field.curve.CurveCombPreProcessing;
 import src.field.curve.CurveElement;
 import src.field.curve.CurveField;
+import src.field.curve.JacobianPoint;
+import src.field.gt.GTFiniteElement;
 import src.field.gt.GTFiniteField;
 import src.pairing.f.TypeFCurveGenerator;
 import src.pairing.f.TypeFPairing;
+import src.util.concurrent.ExecutorServiceUtils;
+import src.util.math.BigIntegerUtils;
 
 import java.math.BigInteger;
-import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Created by mzy on 2017/4/17.
@@ -25,8 +35,13 @@ public class KeyGenerationCenter {
     private BigInteger ks; //master sign private key
     private BigInteger ke;//master encrypt private key
 
-    public byte hid=0x01;
-    public byte hid2=0x02;
+    /**
+     * The identifiers of the sign and encrypt private key functions. Fixed: keys are extracted with those of
+     * the domain, {@link Sm9Domain#getSignHid()} and {@link Sm9Domain#getEncryptHid()}, which its signers
+     * and engines check against.
+     */
+    public final byte hid=0x01;
+    public final byte hid2=0x02;
 
 //    private ECPoint g1,g2,ppubs,ppube;
 //    private EllipticCurve curve1,curve2;
@@ -36,15 +51,24 @@ public class KeyGenerationCenter {
     private GTFiniteField gt;
     private TypeFPairing pairing;
 
-    private SecureRandom random;
-    private SecureRandom random2;
-
     private BigInteger N; // the order
 
+    private ForkJoinPool pool=ForkJoinPool.commonPool();
+    private Sm9Domain domain;
+
+    public static final String DEFAULT_DOMAIN="default";
+
     private static KeyGenerationCenter THIS;
 
 
     public KeyGenerationCenter(){
+        this(DEFAULT_DOMAIN);
+    }
+
+    /**
+     * A center with fresh master keys for the domain domainId.
+     */
+    public KeyGenerationCenter(String domainId){
 
 
 //        this.pairing2 = AtePairingOverBarretoNaehrigCurveFactory
@@ -93,28 +117,55 @@ public class KeyGenerationCenter {
         this.N=pairing.getR();
 
 
-        this.random=new SecureRandom();
-        this.random2=new SecureRandom();
-
-        //generate ks the sign master private key [1,N-1]
-        BigInteger temp,temp2;
-        while(true) {
-            temp=new BigInteger(N.bitLength(),random);
-            if(temp.compareTo(BigInteger.ZERO)==1 && temp.compareTo(N)==-1)
-                break;
-        }
-
-        while(true) {
-            temp2=new BigInteger(N.bitLength(),random2);
-            if(temp2.compareTo(BigInteger.ZERO)==1 && temp.compareTo(N)==-1)
-                break;
-        }
+        //generate ks and ke, the sign and encrypt master private keys, in [1,N-1]
+        BigInteger temp=Sm9Random.current().nextScalar(N);
+        BigInteger temp2=Sm9Random.current().nextScalar(N);
 
         this.ks = temp;
         this.ke =temp2;
 
         this.ppubs=g2.duplicate().mul(ks);
         this.ppube=g1.duplicate().mul(ke);
+        this.domain=new Sm9Domain(domainId,pairing,g1,g2,ppubs,ppube,hid,hid2);
+    }
+
+    /**
+     * A center that only serves public operations (signing, verification, encryption, decryption) from a
+     * snapshot; extracting private keys throws.
+     */
+    public KeyGenerationCenter(Sm9PublicParameters params){
+        this(DEFAULT_DOMAIN,params);
+    }
+
+    public KeyGenerationCenter(String domainId,Sm9PublicParameters params){
+        this.pairing=params.getPairing();
+        this.curve1=(CurveField) pairing.getG1();
+        this.curve2=(CurveField) pairing.getG2();
+        this.gt=(GTFiniteField) pairing.getGT();
+        this.N=pairing.getR();
+
+        this.g1=params.getG1();
+        this.g2=params.getG2();
+        this.ppubs=params.getPpubs();
+        this.ppube=params.getPpube();
+        this.domain=new Sm9Domain(domainId,params);
+    }
+
+    /**
+     * A full center restored from a snapshot and its master private keys.
+     *
+     * @throws Exception if ks or ke do not belong to the master public keys of params.
+     */
+    public KeyGenerationCenter(Sm9PublicParameters params,BigInteger ks,BigInteger ke) throws Exception {
+        this(DEFAULT_DOMAIN,params,ks,ke);
+    }
+
+    public KeyGenerationCenter(String domainId,Sm9PublicParameters params,BigInteger ks,BigInteger ke) throws Exception {
+        this(domainId,params);
+        if(!getG2Comb().pow(ks).isEqual(ppubs) || !getG1Comb().pow(ke).isEqual(ppube))
+            throw new Exception("master private keys do not match the public parameters");
+        this.ks=ks;
+        this.ke=ke;
     }
 
     public static KeyGenerationCenter getInstance()
@@ -126,13 +177,33 @@ public class KeyGenerationCenter {
         return  THIS;
     }
 
+    /**
+     * Replaces the center returned by {@link #getInstance()}, e.g. with one restored from a snapshot.
+     */
+    public static void setInstance(KeyGenerationCenter kgc)
+    {
+        THIS=kgc;
+    }
+
+    /**
+     * The public side of this center, which also holds its cached pairing values and comb tables.
+     */
+    public Sm9Domain getDomain(){
+        return domain;
+    }
+
+    public Sm9PublicParameters getPublicParameters(){
+        return domain.getPublicParameters();
+    }
+
     public Sm9SignPrivateKey generateSignPrivatekey(String id) throws Exception {
+        checkMasterKey(ks);
 
         byte [] idbytes = id.getBytes();
         int length=idbytes.length;
         byte [] temp = new byte [length+1];
         System.arraycopy(idbytes,0,temp,0,length);
-        temp[length]=hid;
+        temp[length]=domain.getSignHid();
 
         BigInteger t1=Sm9Util.h1(temp,N).add(ks);
         t1=t1.mod(N);
@@ -152,11 +223,12 @@ public class KeyGenerationCenter {
         return new Sm9SignPrivateKey(ds);
     }
     public Sm9EncryptPrivateKey generateEncrypyPrivateKey(String id) throws Exception {
+        checkMasterKey(ke);
         byte [] idb=id.getBytes();
         int length=idb.length;
         byte [] merge=new byte[length+1];
         System.arraycopy(idb,0,merge,0,length);
-        merge[length]=hid2;
+        merge[length]=domain.getEncryptHid();
 
         BigInteger t1=Sm9Util.h1(merge,N).add(ke);
         t1=t1.mod(N);
@@ -174,7 +246,125 @@ public class KeyGenerationCenter {
         CurveElement de=g2.duplicate().mul(t2);
         return new Sm9EncryptPrivateKey(de);
     }
+
+    /**
+     * Batch form of {@link #generateSignPrivatekey(String)}: H1 runs in parallel, all t1 are inverted at once
+     * and the keys come out of the fixed-base comb for P1 with a single field inversion.
+     */
+    public Sm9SignPrivateKey[] generateSignPrivatekeys(List<String> ids) throws Exception {
+        checkMasterKey(ks);
+        CurveElement[] ds=extract(ids,domain.getSignHid(),ks,getG1Comb(),"need to update the master sign private key ");
+        Sm9SignPrivateKey[] keys=new Sm9SignPrivateKey[ds.length];
+        for(int i=0;i<ds.length;i++)
+            keys[i]=new Sm9SignPrivateKey(ds[i]);
+        return keys;
+    }
+
+    /**
+     * Batch form of {@link #generateEncrypyPrivateKey(String)}, see {@link #generateSignPrivatekeys(List)}.
+     */
+    public Sm9EncryptPrivateKey[] generateEncrypyPrivateKeys(List<String> ids) throws Exception {
+        checkMasterKey(ke);
+        CurveElement[] de=extract(ids,domain.getEncryptHid(),ke,getG2Comb(),"need to update the master encrypt private key");
+        Sm9EncryptPrivateKey[] keys=new Sm9EncryptPrivateKey[de.length];
+        for(int i=0;i<de.length;i++)
+            keys[i]=new Sm9EncryptPrivateKey(de[i]);
+        return keys;
+    }
+
+    /**
+     * Pool running the batch extractions, the common pool by default.
+     */
+    public void setPool(ForkJoinPool pool){
+        this.pool=pool;
+    }
+
+    public CurveCombPreProcessing getG1Comb(){
+        return domain.getG1Comb();
+    }
+
+    public CurveCombPreProcessing getG2Comb(){
+        return domain.getG2Comb();
+    }
+
+    /**
+     * e(P1, Ppubs), computed once; the result is immutable.
+     */
+    public GTFiniteElement getSignGT(){
+        return domain.getSignGT();
+    }
+
+    /**
+     * e(Ppube, P2), computed once; the result is immutable.
+     */
+    public GTFiniteElement getEncryptGT(){
+        return domain.getEncryptGT();
+    }
+
+    private static void checkMasterKey(BigInteger s) throws Exception {
+        if(s==null)
+            throw new Exception("the master private key is not available");
+    }
+
+    // [s / (H1(id || hid) + s)] base for every id
+    private CurveElement[] extract(final List<String> ids,final byte hid,final BigInteger s,
+                                   final CurveCombPreProcessing comb,String error) throws Exception {
+        final int count=ids.size();
+        final BigInteger[] t=new BigInteger[count];
+        invokeAll(count,new Range() {
+            public void run(int i){
+                byte [] idb=ids.get(i).getBytes();
+                byte [] merge=new byte[idb.length+1];
+                System.arraycopy(idb,0,merge,0,idb.length);
+                merge[idb.length]=hid;
+                t[i]=Sm9Util.h1(merge,N).add(s).mod(N);
+            }
+        });
+        for(BigInteger t1:t) {
+            if(t1.signum()==0)
+                throw new Exception(error);
+        }
+
+        BigInteger [] inv=BigIntegerUtils.modInverse(t,N);
+        final JacobianPoint[] points=new JacobianPoint[count];
+        for(int i=0;i<count;i++)
+            t[i]=s.multiply(inv[i]).mod(N);
+        invokeAll(count,new Range() {
+            public void run(int i){
+                points[i]=comb.powJacobian(t[i]);
+            }
+        });
+
+        return comb.getField().normalize(points);
+    }
+
+    private interface Range{
+        void run(int i);
+    }
+
+    private void invokeAll(int count,final Range range) throws Exception {
+        int chunks=Math.max(1,Math.min(count,4*pool.getParallelism()));
+        List<Callable<Void>> tasks=new ArrayList<Callable<Void>>(chunks);
+        for(int c=0;c<chunks;c++) {
+            tasks.add(new ExecutorServiceUtils.IntervalCallable<Void>(count*c/chunks,count*(c+1)/chunks) {
+                public Void call(){
+                    for(int i=from;i<to;i++)
+                        range.run(i);
+                    return null;
+                }
+            });
+        }
+        for(Future<Void> f:pool.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+    }
+
     public Element pair(CurveElement p1,CurveElement p2){ return pairing.pairing(p1,p2);}
+    public TypeFPairing getPairing(){return this.pairing;}
     public CurveElement getPpubs(){return this.ppubs ;}
     public CurveElement getPpube(){return this.ppube;}
     public CurveElement getG1 (){return this.g1;}
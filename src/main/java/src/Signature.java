@@ -3,8 +3,10 @@ package src;
 
 import src.api.Element;
 import src.field.curve.CurveElement;
+import src.field.curve.CurveField;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -19,4 +21,68 @@ public class Signature {
         this.h=h;
         this.s=s;
     }
+
+    /**
+     * Length of the uncompressed h || S encoding written by {@link #writeTo(ByteBuffer)}.
+     */
+    public int getEncodedLength(){
+        return getEncodedLength(false);
+    }
+
+    public int getEncodedLength(boolean compressed){
+        return Sm9Util.BIGINTEGER_LENGTH+s.getLengthInBytesPC(compressed);
+    }
+
+    public int writeTo(ByteBuffer out){
+        return writeTo(out,false);
+    }
+
+    /**
+     * Writes h (32 bytes) followed by S as 04 || x || y, or as 02/03 || x when compressed.
+     *
+     * @return the number of bytes written.
+     */
+    public int writeTo(ByteBuffer out,boolean compressed){
+        out.put(Sm9Util.bigIntegerTobytes(h));
+        out.put(s.toBytesPC(compressed));
+        return getEncodedLength(compressed);
+    }
+
+    /**
+     * Reads a signature written by {@link #writeTo(ByteBuffer, boolean)} in either form.
+     */
+    public static Signature readFrom(ByteBuffer in) throws Exception{
+        return readFrom(in,KeyGenerationCenter.getInstance().getCurve1());
+    }
+
+    /**
+     * Reads a signature whose S lies on curve, the G1 curve of its domain.
+     */
+    public static Signature readFrom(ByteBuffer in,CurveField curve) throws Exception{
+        int coordinateLength=curve.getTargetField().getLengthInBytes();
+        byte [] hb=new byte[Sm9Util.BIGINTEGER_LENGTH];
+        if(in.remaining()<hb.length+1)
+        {
+            throw new Exception("invalid signature");
+        }
+        in.get(hb);
+
+        byte pc=in.get(in.position());
+        int sLength=pc==CurveElement.PC_UNCOMPRESSED ? 1+2*coordinateLength : 1+coordinateLength;
+        if(pc==CurveElement.PC_INFINITY||in.remaining()<sLength)
+        {
+            throw new Exception("invalid signature");
+        }
+        byte [] sb=new byte[sLength];
+        in.get(sb);
+
+        CurveElement s=curve.newElement();
+        try {
+            s.setFromBytesPC(sb);
+        }catch (IllegalArgumentException e)
+        {
+            throw new Exception("invalid signature");
+        }
+        return new Signature(new BigInteger(1,hb),s);
+    }
 }
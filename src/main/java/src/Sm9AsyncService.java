@@ -0,0 +1,232 @@
+package src;
+
+import src.field.curve.CurveElement;
+import src.util.concurrent.ExecutorServiceUtils;
+
+import javax.crypto.Cipher;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs SM9 operations on a dedicated pool and hands back {@link CompletableFuture}s, so event loop threads
+ * never wait on a pairing.
+ * <p>
+ * The pool has a fixed number of threads and a bounded queue. When the queue is full a call does not block: its
+ * future completes at once with a {@link RejectedExecutionException}, which callers should treat as a signal
+ * to slow down. Every operation keeps {@link Stats} of its calls and latencies, measured from submission, so
+ * they include the time spent queued.
+ */
+public class Sm9AsyncService {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final String DEFAULT_TRANSFORMATION = "SM4/ECB/PKCS5Padding";
+
+    /**
+     * Counters of one operation.
+     */
+    public static class Stats {
+        private final String name;
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos, boolean success) {
+            (success ? completed : failed).incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) ;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCompleted() {
+            return completed.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public long getRejected() {
+            return rejected.get();
+        }
+
+        /**
+         * Mean latency of the completed and failed calls.
+         */
+        public long getMeanNanos() {
+            long count = completed.get() + failed.get();
+            return count == 0 ? 0 : totalNanos.get() / count;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public String toString() {
+            return String.format("%s: %d ok, %d failed, %d rejected, mean %.3f ms, max %.3f ms", name,
+                    getCompleted(), getFailed(), getRejected(), getMeanNanos() / 1e6, getMaxNanos() / 1e6);
+        }
+    }
+
+    private final Sm9Domain domain;
+    private final ThreadPoolExecutor executor;
+    private String transformation = DEFAULT_TRANSFORMATION;
+    private String provider = "BC";
+
+    private final Stats sign = new Stats("sign");
+    private final Stats verify = new Stats("verify");
+    private final Stats encrypt = new Stats("encrypt");
+    private final Stats decrypt = new Stats("decrypt");
+    private final Stats encapsulate = new Stats("encapsulate");
+    private final Stats decapsulate = new Stats("decapsulate");
+
+
+    /**
+     * A service over the domain of {@link KeyGenerationCenter#getInstance()}, one thread per processor.
+     */
+    public Sm9AsyncService() {
+        this(null, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param domain        the domain to work in, null for that of {@link KeyGenerationCenter#getInstance()}.
+     * @param threads       size of the pool.
+     * @param queueCapacity operations allowed to wait for a thread before new ones are rejected.
+     */
+    public Sm9AsyncService(Sm9Domain domain, int threads, int queueCapacity) {
+        this.domain = domain;
+        this.executor = ExecutorServiceUtils.newBoundedThreadPool("sm9-async", threads, queueCapacity,
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Cipher used by {@link #encrypt} and {@link #decrypt} when type is not 0.
+     */
+    public Sm9AsyncService setCipher(String transformation, String provider) {
+        this.transformation = transformation;
+        this.provider = provider;
+        return this;
+    }
+
+    public CompletableFuture<Signature> sign(final Sm9SignPrivateKey key, final byte[] message) {
+        return submit(sign, new Callable<Signature>() {
+            public Signature call() throws Exception {
+                Sm9Signer signer = new Sm9Signer(domain);
+                signer.initSign(key);
+                return signer.generateSignature(message);
+            }
+        });
+    }
+
+    public CompletableFuture<Boolean> verify(final String id, final byte[] message, final Signature signature) {
+        return submit(verify, new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                Sm9Signer signer = new Sm9Signer(domain);
+                signer.initVerify(id);
+                return signer.verifySignature(message, signature);
+            }
+        });
+    }
+
+    /**
+     * See {@link Sm9Engine#initEncrypt} for k1, k2 and type.
+     */
+    public CompletableFuture<byte[]> encrypt(final String id, final byte[] message, final int k1, final int k2, final int type) {
+        return submit(encrypt, new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                Sm9Engine engine = newEngine();
+                engine.initEncrypt(true, id, k1, k2, type);
+                return engine.processBlock(message, 0, message.length);
+            }
+        });
+    }
+
+    public CompletableFuture<byte[]> decrypt(final String id, final Sm9EncryptPrivateKey key, final byte[] ciphertext,
+                                             final int k1, final int k2, final int type) {
+        return submit(decrypt, new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                Sm9Engine engine = newEngine();
+                engine.initDecrypt(false, id, key, k1, k2, type);
+                return engine.processBlock(ciphertext, 0, ciphertext.length);
+            }
+        });
+    }
+
+    public CompletableFuture<EncapsulatedKey> encapsulate(final String id, final long klen) {
+        return submit(encapsulate, new Callable<EncapsulatedKey>() {
+            public EncapsulatedKey call() {
+                return new KEM(domain).encapsulate(id.getBytes(), klen);
+            }
+        });
+    }
+
+    public CompletableFuture<byte[]> decapsulate(final CurveElement c, final String id, final Sm9EncryptPrivateKey key, final long klen) {
+        return submit(decapsulate, new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                return new KEM(domain).decapsulate(c, id.getBytes(), key, klen);
+            }
+        });
+    }
+
+    public Stats[] getStats() {
+        return new Stats[]{sign, verify, encrypt, decrypt, encapsulate, decapsulate};
+    }
+
+    /**
+     * Operations waiting for a thread.
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops accepting operations and waits up to timeout for the queued ones to finish.
+     *
+     * @return true if every operation finished.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+
+    private Sm9Engine newEngine() throws Exception {
+        return new Sm9Engine(Cipher.getInstance(transformation, provider), Sm9CiphertextCodec.DER, domain);
+    }
+
+    private <T> CompletableFuture<T> submit(final Stats stats, final Callable<T> operation) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        final long start = System.nanoTime();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        T result = operation.call();
+                        stats.record(System.nanoTime() - start, true);
+                        future.complete(result);
+                    } catch (Throwable t) {
+                        stats.record(System.nanoTime() - start, false);
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            stats.rejected.incrementAndGet();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
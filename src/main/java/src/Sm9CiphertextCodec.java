@@ -0,0 +1,240 @@
+package src;
+
+import org.bouncycastle.crypto.OutputLengthException;
+import src.field.curve.CurveElement;
+import src.field.curve.CurveField;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Wire layouts of an SM9 ciphertext (C1, C3, C2), written and parsed in place without building an object tree.
+ * <p>
+ * {@link #DER} is SEQUENCE { INTEGER c1x, INTEGER c1y, OCTET STRING c3, OCTET STRING c2 } with the coordinates
+ * stored as their raw fixed-length bytes, exactly as Sm9Engine has always produced it.
+ * {@link #RAW} is the GM/T 0044 concatenation C1 (x || y) || C3 || C2, and {@link #RAW_COMPRESSED} the same with
+ * C1 as 02/03 || x, 32 bytes shorter.
+ * <p>
+ * All layouts put C3 before C2. Since C3 is the MAC of C2, encoders call {@link #writeHeader} to lay out
+ * everything up to C2 and fill C3 in once C2 has been written.
+ */
+public abstract class Sm9CiphertextCodec {
+
+    public static final Sm9CiphertextCodec DER = new Der();
+    public static final Sm9CiphertextCodec RAW = new Raw(false);
+    public static final Sm9CiphertextCodec RAW_COMPRESSED = new Raw(true);
+
+    /**
+     * Decoded view of a ciphertext. c2 shares its content with the input buffer.
+     */
+    public static class Parts {
+        public final CurveElement c1;
+        public final byte[] c3;
+        public final ByteBuffer c2;
+
+        Parts(CurveElement c1, byte[] c3, ByteBuffer c2) {
+            this.c1 = c1;
+            this.c3 = c3;
+            this.c2 = c2;
+        }
+    }
+
+    /**
+     * Exact length of an encoding with coordinates of coordinateLength bytes, a c3Length byte MAC
+     * and a c2Length byte C2.
+     */
+    public abstract int getEncodedLength(int coordinateLength, int c3Length, int c2Length);
+
+    /**
+     * Writes the encoding up to the start of C2. On return out is positioned where C2 goes.
+     *
+     * @return the absolute position in out reserved for C3.
+     */
+    public abstract int writeHeader(ByteBuffer out, CurveElement c1, int c3Length, int c2Length);
+
+    /**
+     * Parses a ciphertext from in and moves in past it. C1 is checked to lie on the curve.
+     */
+    public abstract Parts read(ByteBuffer in, CurveField curve, int c3Length) throws Exception;
+
+    public byte[] encode(CurveElement c1, byte[] c3, byte[] c2) {
+        byte[] out = new byte[getEncodedLength(c1.getX().getLengthInBytes(), c3.length, c2.length)];
+        ByteBuffer buffer = ByteBuffer.wrap(out);
+        int c3Position = writeHeader(buffer, c1, c3.length, c2.length);
+        buffer.put(c2);
+        buffer.position(c3Position);
+        buffer.put(c3);
+        return out;
+    }
+
+    private static void checkRemaining(ByteBuffer out, int len) {
+        if (out.remaining() < len)
+            throw new OutputLengthException("output buffer too short");
+    }
+
+    private static byte[] readBytes(ByteBuffer in, int len) throws Exception {
+        if (in.remaining() < len)
+            throw new Exception("invalid ciphertext");
+        byte[] out = new byte[len];
+        in.get(out);
+        return out;
+    }
+
+
+    private static class Der extends Sm9CiphertextCodec {
+
+        public int getEncodedLength(int coordinateLength, int c3Length, int c2Length) {
+            int body = getBodyLength(coordinateLength, c3Length, c2Length);
+            return headerLength(body) + body;
+        }
+
+        public int writeHeader(ByteBuffer out, CurveElement c1, int c3Length, int c2Length) {
+            byte[] c1x = c1.getX().toBytes();
+            byte[] c1y = c1.getY().toBytes();
+            checkRemaining(out, getEncodedLength(c1x.length, c3Length, c2Length));
+
+            writeTagLength(out, 0x30, getBodyLength(c1x.length, c3Length, c2Length));
+            writeTagLength(out, 0x02, c1x.length);
+            out.put(c1x);
+            writeTagLength(out, 0x02, c1y.length);
+            out.put(c1y);
+            writeTagLength(out, 0x04, c3Length);
+            int c3Position = out.position();
+            out.position(c3Position + c3Length);
+            writeTagLength(out, 0x04, c2Length);
+            return c3Position;
+        }
+
+        public Parts read(ByteBuffer in, CurveField curve, int c3Length) throws Exception {
+            int coordinateLength = curve.getTargetField().getLengthInBytes();
+            ByteBuffer seq = readContent(in, 0x30);
+            byte[] x = readInteger(seq, coordinateLength);
+            byte[] y = readInteger(seq, coordinateLength);
+            byte[] c3 = readBytes(readContent(seq, 0x04), c3Length);
+            ByteBuffer c2 = readContent(seq, 0x04);
+            if (seq.hasRemaining())
+                throw new Exception("invalid ciphertext");
+
+            CurveElement c1 = curve.newElement();
+            c1.getX().set(new BigInteger(1, x));
+            c1.getY().set(new BigInteger(1, y));
+            c1.setInfFlag(0);
+            if (!c1.isValid())
+                throw new Exception("c1 is invalid");
+            return new Parts(c1, c3, c2);
+        }
+
+        private int getBodyLength(int coordinateLength, int c3Length, int c2Length) {
+            return 2 * (headerLength(coordinateLength) + coordinateLength)
+                    + headerLength(c3Length) + c3Length
+                    + headerLength(c2Length) + c2Length;
+        }
+
+        private static int headerLength(int len) {
+            if (len < 0x80)
+                return 2;
+            int n = 1;
+            while ((len >>> (8 * n)) != 0)
+                n++;
+            return 2 + n;
+        }
+
+        private static void writeTagLength(ByteBuffer out, int tag, int len) {
+            out.put((byte) tag);
+            if (len < 0x80) {
+                out.put((byte) len);
+                return;
+            }
+            int n = headerLength(len) - 2;
+            out.put((byte) (0x80 | n));
+            for (int i = n - 1; i >= 0; i--)
+                out.put((byte) (len >>> (8 * i)));
+        }
+
+        /**
+         * Reads a tag and length and returns a view of the contents; in is moved past them.
+         */
+        private static ByteBuffer readContent(ByteBuffer in, int tag) throws Exception {
+            if (in.remaining() < 2 || (in.get() & 0xff) != tag)
+                throw new Exception("invalid ciphertext");
+            int len = in.get() & 0xff;
+            if (len >= 0x80) {
+                int n = len & 0x7f;
+                if (n == 0 || n > 4 || in.remaining() < n)
+                    throw new Exception("invalid ciphertext");
+                len = 0;
+                for (int i = 0; i < n; i++)
+                    len = (len << 8) | (in.get() & 0xff);
+            }
+            if (len < 0 || len > in.remaining())
+                throw new Exception("invalid ciphertext");
+
+            ByteBuffer content = in.slice();
+            content.limit(len);
+            in.position(in.position() + len);
+            return content;
+        }
+
+        /**
+         * Reads an INTEGER as an unsigned value left-padded to len bytes, like ASN1Integer.getPositiveValue().
+         */
+        private static byte[] readInteger(ByteBuffer in, int len) throws Exception {
+            ByteBuffer content = readContent(in, 0x02);
+            while (content.remaining() > len && content.get(content.position()) == 0)
+                content.get();
+            if (content.remaining() > len || !content.hasRemaining())
+                throw new Exception("invalid ciphertext");
+
+            byte[] out = new byte[len];
+            content.get(out, len - content.remaining(), content.remaining());
+            return out;
+        }
+    }
+
+    private static class Raw extends Sm9CiphertextCodec {
+        private final boolean compressed;
+
+        Raw(boolean compressed) {
+            this.compressed = compressed;
+        }
+
+        public int getEncodedLength(int coordinateLength, int c3Length, int c2Length) {
+            return getC1Length(coordinateLength) + c3Length + c2Length;
+        }
+
+        public int writeHeader(ByteBuffer out, CurveElement c1, int c3Length, int c2Length) {
+            checkRemaining(out, getEncodedLength(c1.getX().getLengthInBytes(), c3Length, c2Length));
+
+            out.put(compressed ? c1.toBytesPC(true) : c1.toBytes());
+            int c3Position = out.position();
+            out.position(c3Position + c3Length);
+            return c3Position;
+        }
+
+        public Parts read(ByteBuffer in, CurveField curve, int c3Length) throws Exception {
+            byte[] c1b = readBytes(in, getC1Length(curve.getTargetField().getLengthInBytes()));
+            byte[] c3 = readBytes(in, c3Length);
+            ByteBuffer c2 = in.slice();
+            in.position(in.limit());
+
+            CurveElement c1 = curve.newElement();
+            if (compressed) {
+                try {
+                    c1.setFromBytesPC(c1b);
+                } catch (IllegalArgumentException e) {
+                    throw new Exception("c1 is invalid");
+                }
+            } else {
+                // setFromBytes maps points off the curve to infinity
+                c1.setFromBytes(c1b);
+            }
+            if (c1.isZero())
+                throw new Exception("c1 is invalid");
+            return new Parts(c1, c3, c2);
+        }
+
+        private int getC1Length(int coordinateLength) {
+            return compressed ? 1 + coordinateLength : 2 * coordinateLength;
+        }
+    }
+}
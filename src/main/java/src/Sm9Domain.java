@@ -0,0 +1,179 @@
+package src;
+
+import src.api.Element;
+import src.field.curve.CurveCombPreProcessing;
+import src.field.curve.CurveElement;
+import src.field.curve.CurveField;
+import src.field.gt.GTFiniteElement;
+import src.field.gt.ImmutableGTFiniteElement;
+import src.pairing.f.TypeFPairing;
+
+import java.math.BigInteger;
+
+/**
+ * The public side of one SM9 domain: its master public keys, the identifiers hid of its sign and encrypt keys,
+ * and the values derived from them.
+ * <p>
+ * A domain never changes once built. The pairing values e(P1, Ppubs) and e(Ppube, P2) and the comb tables of P1
+ * and P2 are computed on first use and then shared by every thread working in the domain, so their memory
+ * grows with the number of domains, not of threads. Domains are looked up by id in a {@link Sm9DomainRegistry}.
+ */
+public class Sm9Domain {
+
+    public static final byte DEFAULT_SIGN_HID = 0x01;
+    public static final byte DEFAULT_ENCRYPT_HID = 0x02;
+
+    private final String id;
+    private final TypeFPairing pairing;
+    private final CurveElement g1, g2, ppubs, ppube;
+    private final byte signHid, encryptHid;
+
+    private volatile GTFiniteElement signGT, encryptGT;
+    private volatile CurveCombPreProcessing g1Comb, g2Comb;
+
+
+    public Sm9Domain(String id, TypeFPairing pairing, CurveElement g1, CurveElement g2,
+                     CurveElement ppubs, CurveElement ppube, byte signHid, byte encryptHid) {
+        this.id = id;
+        this.pairing = pairing;
+        this.g1 = (CurveElement) g1.getImmutable();
+        this.g2 = (CurveElement) g2.getImmutable();
+        this.ppubs = (CurveElement) ppubs.getImmutable();
+        this.ppube = (CurveElement) ppube.getImmutable();
+        this.signHid = signHid;
+        this.encryptHid = encryptHid;
+    }
+
+    /**
+     * A domain over a snapshot, taking its pairing values and comb tables as they are.
+     */
+    public Sm9Domain(String id, Sm9PublicParameters params) {
+        this(id, params.getPairing(), params.getG1(), params.getG2(), params.getPpubs(), params.getPpube(),
+                DEFAULT_SIGN_HID, DEFAULT_ENCRYPT_HID);
+        this.signGT = params.getSignGT();
+        this.encryptGT = params.getEncryptGT();
+        this.g1Comb = params.getG1Comb();
+        this.g2Comb = params.getG2Comb();
+    }
+
+
+    public String getId() {
+        return id;
+    }
+
+    public TypeFPairing getPairing() {
+        return pairing;
+    }
+
+    public BigInteger getN() {
+        return pairing.getR();
+    }
+
+    public CurveField getCurve1() {
+        return (CurveField) pairing.getG1();
+    }
+
+    public CurveField getCurve2() {
+        return (CurveField) pairing.getG2();
+    }
+
+    public CurveElement getG1() {
+        return g1;
+    }
+
+    public CurveElement getG2() {
+        return g2;
+    }
+
+    public CurveElement getPpubs() {
+        return ppubs;
+    }
+
+    public CurveElement getPpube() {
+        return ppube;
+    }
+
+    public byte getSignHid() {
+        return signHid;
+    }
+
+    public byte getEncryptHid() {
+        return encryptHid;
+    }
+
+    public Element pair(CurveElement p1, CurveElement p2) {
+        return pairing.pairing(p1, p2);
+    }
+
+    /**
+     * e(P1, Ppubs), immutable.
+     */
+    public GTFiniteElement getSignGT() {
+        GTFiniteElement value = signGT;
+        if (value == null) {
+            synchronized (this) {
+                if ((value = signGT) == null)
+                    signGT = value = new ImmutableGTFiniteElement((GTFiniteElement) pair(g1, ppubs).duplicate());
+            }
+        }
+        return value;
+    }
+
+    /**
+     * e(Ppube, P2), immutable.
+     */
+    public GTFiniteElement getEncryptGT() {
+        GTFiniteElement value = encryptGT;
+        if (value == null) {
+            synchronized (this) {
+                if ((value = encryptGT) == null)
+                    encryptGT = value = new ImmutableGTFiniteElement((GTFiniteElement) pair(ppube, g2).duplicate());
+            }
+        }
+        return value;
+    }
+
+    public CurveCombPreProcessing getG1Comb() {
+        CurveCombPreProcessing comb = g1Comb;
+        if (comb == null) {
+            synchronized (this) {
+                if ((comb = g1Comb) == null)
+                    g1Comb = comb = new CurveCombPreProcessing(g1);
+            }
+        }
+        return comb;
+    }
+
+    public CurveCombPreProcessing getG2Comb() {
+        CurveCombPreProcessing comb = g2Comb;
+        if (comb == null) {
+            synchronized (this) {
+                if ((comb = g2Comb) == null)
+                    g2Comb = comb = new CurveCombPreProcessing(g2);
+            }
+        }
+        return comb;
+    }
+
+    /**
+     * Computes every lazily built value now, so the first operations in the domain do not pay for them.
+     */
+    public Sm9Domain warmUp() {
+        getSignGT();
+        getEncryptGT();
+        getG1Comb();
+        getG2Comb();
+        return this;
+    }
+
+    /**
+     * Saves this domain, computing whatever has not been computed yet.
+     */
+    public Sm9PublicParameters getPublicParameters() {
+        return new Sm9PublicParameters(pairing, g1, g2, ppubs, ppube, getSignGT(), getEncryptGT(), getG1Comb(), getG2Comb());
+    }
+
+    public String toString() {
+        return "Sm9Domain[" + id + "]";
+    }
+}
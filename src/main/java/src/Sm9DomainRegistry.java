@@ -0,0 +1,134 @@
+package src;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Domains by id. Lookups never lock; registering and removing domains may happen while other threads look up.
+ * <p>
+ * A domain's master keys are rotated by {@link #rotate}: the new domain is built and warmed up in the background,
+ * then replaces the current one in a single map update. Operations that already hold the old domain finish on
+ * it, and the old domain stays available from {@link #getRetired(String)} for a grace period, to verify
+ * signatures and decrypt ciphertexts made just before the switch.
+ */
+public class Sm9DomainRegistry {
+
+    private static final Sm9DomainRegistry DEFAULT = new Sm9DomainRegistry();
+
+    private final ConcurrentMap<String, Sm9Domain> domains = new ConcurrentHashMap<String, Sm9Domain>();
+    private final ConcurrentMap<String, Retired> retired = new ConcurrentHashMap<String, Retired>();
+
+    private static class Retired {
+        final Sm9Domain domain;
+        final long expiresAt;
+
+        Retired(Sm9Domain domain, long expiresAt) {
+            this.domain = domain;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+
+    /**
+     * The registry shared by the whole process.
+     */
+    public static Sm9DomainRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Adds domain under its id.
+     *
+     * @throws IllegalStateException if another domain is already registered under that id.
+     */
+    public Sm9Domain register(Sm9Domain domain) {
+        Sm9Domain previous = domains.putIfAbsent(domain.getId(), domain);
+        if (previous != null && previous != domain)
+            throw new IllegalStateException("domain " + domain.getId() + " is already registered");
+        return domain;
+    }
+
+    /**
+     * The domain registered under id, or null.
+     */
+    public Sm9Domain get(String id) {
+        return domains.get(id);
+    }
+
+    /**
+     * The domain registered under id.
+     *
+     * @throws IllegalArgumentException if there is none.
+     */
+    public Sm9Domain require(String id) {
+        Sm9Domain domain = domains.get(id);
+        if (domain == null)
+            throw new IllegalArgumentException("unknown domain " + id);
+        return domain;
+    }
+
+    public Sm9Domain remove(String id) {
+        retired.remove(id);
+        return domains.remove(id);
+    }
+
+    /**
+     * The domain replaced by the last rotation of id while its grace period lasts, otherwise null.
+     */
+    public Sm9Domain getRetired(String id) {
+        Retired r = retired.get(id);
+        if (r == null)
+            return null;
+        if (System.currentTimeMillis() >= r.expiresAt) {
+            retired.remove(id, r);
+            return null;
+        }
+        return r.domain;
+    }
+
+    /**
+     * Warms next up on executor, then makes it the domain of its id. The domain it replaces is kept for
+     * graceMillis; a rotation during that time drops the previously retired domain at once.
+     *
+     * @return the future of next, done once it is in place.
+     */
+    public Future<Sm9Domain> rotate(final Sm9Domain next, ExecutorService executor, final long graceMillis) {
+        return executor.submit(new Callable<Sm9Domain>() {
+            public Sm9Domain call() {
+                return install(next.warmUp(), graceMillis);
+            }
+        });
+    }
+
+    /**
+     * Generates new master keys for id on executor and rotates to their domain, see
+     * {@link #rotate(Sm9Domain, ExecutorService, long)}.
+     *
+     * @return the future of the new center, the only holder of the new master private keys.
+     */
+    public Future<KeyGenerationCenter> rotateMasterKeys(final String id, ExecutorService executor, final long graceMillis) {
+        return executor.submit(new Callable<KeyGenerationCenter>() {
+            public KeyGenerationCenter call() throws Exception {
+                KeyGenerationCenter kgc = new KeyGenerationCenter(id);
+                install(kgc.getDomain().warmUp(), graceMillis);
+                return kgc;
+            }
+        });
+    }
+
+    public Collection<Sm9Domain> getDomains() {
+        return Collections.unmodifiableCollection(domains.values());
+    }
+
+    private Sm9Domain install(Sm9Domain next, long graceMillis) {
+        Sm9Domain previous = domains.put(next.getId(), next);
+        if (previous != null && previous != next)
+            retired.put(next.getId(), new Retired(previous, System.currentTimeMillis() + graceMillis));
+        return next;
+    }
+}
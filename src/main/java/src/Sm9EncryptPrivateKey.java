@@ -1,6 +1,7 @@
 package src;
 
 import src.field.curve.CurveElement;
+import src.field.curve.CurveField;
 
 /**
  * Created by mzy on 2017/4/24.
@@ -13,4 +14,30 @@ public class Sm9EncryptPrivateKey {
     public CurveElement getDe(){
         return de;
     }
+
+    /**
+     * Encodes de in SM9 byte order, 65 bytes compressed or 129 uncompressed.
+     */
+    public byte [] toBytes(boolean compressed){
+        return Sm9Util.G2PointToBytes(de,compressed);
+    }
+
+    public static Sm9EncryptPrivateKey fromBytes(byte [] source) throws Exception{
+        return fromBytes(source,KeyGenerationCenter.getInstance().getCurve2());
+    }
+
+    /**
+     * Decodes a key of the domain whose G2 curve is curve2.
+     */
+    public static Sm9EncryptPrivateKey fromBytes(byte [] source,CurveField curve2) throws Exception{
+        try {
+            CurveElement de=Sm9Util.bytesToG2Point(curve2,source,0);
+            if(de.isZero())
+                throw new Exception("invalid private key");
+            return new Sm9EncryptPrivateKey(de);
+        }catch (IllegalArgumentException e)
+        {
+            throw new Exception("invalid private key");
+        }
+    }
 }
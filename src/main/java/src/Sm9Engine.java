@@ -3,17 +3,19 @@ package src;
 import iaik.security.ec.math.curve.ECPoint;
 import iaik.security.ec.math.field.GenericFieldElement;
 import mcl.bn254.*;
-import org.bouncycastle.asn1.*;
 import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.OutputLengthException;
 import src.api.Element;
 import src.field.curve.CurveElement;
+import src.util.metrics.OperationCounters;
+import src.util.metrics.Sm9Metrics;
+import src.util.metrics.Sm9Metrics.Stage;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.IOException;
-import java.lang.reflect.Array;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.Key;
 import java.security.SecureRandom;
 import java.util.Arrays;
@@ -33,8 +35,35 @@ public class Sm9Engine {
     private int type;// 0,1
     private Cipher sm4cipher;
     private Sm9EncryptPrivateKey privatekey;
+    private Sm9CiphertextCodec codec;
+    private SecureRandom random;
+    private Sm9Domain domain;
     public Sm9Engine (Cipher cipher){
+        this(cipher,Sm9CiphertextCodec.DER);
+    }
+
+    /**
+     * @param codec ciphertext layout, one of {@link Sm9CiphertextCodec#DER}, {@link Sm9CiphertextCodec#RAW}
+     *              or {@link Sm9CiphertextCodec#RAW_COMPRESSED}.
+     */
+    public Sm9Engine (Cipher cipher,Sm9CiphertextCodec codec){
+        this(cipher,codec,null);
+    }
+
+    /**
+     * An engine working in domain; null uses the domain of {@link KeyGenerationCenter#getInstance()}.
+     */
+    public Sm9Engine (Cipher cipher,Sm9CiphertextCodec codec,Sm9Domain domain){
         this.sm4cipher=cipher;
+        this.codec=codec;
+        this.domain=domain;
+    }
+
+    /**
+     * Sets the source of the random scalars; null, the default, uses {@link Sm9Random#current()}.
+     */
+    public void setRandom(SecureRandom random){
+        this.random=random;
     }
 
     public void initEncrypt(boolean forencryption ,String id,int k1,int k2,int type)throws Exception{
@@ -55,183 +84,221 @@ public class Sm9Engine {
 
     }
 
-    public byte [] processBlock(byte [] in,int off,int len) throws Exception{
-
-        KeyGenerationCenter kgc=KeyGenerationCenter.getInstance();
-        byte [] block;
-        if(off!=0||len!=in.length) {
-            block=new byte[len];
-            System.arraycopy(in,off,block,0,len);
+    /**
+     * Upper bound on the number of bytes {@link #processBlock(ByteBuffer, ByteBuffer)} writes for an input of inputLen bytes.
+     */
+    public int getOutputSize(int inputLen){
+        if(!forEncryption) {
+            return inputLen;
         }
-        else {
-            block=in;
+        int c2len=inputLen;
+        if(type!=0) {
+            int blockSize=sm4cipher.getBlockSize();
+            c2len=(inputLen/blockSize+1)*blockSize;
         }
-        if(forEncryption) {
-            return processEncrypt(block,kgc);
+        return getEncodedLength(c2len);
+    }
 
+    public byte [] processBlock(byte [] in,int off,int len) throws Exception{
+        OperationCounters.Scope scope=OperationCounters.enter(forEncryption ? "encrypt" : "decrypt");
+        Sm9Metrics.Trace trace=Sm9Metrics.begin(forEncryption ? Sm9Metrics.Operation.ENCRYPT : Sm9Metrics.Operation.DECRYPT,id);
+        try {
+            ByteBuffer src=ByteBuffer.wrap(in,off,len);
+            Block block=forEncryption ? prepareEncrypt(len,trace) : prepareDecrypt(src,trace);
+
+            byte [] out=new byte[block.outputSize];
+            int n=block.finish(src,ByteBuffer.wrap(out),trace);
+            return n==out.length ? out : Arrays.copyOf(out,n);
+        } finally {
+            trace.end();
+            scope.exit();
         }
-        else{
-            return processDecrypt(block);
-        }
+    }
 
+    /**
+     * Reads the whole of in (position to limit) and writes the result into out, neither buffer is copied
+     * on the way. Both may be direct buffers.
+     *
+     * @return the number of bytes written to out.
+     */
+    public int processBlock(ByteBuffer in,ByteBuffer out) throws Exception{
+        OperationCounters.Scope scope=OperationCounters.enter(forEncryption ? "encrypt" : "decrypt");
+        Sm9Metrics.Trace trace=Sm9Metrics.begin(forEncryption ? Sm9Metrics.Operation.ENCRYPT : Sm9Metrics.Operation.DECRYPT,id);
+        try {
+            Block block=forEncryption ? prepareEncrypt(in.remaining(),trace) : prepareDecrypt(in,trace);
+            if(out.remaining()<block.outputSize) {
+                throw new OutputLengthException("output buffer too short");
+            }
+            return block.finish(in,out,trace);
+        } finally {
+            trace.end();
+            scope.exit();
+        }
     }
 
-    private byte [] processEncrypt(byte []block,KeyGenerationCenter kgc) throws  Exception{
-        byte hid = kgc.hid2;
-        BigInteger N = kgc.getN();
+    private Block prepareEncrypt(int len,Sm9Metrics.Trace trace) throws  Exception{
+        Sm9Domain domain=domain();
+        byte hid = domain.getEncryptHid();
+        BigInteger N = domain.getN();
 
         CurveElement g1,g2,ppube,qb,c1;
-        byte [] k1,k2,c2,c1b,wb1;
+        byte [] k1,k2,c1b,wb1;
 
-        g1=kgc.getG1();
-        g2=kgc.getG2();
-        ppube=kgc.getPpube();
+        g1=domain.getG1();
+        g2=domain.getG2();
+        ppube=domain.getPpube();
 
         byte [] idb=this.id.getBytes();
         byte[] merge=new byte[idb.length+1];
         System.arraycopy(idb,0,merge,0,idb.length);
         merge[idb.length]=hid;
         BigInteger h1=Sm9Util.h1(merge,N);
+        trace.stage(Stage.H1);
 
-        qb=g1.duplicate().mul(h1).add(ppube);
+        qb=domain.getG1Comb().pow(h1).add(ppube);
 
         do {
-            BigInteger r;
-            do {
-                r=new BigInteger(N.bitLength(),new SecureRandom());
-            }while(r.compareTo(N)>=0||r.compareTo(BigInteger.ONE)<0);
+            BigInteger r=Sm9Random.nextScalar(random!=null ? random : Sm9Random.current(),N);
 
             c1=qb.duplicate().mul(r);
             c1b=c1.toBytes();
-            Element g=kgc.pair(ppube,g2);
+            trace.stage(Stage.SCALAR_MUL);
+            Element g=domain.getEncryptGT();
             Element w=g.pow(r);
             wb1=Sm9Util.GTFiniteElementToByte(w);
-
-            if(type==0){
-                int klen =block.length*8+k2len*8;
-                byte [] merge1= Sm9Util.byteMerger(c1b,wb1);
-                byte [] merge2= Sm9Util.byteMerger(merge1,id.getBytes());
-                byte [] k= Sm9Util.KDF(merge2,klen);
-                k1=new byte[block.length];
-                k2=new byte [k2len];
-
-                System.arraycopy(k,0,k1,0,block.length);
-                System.arraycopy(k,block.length,k2,0,k2len);
-                c2=xor(block,k1);
-            }else {
-                int klen =k1len*8+k2len*8;
-                byte [] merge1= Sm9Util.byteMerger(c1b,wb1);
-                byte [] merge2= Sm9Util.byteMerger(merge1,id.getBytes());
-                byte [] k= Sm9Util.KDF(merge2,klen);
-                k1=new byte[k1len];
-                k2=new byte[k2len];
-                System.arraycopy(k,0,k1,0,k1len);
-                System.arraycopy(k,k1len,k2,0,k2len);
-                Key key=new SecretKeySpec(k1,"SM4");
-                sm4cipher.init(Cipher.ENCRYPT_MODE,key);
-                int s=sm4cipher.getOutputSize(block.length);
-                int insize=sm4cipher.getBlockSize();
-                c2=new byte[s];
-                c2=sm4cipher.doFinal(block,0,block.length);
-            }
-
+            trace.stage(Stage.GT_POW);
+
+            int k1l=type==0 ? len : k1len;
+            byte [] merge1= Sm9Util.byteMerger(c1b,wb1);
+            byte [] merge2= Sm9Util.byteMerger(merge1,id.getBytes());
+            byte [] k= Sm9Util.KDF(merge2,(k1l+k2len)*8L);
+            k1=Arrays.copyOfRange(k,0,k1l);
+            k2=Arrays.copyOfRange(k,k1l,k1l+k2len);
+            trace.stage(Stage.KDF);
         }while(testZeros(k1));
 
-        byte[] c3=Sm9Util.MAC(k2,c2);
-
-//        byte []c1x=c1.scalePoint().getCoordinate().getX().toByteArray();
-//        byte []c1y=c1.scalePoint().getCoordinate().getY().toByteArray();
-        byte []c1x=c1.getX().toBytes();
-        byte [] c1y=c1.getY().toBytes();
-        ASN1Sequence seq=null;
-        ASN1EncodableVector v=new ASN1EncodableVector();
-        v.add(new ASN1Integer(c1x));
-        v.add(new ASN1Integer(c1y));
-        v.add(new DEROctetString(c3));
-        v.add(new DEROctetString(c2));
-        //v.add(new DEROctetString(c1t));
-        seq=new DERSequence(v);
-        byte[] res = null;
-        try {
-            res = seq.getEncoded(ASN1Encoding.DER);
-        } catch (IOException e) {
-            throw new IllegalArgumentException("encoding error in getInstance: " + e.toString());
+        int c2len=len;
+        if(type!=0){
+            Key key=new SecretKeySpec(k1,"SM4");
+            sm4cipher.init(Cipher.ENCRYPT_MODE,key);
+            c2len=sm4cipher.getOutputSize(len);
+            trace.stage(Stage.SM4);
         }
-        return res;
 
+        Block block=new Block();
+        block.c1=c1;
+        block.k1=k1;
+        block.k2=k2;
+        block.c2len=c2len;
+        block.outputSize=getEncodedLength(c2len);
+        return block;
     }
-    private byte [] processDecrypt(byte []block)throws Exception{
-
-        KeyGenerationCenter kgc=KeyGenerationCenter.getInstance();
 
-        ASN1Sequence asn1Obj = ASN1Sequence.getInstance(block);
-        ASN1Integer c1x_encoded =ASN1Integer.getInstance(asn1Obj.getObjectAt(0)) ;
-        ASN1Integer c1y_encoded =ASN1Integer.getInstance(asn1Obj.getObjectAt(1)) ;
+    private Block prepareDecrypt(ByteBuffer in,Sm9Metrics.Trace trace)throws Exception{
 
-        DEROctetString c2_encoded = (DEROctetString) asn1Obj.getObjectAt(3);
-        DEROctetString c3_encoded = (DEROctetString) asn1Obj.getObjectAt(2);
-      
-        BigInteger x=c1x_encoded.getPositiveValue();
-        BigInteger y=c1y_encoded.getPositiveValue();
-        byte[] c2 = c2_encoded.getOctets();
-        byte[] c3 = c3_encoded.getOctets();
-
-
-        CurveElement c1p;
-        try {
-            c1p=kgc.getCurve1().newElement();
-            c1p.getX().set(x);
-            c1p.getY().set(y);
-            c1p.setInfFlag(0);
+        Sm9Domain domain=domain();
 
-        }catch (Exception e)
-        {
-            throw new Exception("c1 is invalid");
-        }
+        Sm9CiphertextCodec.Parts parts=codec.read(in,domain.getCurve1(),k2len);
+        CurveElement c1p=parts.c1;
+        byte[] c3 = parts.c3;
+        ByteBuffer c2 = parts.c2;
+        trace.stage(Stage.ASN1);
 
-        Element w=kgc.pair(c1p,privatekey.getDe());
+        Element w=domain.pair(c1p,privatekey.getDe());
         byte [] wb=Sm9Util.GTFiniteElementToByte(w);
+        trace.stage(Stage.PAIRING);
         byte []c1b2=c1p.toBytes();
 
-        byte [] k2,m;
-        if(type==0){
-            int klen=c2.length*8+k2len*8;
-            byte [] merge1=Sm9Util.byteMerger(c1b2,wb);
-            byte [] merge2=Sm9Util.byteMerger(merge1,id.getBytes());
-            byte [] k=Sm9Util.KDF(merge2,klen);
-            byte [] k1=new byte[c2.length];
-
-            k2=new byte[k2len];
-            System.arraycopy(k,0,k1,0,c2.length);
-            System.arraycopy(k,c2.length,k2,0,k2len);
-            if(testZeros(k1))
-            {
-                throw new Exception("k1 is zero");
-            }
-            m=xor(c2,k1);
+        int k1l=type==0 ? c2.remaining() : k1len;
+        byte [] merge1=Sm9Util.byteMerger(c1b2,wb);
+        byte [] merge2=Sm9Util.byteMerger(merge1,id.getBytes());
+        byte [] k=Sm9Util.KDF(merge2,(k1l+k2len)*8L);
+        byte [] k1=Arrays.copyOfRange(k,0,k1l);
+        byte [] k2=Arrays.copyOfRange(k,k1l,k1l+k2len);
+        trace.stage(Stage.KDF);
+        if(type==0&&testZeros(k1))
+        {
+            throw new Exception("k1 is zero");
+        }
 
+        byte [] u=Sm9Util.MAC(k2,c2);
+        if(!org.bouncycastle.util.Arrays.constantTimeAreEqual(u,c3))
+        {
+            throw new Exception("mac not right");
         }
-        else{
-            int klen =k1len*8+k2len*8;
-            byte [] merge1=Sm9Util.byteMerger(c1b2,wb);
-            byte [] merge2=Sm9Util.byteMerger(merge1,id.getBytes());
-            byte [] k=Sm9Util.KDF(merge2,klen);
-            byte [] k1=new byte [k1len];
-            k2=new byte[k2len];
-            System.arraycopy(k,0,k1,0,k1len);
-            System.arraycopy(k,k1len,k2,0,k2len);
+        trace.stage(Stage.MAC);
+
+        int mlen=c2.remaining();
+        if(type!=0){
             Key key =new SecretKeySpec(k1,"SM4");
             sm4cipher.init(Cipher.DECRYPT_MODE,key);
-            m=new byte [c2.length];
-            m=sm4cipher.doFinal(c2,0,c2.length);
+            mlen=sm4cipher.getOutputSize(c2.remaining());
+            trace.stage(Stage.SM4);
         }
-        byte [] u=Sm9Util.MAC(k2,c2);
-        if(!Arrays.equals(u,c3))
-        {
-            throw new Exception("mac not right");
+
+        Block block=new Block();
+        block.k1=k1;
+        block.c2=c2;
+        block.outputSize=mlen;
+        return block;
+    }
+
+    private int getEncodedLength(int c2len){
+        return codec.getEncodedLength(getCoordinateLength(),k2len,c2len);
+    }
+
+    private int getCoordinateLength(){
+        return domain().getCurve1().getTargetField().getLengthInBytes();
+    }
+
+    private Sm9Domain domain(){
+        return domain!=null ? domain : KeyGenerationCenter.getInstance().getDomain();
+    }
+
+    /**
+     * Key material and buffer positions of one message between preparing and writing it.
+     */
+    private class Block {
+        CurveElement c1;
+        byte [] k1,k2;
+        ByteBuffer c2;
+        int c2len;
+        int outputSize;
+
+        int finish(ByteBuffer in,ByteBuffer out,Sm9Metrics.Trace trace) throws Exception{
+            int start=out.position();
+            if(forEncryption){
+                // c3 is the MAC of c2, which is written after it, so leave room and fill it in at the end
+                ByteBuffer c3=out.duplicate();
+                c3.position(codec.writeHeader(out,c1,k2len,c2len));
+                trace.stage(Stage.ASN1);
+
+                ByteBuffer c2=out.duplicate();
+                if(type==0) {
+                    xor(in,k1,out);
+                }
+                else {
+                    sm4cipher.doFinal(in,out);
+                }
+                trace.stage(Stage.SM4);
+                c2.limit(out.position());
+                c3.put(Sm9Util.MAC(k2,c2));
+                trace.stage(Stage.MAC);
+            }
+            else{
+                if(type==0) {
+                    xor(c2,k1,out);
+                }
+                else {
+                    sm4cipher.doFinal(c2,out);
+                }
+                trace.stage(Stage.SM4);
+                in.position(in.limit());
+            }
+            return out.position()-start;
         }
-        return m;
     }
+
     private boolean testZeros(byte[] in) {
         for (byte b : in) {
             if (b != 0)
@@ -240,14 +307,12 @@ public class Sm9Engine {
         return true;
     }
 
-    private byte[] xor(byte[] op1, byte[] op2) {
-        if (op1.length != op2.length) {
+    private void xor(ByteBuffer in, byte[] k, ByteBuffer out) {
+        if (in.remaining() != k.length) {
             throw new DataLengthException("op1's length is different with op2 in XOR operation");
         }
-        byte[] out = new byte[op1.length];
-        for (int i = 0; i < out.length; i++) {
-            out[i] = (byte) ((op1[i] ^ op2[i]) & 0xff);
+        for (int i = 0; i < k.length; i++) {
+            out.put((byte) ((in.get() ^ k[i]) & 0xff));
         }
-        return out;
     }
 }
@@ -0,0 +1,481 @@
+package src;
+
+import org.bouncycastle.crypto.digests.SM3Digest;
+import org.bouncycastle.crypto.engines.SM4Engine;
+import org.bouncycastle.crypto.modes.SICBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import src.field.curve.CurveElement;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Hybrid SM9 container for files too large to go through {@link Sm9Engine#processBlock(byte[], int, int)}.
+ * <p>
+ * A single {@link KEM#encapsulate(byte[], long)} produces the file key K. The plaintext is then cut into
+ * fixed-size chunks; chunk i is encrypted with SM4-CTR under its own key and counter block and authenticated
+ * with its own SM3 MAC, all three derived as KDF(K || i). The MAC of a chunk covers its ciphertext and the
+ * whole header, so a container cut at a chunk boundary with its length adjusted fails every MAC check.
+ * Chunks are independent, so encryption, decryption and range reads run in parallel on a {@link ForkJoinPool},
+ * reading and writing through {@link FileChannel#map}.
+ * <p>
+ * Layout: header (magic, version, chunk size, plaintext length, C) followed by, for every chunk,
+ * the ciphertext (same length as the plaintext chunk) and its 32-byte MAC SM3(ciphertext || header || mac key).
+ */
+public class Sm9FileEngine {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private static final byte[] MAGIC = {'S', 'M', '9', 'F'};
+    private static final byte VERSION = 2;
+
+    private static final int KEY_BITS = 256;
+    private static final int SM4_KEY_LENGTH = 16;
+    private static final int IV_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+    private static final int SLICE_LENGTH = 64 * 1024;
+
+    private final Sm9Domain domain;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+
+    public Sm9FileEngine() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public Sm9FileEngine(ForkJoinPool pool, int chunkSize) {
+        this(null, pool, chunkSize);
+    }
+
+    /**
+     * An engine working in domain instead of the domain of {@link KeyGenerationCenter#getInstance()}.
+     */
+    public Sm9FileEngine(Sm9Domain domain, ForkJoinPool pool, int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunk size must be positive");
+
+        this.domain = domain;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+
+    /**
+     * Encrypts the file in for the identity id into the container out.
+     */
+    public void encrypt(String id, File in, File out) throws Exception {
+        KEM kem = new KEM(domain());
+        EncapsulatedKey encapsulatedKey = kem.encapsulate(id.getBytes(), KEY_BITS);
+
+        RandomAccessFile src = new RandomAccessFile(in, "r");
+        RandomAccessFile dst = new RandomAccessFile(out, "rw");
+        try {
+            long length = src.length();
+            byte[] c = encapsulatedKey.getC().toBytes();
+            Header header = new Header(chunkSize, length, c);
+
+            dst.setLength(header.getContainerLength());
+            FileChannel dstChannel = dst.getChannel();
+            header.write(dstChannel);
+
+            run(new ChunkTask(header, encapsulatedKey.getK(), src.getChannel(), dstChannel, true, 0, header.getChunkCount()));
+        } finally {
+            Arrays.fill(encapsulatedKey.getK(), (byte) 0);
+            src.close();
+            dst.close();
+        }
+    }
+
+    /**
+     * Decrypts the whole container in into the file out.
+     * If a chunk fails its MAC check an exception is thrown and out must be discarded.
+     */
+    public void decrypt(String id, Sm9EncryptPrivateKey key, File in, File out) throws Exception {
+        Reader reader = open(id, key, in);
+        try {
+            reader.decryptTo(out);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Opens the container for random access reads. The KEM decapsulation is done once here.
+     */
+    public Reader open(String id, Sm9EncryptPrivateKey key, File in) throws Exception {
+        RandomAccessFile src = new RandomAccessFile(in, "r");
+        try {
+            FileChannel channel = src.getChannel();
+            Sm9Domain domain = domain();
+            Header header = Header.read(channel, domain.getCurve1().getLengthInBytes());
+
+            CurveElement c = domain.getCurve1().newElement();
+            c.setFromBytes(header.c);
+            if (c.isZero())
+                throw new Exception("invalid content");
+
+            byte[] k = new KEM(domain).decapsulate(c, id.getBytes(), key, KEY_BITS);
+            return new Reader(src, header, k);
+        } catch (Exception e) {
+            src.close();
+            throw e;
+        }
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    private Sm9Domain domain() {
+        return domain != null ? domain : KeyGenerationCenter.getInstance().getDomain();
+    }
+
+    private void run(ChunkTask task) throws Exception {
+        try {
+            pool.invoke(task);
+        } catch (RuntimeException e) {
+            // a task rethrown from another worker comes wrapped once more by the pool
+            Throwable cause = e;
+            while (cause instanceof RuntimeException && cause.getCause() != null)
+                cause = cause.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            throw e;
+        }
+    }
+
+
+    /**
+     * Random access view over a container. Every read verifies the MACs of the chunks it touches.
+     */
+    public class Reader implements Closeable {
+        private final RandomAccessFile file;
+        private final Header header;
+        private final byte[] k;
+
+        private Reader(RandomAccessFile file, Header header, byte[] k) {
+            this.file = file;
+            this.header = header;
+            this.k = k;
+        }
+
+        public long getLength() {
+            return header.length;
+        }
+
+        /**
+         * Reads up to len plaintext bytes starting at position into dst. Each chunk is decrypted straight into
+         * dst, from the first byte asked for, once its MAC has been checked.
+         *
+         * @return the number of bytes read, -1 if position is at or past the end.
+         * @throws IllegalArgumentException if position is negative or off and len do not fit in dst.
+         */
+        public int read(long position, byte[] dst, int off, int len) throws Exception {
+            if (position < 0)
+                throw new IllegalArgumentException("negative position");
+            if (off < 0 || len < 0 || len > dst.length - off)
+                throw new IllegalArgumentException("off and len out of dst");
+            if (position >= header.length)
+                return -1;
+            len = (int) Math.min(len, header.length - position);
+            if (len == 0)
+                return 0;
+
+            long first = position / header.chunkSize;
+            long last = (position + len - 1) / header.chunkSize;
+            FileChannel channel = file.getChannel();
+            ChunkWorker worker = new ChunkWorker(header, k);
+
+            int written = 0;
+            try {
+                for (long i = first; i <= last; i++) {
+                    int chunkLength = header.getChunkLength(i);
+                    MappedByteBuffer ct = channel.map(FileChannel.MapMode.READ_ONLY, header.getChunkOffset(i), chunkLength + MAC_LENGTH);
+
+                    int from = (i == first) ? (int) (position - i * header.chunkSize) : 0;
+                    int n = Math.min(chunkLength - from, len - written);
+                    worker.decrypt(i, ct, from, ByteBuffer.wrap(dst, off + written, n));
+                    written += n;
+                }
+            } finally {
+                worker.clear();
+            }
+            return written;
+        }
+
+        /**
+         * Decrypts every chunk in parallel into out.
+         */
+        public void decryptTo(File out) throws Exception {
+            RandomAccessFile dst = new RandomAccessFile(out, "rw");
+            try {
+                dst.setLength(header.length);
+                run(new ChunkTask(header, k, file.getChannel(), dst.getChannel(), false, 0, header.getChunkCount()));
+            } finally {
+                dst.close();
+            }
+        }
+
+        /**
+         * Closes the container and zeroes the file key.
+         */
+        public void close() throws IOException {
+            Arrays.fill(k, (byte) 0);
+            file.close();
+        }
+    }
+
+
+    private static class Header {
+        static final int FIXED_LENGTH = 4 + 1 + 3 + 4 + 8;
+
+        final int chunkSize;
+        final long length;
+        final byte[] c;
+        final byte[] bytes;
+
+        Header(int chunkSize, long length, byte[] c) {
+            this.chunkSize = chunkSize;
+            this.length = length;
+            this.c = c;
+
+            ByteBuffer buffer = ByteBuffer.allocate(FIXED_LENGTH + c.length);
+            buffer.put(MAGIC).put(VERSION).put(new byte[3]);
+            buffer.putInt(chunkSize).putLong(length).put(c);
+            this.bytes = buffer.array();
+        }
+
+        static Header read(FileChannel channel, int cLength) throws Exception {
+            ByteBuffer buffer = ByteBuffer.allocate(FIXED_LENGTH + cLength);
+            while (buffer.hasRemaining())
+                if (channel.read(buffer, buffer.position()) < 0)
+                    throw new Exception("truncated container");
+            buffer.flip();
+
+            for (byte m : MAGIC)
+                if (buffer.get() != m)
+                    throw new Exception("not an SM9 container");
+            if (buffer.get() != VERSION)
+                throw new Exception("unsupported container version");
+            buffer.position(buffer.position() + 3);
+
+            int chunkSize = buffer.getInt();
+            long length = buffer.getLong();
+            byte[] c = new byte[cLength];
+            buffer.get(c);
+
+            if (chunkSize <= 0 || length < 0)
+                throw new Exception("corrupted container header");
+            Header header = new Header(chunkSize, length, c);
+            if (channel.size() < header.getContainerLength())
+                throw new Exception("truncated container");
+            return header;
+        }
+
+        void write(FileChannel channel) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining())
+                channel.write(buffer, buffer.position());
+        }
+
+        int getLength() {
+            return FIXED_LENGTH + c.length;
+        }
+
+        long getChunkCount() {
+            return (length + chunkSize - 1) / chunkSize;
+        }
+
+        int getChunkLength(long i) {
+            return (int) Math.min(chunkSize, length - i * chunkSize);
+        }
+
+        long getChunkOffset(long i) {
+            return getLength() + i * ((long) chunkSize + MAC_LENGTH);
+        }
+
+        long getContainerLength() {
+            return getLength() + length + getChunkCount() * MAC_LENGTH;
+        }
+    }
+
+    /**
+     * Chunk processor of one task: derives the chunk keys and streams the chunk through SM4-CTR and SM3
+     * in small slices so that only SLICE_LENGTH bytes ever live on the heap. {@link #clear()} zeroes the
+     * chunk keys and buffers once the task is done.
+     */
+    private static class ChunkWorker {
+        private final Header header;
+        private final byte[] k;
+        private final SICBlockCipher cipher = new SICBlockCipher(new SM4Engine());
+        private final SM3Digest digest = new SM3Digest();
+        private final byte[] in = new byte[SLICE_LENGTH];
+        private final byte[] out = new byte[SLICE_LENGTH];
+        private final byte[] mac = new byte[MAC_LENGTH];
+        private final byte[] macKey = new byte[MAC_LENGTH];
+
+        ChunkWorker(Header header, byte[] k) {
+            this.header = header;
+            this.k = k;
+        }
+
+        void encrypt(long index, ByteBuffer plain, ByteBuffer ct) {
+            init(index, true, 0);
+            digest.reset();
+            while (plain.hasRemaining()) {
+                int n = Math.min(plain.remaining(), SLICE_LENGTH);
+                plain.get(in, 0, n);
+                cipher.processBytes(in, 0, n, out, 0);
+                digest.update(out, 0, n);
+                ct.put(out, 0, n);
+            }
+            digest.update(header.bytes, 0, header.bytes.length);
+            digest.update(macKey, 0, macKey.length);
+            digest.doFinal(mac, 0);
+            ct.put(mac);
+        }
+
+        void decrypt(long index, ByteBuffer ct, ByteBuffer plain) throws Exception {
+            decrypt(index, ct, 0, plain);
+        }
+
+        /**
+         * Checks the MAC of the whole chunk, then decrypts plain.remaining() bytes of it from offset from on.
+         */
+        void decrypt(long index, ByteBuffer ct, int from, ByteBuffer plain) throws Exception {
+            int chunkLength = header.getChunkLength(index);
+
+            // verify first, so that no unauthenticated plaintext is released
+            init(index, false, from);
+            digest.reset();
+            ByteBuffer body = ct.duplicate();
+            body.limit(body.position() + chunkLength);
+            while (body.hasRemaining()) {
+                int n = Math.min(body.remaining(), SLICE_LENGTH);
+                body.get(in, 0, n);
+                digest.update(in, 0, n);
+            }
+            digest.update(header.bytes, 0, header.bytes.length);
+            digest.update(macKey, 0, macKey.length);
+            digest.doFinal(mac, 0);
+
+            byte[] expected = new byte[MAC_LENGTH];
+            body.limit(body.position() + MAC_LENGTH);
+            body.get(expected);
+            if (!org.bouncycastle.util.Arrays.constantTimeAreEqual(mac, expected))
+                throw new Exception("mac not right in chunk " + index);
+
+            int start = ct.position() + from;
+            ct.limit(start + plain.remaining());
+            ct.position(start);
+            while (ct.hasRemaining()) {
+                int n = Math.min(ct.remaining(), SLICE_LENGTH);
+                ct.get(in, 0, n);
+                cipher.processBytes(in, 0, n, out, 0);
+                plain.put(out, 0, n);
+            }
+        }
+
+        void clear() {
+            Arrays.fill(in, (byte) 0);
+            Arrays.fill(out, (byte) 0);
+            Arrays.fill(macKey, (byte) 0);
+            cipher.reset();
+        }
+
+        /**
+         * Keys the cipher for chunk index with its counter at byte from of the chunk. The counter is moved by
+         * hand, as SICBlockCipher.seekTo of bcprov 1.55 lands on the wrong block past the first one.
+         */
+        private void init(long index, boolean forEncryption, int from) {
+            byte[] z = new byte[k.length + 8];
+            System.arraycopy(k, 0, z, 0, k.length);
+            for (int i = 0; i < 8; i++)
+                z[k.length + i] = (byte) (index >>> (56 - 8 * i));
+
+            byte[] material = Sm9Util.KDF(z, (SM4_KEY_LENGTH + IV_LENGTH + MAC_LENGTH) * 8);
+            byte[] sm4Key = new byte[SM4_KEY_LENGTH];
+            byte[] iv = new byte[IV_LENGTH];
+            System.arraycopy(material, 0, sm4Key, 0, SM4_KEY_LENGTH);
+            System.arraycopy(material, SM4_KEY_LENGTH, iv, 0, IV_LENGTH);
+            System.arraycopy(material, SM4_KEY_LENGTH + IV_LENGTH, macKey, 0, MAC_LENGTH);
+
+            int carry = from / IV_LENGTH;
+            for (int i = IV_LENGTH - 1; i >= 0 && carry != 0; i--) {
+                carry += iv[i] & 0xff;
+                iv[i] = (byte) carry;
+                carry >>>= 8;
+            }
+            cipher.init(forEncryption, new ParametersWithIV(new KeyParameter(sm4Key), iv));
+            for (int n = from % IV_LENGTH; n > 0; n--)
+                cipher.returnByte((byte) 0);
+            Arrays.fill(z, (byte) 0);
+            Arrays.fill(material, (byte) 0);
+            Arrays.fill(iv, (byte) 0);
+            Arrays.fill(sm4Key, (byte) 0);
+        }
+    }
+
+    /**
+     * Splits the chunk range [from, to) until a single chunk is left, then maps and processes it.
+     */
+    private static class ChunkTask extends RecursiveAction {
+        private final Header header;
+        private final byte[] k;
+        private final FileChannel src, dst;
+        private final boolean forEncryption;
+        private final long from, to;
+
+        ChunkTask(Header header, byte[] k, FileChannel src, FileChannel dst, boolean forEncryption, long from, long to) {
+            this.header = header;
+            this.k = k;
+            this.src = src;
+            this.dst = dst;
+            this.forEncryption = forEncryption;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > 1) {
+                long mid = from + (to - from) / 2;
+                invokeAll(new ChunkTask(header, k, src, dst, forEncryption, from, mid),
+                        new ChunkTask(header, k, src, dst, forEncryption, mid, to));
+                return;
+            }
+            if (to == from)
+                return;
+
+            ChunkWorker worker = new ChunkWorker(header, k);
+            try {
+                int chunkLength = header.getChunkLength(from);
+                long plainOffset = from * header.chunkSize;
+                long ctOffset = header.getChunkOffset(from);
+
+                if (forEncryption) {
+                    MappedByteBuffer plain = src.map(FileChannel.MapMode.READ_ONLY, plainOffset, chunkLength);
+                    MappedByteBuffer ct = dst.map(FileChannel.MapMode.READ_WRITE, ctOffset, chunkLength + MAC_LENGTH);
+                    worker.encrypt(from, plain, ct);
+                } else {
+                    MappedByteBuffer ct = src.map(FileChannel.MapMode.READ_ONLY, ctOffset, chunkLength + MAC_LENGTH);
+                    MappedByteBuffer plain = dst.map(FileChannel.MapMode.READ_WRITE, plainOffset, chunkLength);
+                    worker.decrypt(from, ct, plain);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                worker.clear();
+            }
+        }
+    }
+}
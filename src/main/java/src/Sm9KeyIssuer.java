@@ -0,0 +1,346 @@
+package src;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Bulk issuance of sign and encrypt private keys into a {@link Sm9KeyRecords} file.
+ * <p>
+ * Three stages connected by bounded queues, so a slow stage holds the others back instead of filling the heap:
+ * a reader cuts the identities into batches, extractor threads derive the keys of a batch with the
+ * {@link KeyGenerationCenter} batch API (which spreads the work over its ForkJoinPool) and a writer copies
+ * them into the mapped file. The writer periodically flushes the file and advances the watermark in its header;
+ * {@link #issue} called again on the same file skips everything below the watermark, so an interrupted run
+ * resumes where it left off. Keys are deterministic for a given master key, so records redone after a crash
+ * are identical to the lost ones.
+ */
+public class Sm9KeyIssuer {
+
+    public static final int DEFAULT_MAX_ID_LENGTH = 64;
+    public static final int DEFAULT_BATCH_SIZE = 512;
+
+    /**
+     * Receives a {@link Progress} snapshot after every flush.
+     */
+    public interface ProgressListener {
+        void progress(Progress progress);
+    }
+
+    /**
+     * Snapshot of a running or finished issuance.
+     */
+    public static class Progress {
+        private final long total, resumedFrom, issued, elapsedNanos;
+
+        Progress(long total, long resumedFrom, long issued, long elapsedNanos) {
+            this.total = total;
+            this.resumedFrom = resumedFrom;
+            this.issued = issued;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * Records already complete when this run started.
+         */
+        public long getResumedFrom() {
+            return resumedFrom;
+        }
+
+        /**
+         * Records complete on disk, including those of earlier runs.
+         */
+        public long getIssued() {
+            return issued;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Identities issued per second by this run.
+         */
+        public double getRate() {
+            return elapsedNanos == 0 ? 0 : (issued - resumedFrom) * 1e9 / elapsedNanos;
+        }
+
+        public String toString() {
+            return String.format("%d/%d keys, %.1f keys/s", issued, total, getRate());
+        }
+    }
+
+    private final KeyGenerationCenter kgc;
+    private int extractors = 2;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int queueCapacity = 8;
+    private int maxIdLength = DEFAULT_MAX_ID_LENGTH;
+    private long flushIntervalMillis = 1000;
+    private ProgressListener listener;
+
+
+    public Sm9KeyIssuer(KeyGenerationCenter kgc) {
+        this.kgc = kgc;
+    }
+
+    /**
+     * Threads feeding batches to the KGC. Two are enough to keep the pool busy while one batch is in its
+     * sequential steps.
+     */
+    public Sm9KeyIssuer setExtractors(int extractors) {
+        this.extractors = extractors;
+        return this;
+    }
+
+    public Sm9KeyIssuer setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Batches allowed to wait between two stages.
+     */
+    public Sm9KeyIssuer setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * Longest identity, in UTF-8 bytes, a record can hold. Only used when the file is created.
+     */
+    public Sm9KeyIssuer setMaxIdLength(int maxIdLength) {
+        this.maxIdLength = maxIdLength;
+        return this;
+    }
+
+    public Sm9KeyIssuer setFlushInterval(long millis) {
+        this.flushIntervalMillis = millis;
+        return this;
+    }
+
+    public Sm9KeyIssuer setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Issues keys for every non-empty line of identities, one identity per line in UTF-8.
+     */
+    public Progress issue(File identities, File out) throws Exception {
+        int count = 0;
+        BufferedReader reader = newReader(identities);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty())
+                    count++;
+            }
+        } finally {
+            reader.close();
+        }
+
+        final BufferedReader lines = newReader(identities);
+        try {
+            return issue(new Iterator<String>() {
+                private String next = advance();
+
+                private String advance() {
+                    try {
+                        String line;
+                        while ((line = lines.readLine()) != null && line.isEmpty()) ;
+                        return line;
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                public String next() {
+                    if (next == null)
+                        throw new NoSuchElementException();
+                    String line = next;
+                    next = advance();
+                    return line;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            }, count, out);
+        } finally {
+            lines.close();
+        }
+    }
+
+    /**
+     * Issues keys for the first count identities, record i holding the i-th one. If out already holds a run
+     * over the same count and master keys, the identities below its watermark are skipped after checking that
+     * they match the records; a mismatch fails the run before anything is written.
+     */
+    public Progress issue(Iterator<String> identities, int count, File out) throws Exception {
+        Sm9KeyRecords records = null;
+        if (out.exists() && out.length() > 0) {
+            records = Sm9KeyRecords.open(out);
+            if (records.getCount() != count || !records.isIssuedBy(kgc)) {
+                records.close();
+                throw new Exception("existing key file " + out + " belongs to another issuance");
+            }
+        }
+        if (records == null)
+            records = Sm9KeyRecords.create(out, count, maxIdLength, kgc);
+
+        try {
+            return run(identities, records);
+        } finally {
+            records.close();
+        }
+    }
+
+
+    private static BufferedReader newReader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), Sm9KeyRecords.UTF8));
+    }
+
+    private static class Batch {
+        static final Batch END = new Batch(-1, null);
+
+        final int start;
+        final List<String> ids;
+        Sm9SignPrivateKey[] ds;
+        Sm9EncryptPrivateKey[] de;
+
+        Batch(int start, List<String> ids) {
+            this.start = start;
+            this.ids = ids;
+        }
+    }
+
+    private Progress run(final Iterator<String> identities, final Sm9KeyRecords records) throws Exception {
+        final int count = records.getCount();
+        final int resumedFrom = records.getWatermark();
+        final long startTime = System.nanoTime();
+        final BlockingQueue<Batch> pending = new ArrayBlockingQueue<Batch>(queueCapacity);
+        final BlockingQueue<Batch> extracted = new ArrayBlockingQueue<Batch>(queueCapacity);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicLong watermark = new AtomicLong(resumedFrom);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        threads.add(new Thread("sm9-issuer-reader") {
+            public void run() {
+                try {
+                    // the skipped identities must be those already on disk
+                    for (int i = 0; i < resumedFrom; i++) {
+                        String id = identities.next();
+                        if (!records.hasIdentity(i, id.getBytes(Sm9KeyRecords.UTF8)))
+                            throw new Exception("identity " + i + " differs from the existing key file, " + id);
+                    }
+                    for (int start = resumedFrom; start < count; start += batchSize) {
+                        List<String> ids = new ArrayList<String>(batchSize);
+                        for (int i = start; i < Math.min(count, start + batchSize); i++)
+                            ids.add(identities.next());
+                        pending.put(new Batch(start, ids));
+                    }
+                    pending.put(Batch.END);
+                } catch (Throwable t) {
+                    fail(failure, t);
+                }
+            }
+        });
+        for (int e = 0; e < extractors; e++) {
+            threads.add(new Thread("sm9-issuer-extractor-" + e) {
+                public void run() {
+                    try {
+                        Batch batch;
+                        while ((batch = pending.take()) != Batch.END) {
+                            batch.ds = kgc.generateSignPrivatekeys(batch.ids);
+                            batch.de = kgc.generateEncrypyPrivateKeys(batch.ids);
+                            extracted.put(batch);
+                        }
+                        pending.put(Batch.END);
+                        extracted.put(Batch.END);
+                    } catch (Throwable t) {
+                        fail(failure, t);
+                    }
+                }
+            });
+        }
+        Thread writer = new Thread("sm9-issuer-writer") {
+            public void run() {
+                try {
+                    // batches finish out of order; done[b] marks batch b as written
+                    boolean[] done = new boolean[(count - resumedFrom + batchSize - 1) / batchSize];
+                    int next = 0, ends = 0;
+                    long lastFlush = System.currentTimeMillis();
+                    while (ends < extractors) {
+                        Batch batch = extracted.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                        if (batch == Batch.END) {
+                            ends++;
+                        } else if (batch != null) {
+                            for (int i = 0; i < batch.ids.size(); i++)
+                                records.write(batch.start + i, batch.ids.get(i).getBytes(Sm9KeyRecords.UTF8), batch.ds[i], batch.de[i]);
+                            done[(batch.start - resumedFrom) / batchSize] = true;
+                        }
+
+                        if (System.currentTimeMillis() - lastFlush >= flushIntervalMillis || ends == extractors) {
+                            while (next < done.length && done[next])
+                                next++;
+                            int mark = Math.min(count, resumedFrom + next * batchSize);
+                            records.commit(mark);
+                            watermark.set(mark);
+                            lastFlush = System.currentTimeMillis();
+                            report(count, resumedFrom, mark, startTime);
+                        }
+                    }
+                } catch (Throwable t) {
+                    fail(failure, t);
+                }
+            }
+        };
+        threads.add(writer);
+
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.start();
+        }
+        for (Thread t : threads) {
+            while (t.isAlive() && failure.get() == null)
+                t.join(100);
+        }
+        if (failure.get() != null) {
+            for (Thread t : threads)
+                t.interrupt();
+            Throwable t = failure.get();
+            throw t instanceof Exception ? (Exception) t : new RuntimeException(t);
+        }
+
+        return new Progress(count, resumedFrom, watermark.get(), System.nanoTime() - startTime);
+    }
+
+    private void report(long count, long resumedFrom, long issued, long startTime) {
+        if (listener != null)
+            listener.progress(new Progress(count, resumedFrom, issued, System.nanoTime() - startTime));
+    }
+
+    private static void fail(AtomicReference<Throwable> failure, Throwable t) {
+        if (!(t instanceof InterruptedException))
+            failure.compareAndSet(null, t);
+    }
+}
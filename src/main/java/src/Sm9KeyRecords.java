@@ -0,0 +1,258 @@
+package src;
+
+import org.bouncycastle.crypto.digests.SM3Digest;
+import src.util.io.disk.ByteBufferBigIntegerArraySector;
+import src.util.io.disk.ByteBufferRecordArraySector;
+import src.util.io.disk.FileChannelDisk;
+import src.util.io.disk.Sector;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * File of fixed-width private key records, one per identity, memory-mapped through {@link FileChannelDisk}.
+ * <p>
+ * The file starts with a header sector followed by as many record sectors as needed to keep every mapping
+ * under 2 GB. A record is
+ * <pre>
+ *   identity length (2) || identity (maxIdLength, zero padded) || ds (65, 04 || x || y) || de (129, SM9 order)
+ * </pre>
+ * The header carries the record count, the SM3 hash of the master public keys the keys were issued under and a
+ * watermark: every record below it is complete and flushed.
+ */
+public class Sm9KeyRecords {
+
+    public static final int SIGN_KEY_LENGTH = 65;
+    public static final int ENCRYPT_KEY_LENGTH = 129;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final BigInteger MAGIC = BigInteger.valueOf(0x534d394bL);  // "SM9K"
+    private static final int HEADER_FIELD_LENGTH = 32;
+    private static final String[] HEADER_LABELS = {"magic", "count", "maxIdLength", "segmentSize", "master", "watermark"};
+
+    private final FileChannelDisk<Sector> disk;
+    private final ByteBufferBigIntegerArraySector header;
+    private final ByteBufferRecordArraySector[] segments;
+    private final int count, maxIdLength, segmentSize, recordLength;
+
+
+    private Sm9KeyRecords(int count, int maxIdLength, int segmentSize) throws Exception {
+        this.count = count;
+        this.maxIdLength = maxIdLength;
+        this.segmentSize = segmentSize;
+        this.recordLength = getRecordLength(maxIdLength);
+
+        this.disk = new FileChannelDisk<Sector>();
+        this.header = newHeader();
+        disk.addSector("header", header);
+
+        int numSegments = (count + segmentSize - 1) / segmentSize;
+        this.segments = new ByteBufferRecordArraySector[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = new ByteBufferRecordArraySector(recordLength, Math.min(segmentSize, count - i * segmentSize));
+            disk.addSector(null, segments[i]);
+        }
+    }
+
+    /**
+     * Creates, or truncates, a file with room for count records.
+     */
+    public static Sm9KeyRecords create(File file, int count, int maxIdLength, KeyGenerationCenter kgc) throws Exception {
+        if (maxIdLength < 1 || maxIdLength > 0xffff)
+            throw new IllegalArgumentException("maxIdLength out of range: " + maxIdLength);
+
+        Sm9KeyRecords records = new Sm9KeyRecords(count, maxIdLength, (Integer.MAX_VALUE - 4) / getRecordLength(maxIdLength));
+        records.disk.mapTo(file.getPath());
+        records.header.setAt("magic", MAGIC);
+        records.header.setAt("count", BigInteger.valueOf(count));
+        records.header.setAt("maxIdLength", BigInteger.valueOf(maxIdLength));
+        records.header.setAt("segmentSize", BigInteger.valueOf(records.segmentSize));
+        records.header.setAt("master", masterHash(kgc));
+        records.header.setAt("watermark", BigInteger.ZERO);
+        records.disk.flush();
+        return records;
+    }
+
+    /**
+     * Maps an existing file for reading and writing.
+     */
+    public static Sm9KeyRecords open(File file) throws Exception {
+        return open(file, false);
+    }
+
+    /**
+     * Maps an existing file, read-only if readOnly is set.
+     */
+    public static Sm9KeyRecords open(File file, boolean readOnly) throws Exception {
+        ByteBufferBigIntegerArraySector header = newHeader();
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            if (f.length() < header.getLengthInBytes())
+                throw new Exception("not a key record file: " + file);
+            FileChannel channel = f.getChannel();
+            header.mapTo(Sector.Mode.READ, channel.map(FileChannel.MapMode.READ_ONLY, 0, header.getLengthInBytes()));
+        } finally {
+            f.close();
+        }
+        if (!MAGIC.equals(header.getAt("magic")))
+            throw new Exception("not a key record file: " + file);
+
+        Sm9KeyRecords records = new Sm9KeyRecords(header.getAt("count").intValue(),
+                header.getAt("maxIdLength").intValue(), header.getAt("segmentSize").intValue());
+        if (readOnly) {
+            RandomAccessFile ro = new RandomAccessFile(file, "r");
+            try {
+                records.disk.mapTo(ro.getChannel());
+            } finally {
+                ro.close();
+            }
+        } else {
+            records.disk.open(file.getPath());
+        }
+        return records;
+    }
+
+    public static int getRecordLength(int maxIdLength) {
+        return 2 + maxIdLength + SIGN_KEY_LENGTH + ENCRYPT_KEY_LENGTH;
+    }
+
+    static BigInteger masterHash(KeyGenerationCenter kgc) {
+        SM3Digest digest = new SM3Digest();
+        byte[] ppubs = Sm9Util.G2PointToBytes(kgc.getPpubs(), false);
+        byte[] ppube = kgc.getPpube().toBytesPC(false);
+        digest.update(ppubs, 0, ppubs.length);
+        digest.update(ppube, 0, ppube.length);
+        byte[] hash = new byte[digest.getDigestSize()];
+        digest.doFinal(hash, 0);
+        return new BigInteger(1, hash);
+    }
+
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getMaxIdLength() {
+        return maxIdLength;
+    }
+
+    /**
+     * True if the records were issued under the master keys of kgc.
+     */
+    public boolean isIssuedBy(KeyGenerationCenter kgc) {
+        return masterHash(kgc).equals(getMasterHash());
+    }
+
+    /**
+     * The master hash of the header. The 32 bytes on disk are read back as a signed number, so a hash with its
+     * top bit set comes back negative and is moved up by 2^256.
+     */
+    BigInteger getMasterHash() {
+        BigInteger master = header.getAt("master");
+        return master.signum() < 0 ? master.add(BigInteger.ONE.shiftLeft(HEADER_FIELD_LENGTH * 8)) : master;
+    }
+
+    /**
+     * Number of leading records known to be complete on disk.
+     */
+    public int getWatermark() {
+        return header.getAt("watermark").intValue();
+    }
+
+    /**
+     * Flushes every record, then records watermark as durable.
+     */
+    public void commit(int watermark) {
+        disk.flush();
+        header.setAt("watermark", BigInteger.valueOf(watermark));
+        disk.flush();
+    }
+
+    public void close() {
+        disk.close();
+    }
+
+    /**
+     * View of record index, sharing content with the mapped file.
+     */
+    public ByteBuffer getRecord(int index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("record " + index);
+        return segments[index / segmentSize].getAt(index % segmentSize);
+    }
+
+    public String getIdentity(int index) {
+        return new String(getIdentityBytes(index), UTF8);
+    }
+
+    public byte[] getIdentityBytes(int index) {
+        ByteBuffer record = getRecord(index);
+        byte[] id = new byte[record.getShort(0) & 0xffff];
+        record.position(2);
+        record.get(id);
+        return id;
+    }
+
+    /**
+     * True if record index holds the identity id, compared in place.
+     */
+    public boolean hasIdentity(int index, byte[] id) {
+        ByteBuffer record = getRecord(index);
+        if ((record.getShort(0) & 0xffff) != id.length)
+            return false;
+        for (int i = 0; i < id.length; i++) {
+            if (record.get(2 + i) != id[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * View of the 65 byte ds of record index.
+     */
+    public ByteBuffer getSignKey(int index) {
+        ByteBuffer record = getRecord(index);
+        record.position(2 + maxIdLength).limit(2 + maxIdLength + SIGN_KEY_LENGTH);
+        return record.slice();
+    }
+
+    /**
+     * View of the 129 byte de of record index.
+     */
+    public ByteBuffer getEncryptKey(int index) {
+        ByteBuffer record = getRecord(index);
+        record.position(2 + maxIdLength + SIGN_KEY_LENGTH);
+        return record.slice();
+    }
+
+    /**
+     * Writes record index. Distinct records may be written concurrently.
+     *
+     * @throws IllegalArgumentException if the identity is longer than maxIdLength bytes.
+     */
+    public void write(int index, byte[] id, Sm9SignPrivateKey ds, Sm9EncryptPrivateKey de) {
+        if (id.length > maxIdLength)
+            throw new IllegalArgumentException("identity longer than " + maxIdLength + " bytes");
+
+        ByteBuffer record = getRecord(index);
+        record.putShort((short) id.length);
+        record.put(id);
+        record.put(new byte[maxIdLength - id.length]);
+        record.put(ds.toBytes(false));
+        record.put(de.toBytes(false));
+    }
+
+
+    private static ByteBufferBigIntegerArraySector newHeader() {
+        try {
+            return new ByteBufferBigIntegerArraySector(HEADER_FIELD_LENGTH, HEADER_LABELS.length, HEADER_LABELS);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package src;
+
+import src.util.io.disk.ByteBufferBigIntegerArraySector;
+import src.util.io.disk.ByteBufferRecordArraySector;
+import src.util.io.disk.FileChannelDisk;
+import src.util.io.disk.Sector;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only lookup of private keys by identity over a {@link Sm9KeyRecords} file.
+ * <p>
+ * Next to the records lives an index file, an open-addressing hash table with linear probing, mapped straight
+ * from disk. Each 8 byte slot holds record index + 1 (0 for an empty slot) and 32 more bits of the identity
+ * hash, so probes rarely have to touch a record. Opening a store maps both files and reads two headers; no key
+ * is decoded until it is asked for, and then only that one, from its mapped record.
+ * <p>
+ * The index is rebuilt when it is missing or does not match the records' count, watermark and master hash;
+ * the master hash tells apart records of the same size regenerated under new master keys.
+ */
+public class Sm9KeyStore {
+
+    private static final BigInteger MAGIC = BigInteger.valueOf(0x534d3949L);  // "SM9I"
+    private static final String[] HEADER_LABELS = {"magic", "count", "watermark", "capacity", "master"};
+    private static final int HEADER_FIELD_LENGTH = 32;
+    private static final int SLOT_LENGTH = 8;
+    private static final int SEGMENT_SLOTS = 1 << 27;
+
+    private final Sm9KeyRecords records;
+    private final ByteBufferRecordArraySector[] segments;
+    private final int mask;
+
+
+    private Sm9KeyStore(Sm9KeyRecords records, ByteBufferRecordArraySector[] segments, int capacity) {
+        this.records = records;
+        this.segments = segments;
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Opens the records file and its index, path + ".idx", building the index first if needed.
+     */
+    public static Sm9KeyStore open(File file) throws Exception {
+        File indexFile = new File(file.getPath() + ".idx");
+        Sm9KeyRecords records = Sm9KeyRecords.open(file, true);
+        try {
+            if (!isCurrent(indexFile, records))
+                buildIndex(records, indexFile);
+            return new Sm9KeyStore(records, mapIndex(indexFile, records), capacity(records.getWatermark()));
+        } catch (Exception e) {
+            records.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the index of the complete records of records to indexFile.
+     */
+    public static void buildIndex(Sm9KeyRecords records, File indexFile) throws Exception {
+        int count = records.getWatermark();
+        int capacity = capacity(count);
+
+        FileChannelDisk<Sector> disk = newIndexDisk(capacity);
+        disk.mapTo(indexFile.getPath());
+        try {
+            ByteBufferBigIntegerArraySector header = (ByteBufferBigIntegerArraySector) disk.getSector("header");
+            ByteBufferRecordArraySector[] segments = segments(disk, capacity);
+
+            int mask = capacity - 1;
+            for (int i = 0; i < count; i++) {
+                byte[] id = records.getIdentityBytes(i);
+                long hash = hash(id);
+                for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                    ByteBuffer s = slot(segments, slot);
+                    int entry = s.getInt(0);
+                    if (entry == 0) {
+                        s.putInt(0, i + 1);
+                        s.putInt(4, (int) (hash >>> 32));
+                        break;
+                    }
+                    // the first record of a duplicated identity wins
+                    if (s.getInt(4) == (int) (hash >>> 32) && records.hasIdentity(entry - 1, id))
+                        break;
+                }
+            }
+
+            disk.flush();
+            header.setAt("magic", MAGIC);
+            header.setAt("count", BigInteger.valueOf(records.getCount()));
+            header.setAt("watermark", BigInteger.valueOf(count));
+            header.setAt("capacity", BigInteger.valueOf(capacity));
+            header.setAt("master", records.getMasterHash());
+            disk.flush();
+        } finally {
+            disk.close();
+        }
+    }
+
+
+    public int size() {
+        return records.getWatermark();
+    }
+
+    public Sm9KeyRecords getRecords() {
+        return records;
+    }
+
+    /**
+     * Record index of id, or -1.
+     */
+    public int find(String id) {
+        byte[] idb = id.getBytes(Sm9KeyRecords.UTF8);
+        long hash = hash(idb);
+        int tag = (int) (hash >>> 32);
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            ByteBuffer s = slot(segments, slot);
+            int entry = s.getInt(0);
+            if (entry == 0)
+                return -1;
+            if (s.getInt(4) == tag && records.hasIdentity(entry - 1, idb))
+                return entry - 1;
+        }
+    }
+
+    public boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * Decodes the sign private key of id, or returns null if id has none.
+     */
+    public Sm9SignPrivateKey getSignPrivateKey(String id) throws Exception {
+        int index = find(id);
+        if (index < 0)
+            return null;
+
+        byte[] ds = new byte[Sm9KeyRecords.SIGN_KEY_LENGTH];
+        records.getSignKey(index).get(ds);
+        return Sm9SignPrivateKey.fromBytes(ds);
+    }
+
+    /**
+     * Decodes the encrypt private key of id, or returns null if id has none.
+     */
+    public Sm9EncryptPrivateKey getEncryptPrivateKey(String id) throws Exception {
+        int index = find(id);
+        if (index < 0)
+            return null;
+
+        byte[] de = new byte[Sm9KeyRecords.ENCRYPT_KEY_LENGTH];
+        records.getEncryptKey(index).get(de);
+        return Sm9EncryptPrivateKey.fromBytes(de);
+    }
+
+    public void close() {
+        records.close();
+    }
+
+
+    // power of two keeping the load factor at or below 1/2
+    private static int capacity(int count) {
+        int capacity = 16;
+        while (capacity < 2L * count)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private static boolean isCurrent(File indexFile, Sm9KeyRecords records) throws Exception {
+        if (!indexFile.isFile())
+            return false;
+
+        ByteBufferBigIntegerArraySector header = newHeader();
+        RandomAccessFile f = new RandomAccessFile(indexFile, "r");
+        try {
+            if (f.length() < header.getLengthInBytes())
+                return false;
+            header.mapTo(Sector.Mode.READ, f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, header.getLengthInBytes()));
+        } finally {
+            f.close();
+        }
+        return MAGIC.equals(header.getAt("magic"))
+                && header.getAt("count").intValue() == records.getCount()
+                && header.getAt("watermark").intValue() == records.getWatermark()
+                && header.getAt("capacity").intValue() == capacity(records.getWatermark())
+                && masterHash(header).equals(records.getMasterHash());
+    }
+
+    private static ByteBufferRecordArraySector[] mapIndex(File indexFile, Sm9KeyRecords records) throws Exception {
+        int capacity = capacity(records.getWatermark());
+        FileChannelDisk<Sector> disk = newIndexDisk(capacity);
+        RandomAccessFile f = new RandomAccessFile(indexFile, "r");
+        try {
+            disk.mapTo(f.getChannel());
+        } finally {
+            f.close();
+        }
+        return segments(disk, capacity);
+    }
+
+    private static FileChannelDisk<Sector> newIndexDisk(int capacity) {
+        FileChannelDisk<Sector> disk = new FileChannelDisk<Sector>();
+        disk.addSector("header", newHeader());
+        for (int i = 0; i < capacity; i += SEGMENT_SLOTS)
+            disk.addSector("slots" + (i / SEGMENT_SLOTS), new ByteBufferRecordArraySector(SLOT_LENGTH, Math.min(SEGMENT_SLOTS, capacity - i)));
+        return disk;
+    }
+
+    private static ByteBufferRecordArraySector[] segments(FileChannelDisk<Sector> disk, int capacity) {
+        ByteBufferRecordArraySector[] segments = new ByteBufferRecordArraySector[(capacity + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS];
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = (ByteBufferRecordArraySector) disk.getSector("slots" + i);
+        return segments;
+    }
+
+    private static ByteBuffer slot(ByteBufferRecordArraySector[] segments, int slot) {
+        return segments[slot / SEGMENT_SLOTS].getAt(slot % SEGMENT_SLOTS);
+    }
+
+    private static ByteBufferBigIntegerArraySector newHeader() {
+        try {
+            return new ByteBufferBigIntegerArraySector(HEADER_FIELD_LENGTH, HEADER_LABELS.length, HEADER_LABELS);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // read back signed, like the header of the records
+    private static BigInteger masterHash(ByteBufferBigIntegerArraySector header) {
+        BigInteger master = header.getAt("master");
+        return master.signum() < 0 ? master.add(BigInteger.ONE.shiftLeft(HEADER_FIELD_LENGTH * 8)) : master;
+    }
+
+    // 64 bit FNV-1a followed by the murmur3 finalizer, so both halves are usable
+    private static long hash(byte[] id) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : id) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,252 @@
+package src;
+
+import org.bouncycastle.crypto.digests.SM3Digest;
+import src.field.curve.CurveCombPreProcessing;
+import src.field.curve.CurveElement;
+import src.field.curve.CurveField;
+import src.field.gt.GTFiniteElement;
+import src.field.gt.GTFiniteField;
+import src.field.gt.ImmutableGTFiniteElement;
+import src.pairing.f.TypeFPairing;
+import src.pairing.f.parameters.PropertiesParameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Everything public a {@link KeyGenerationCenter} derives at startup, saved once and mapped back in later.
+ * <p>
+ * A snapshot holds the pairing parameters with their derived constants (see
+ * {@link TypeFPairing#getDerivedParameters()}), P1, P2, Ppubs and Ppube, the pairing values e(P1, Ppubs) and
+ * e(Ppube, P2) in torus-compressed form and the fixed-base comb tables of P1 and P2, followed by the SM3 hash
+ * of all of it. Loading one costs a file mapping, a checksum and some decoding, instead of the Frobenius
+ * powers, two pairings and two table builds. The master private keys are never part of a snapshot.
+ */
+public class Sm9PublicParameters {
+
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x534d3950;  // "SM9P"
+    private static final int CHECKSUM_LENGTH = 32;
+    private static final String[] PARAMETER_KEYS = {
+            "type", "x", "q", "r", "b", "beta", "alpha0", "alpha1", "ndonr", "xPowq2", "xPowq6", "xPowq8"};
+
+    private final TypeFPairing pairing;
+    private final CurveElement g1, g2, ppubs, ppube;
+    private final GTFiniteElement signGT, encryptGT;
+    private final CurveCombPreProcessing g1Comb, g2Comb;
+
+
+    Sm9PublicParameters(TypeFPairing pairing, CurveElement g1, CurveElement g2, CurveElement ppubs, CurveElement ppube,
+                        GTFiniteElement signGT, GTFiniteElement encryptGT,
+                        CurveCombPreProcessing g1Comb, CurveCombPreProcessing g2Comb) {
+        this.pairing = pairing;
+        this.g1 = g1;
+        this.g2 = g2;
+        this.ppubs = ppubs;
+        this.ppube = ppube;
+        this.signGT = new ImmutableGTFiniteElement(signGT.duplicate());
+        this.encryptGT = new ImmutableGTFiniteElement(encryptGT.duplicate());
+        this.g1Comb = g1Comb;
+        this.g2Comb = g2Comb;
+    }
+
+    /**
+     * The public parameters of kgc, computing whatever it has not computed yet.
+     */
+    public static Sm9PublicParameters of(KeyGenerationCenter kgc) {
+        return kgc.getDomain().getPublicParameters();
+    }
+
+    /**
+     * Maps file and decodes the snapshot in it.
+     *
+     * @throws Exception if the file is not a snapshot or its checksum does not match.
+     */
+    public static Sm9PublicParameters load(File file) throws Exception {
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            return read(f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length()));
+        } finally {
+            f.close();
+        }
+    }
+
+    /**
+     * Decodes a snapshot from the remaining bytes of in.
+     */
+    public static Sm9PublicParameters read(ByteBuffer in) throws Exception {
+        in = in.slice();
+        if (in.remaining() < 8 + CHECKSUM_LENGTH || in.getInt() != MAGIC)
+            throw new Exception("not a public parameter snapshot");
+        int version = in.getInt();
+        if (version != VERSION)
+            throw new Exception("unsupported public parameter snapshot version " + version);
+
+        byte[] checksum = new byte[CHECKSUM_LENGTH];
+        ByteBuffer content = in.duplicate();
+        content.position(0).limit(in.limit() - CHECKSUM_LENGTH);
+        ByteBuffer stored = in.duplicate();
+        stored.position(in.limit() - CHECKSUM_LENGTH);
+        stored.get(checksum);
+        if (!Arrays.equals(checksum, sm3(content)))
+            throw new Exception("public parameter snapshot is corrupted");
+
+        PropertiesParameters params = new PropertiesParameters();
+        for (int i = in.getShort(); i > 0; i--)
+            params.put(readString(in), readString(in));
+        TypeFPairing pairing = new TypeFPairing(params);
+        CurveField curve1 = (CurveField) pairing.getG1();
+        CurveField curve2 = (CurveField) pairing.getG2();
+        GTFiniteField gt = (GTFiniteField) pairing.getGT();
+
+        CurveElement g1 = readPoint(in, curve1);
+        CurveElement g2 = readPoint(in, curve2);
+        CurveElement ppubs = readPoint(in, curve2);
+        CurveElement ppube = readPoint(in, curve1);
+
+        GTFiniteElement[] values = gt.newElementsFromBytesCompressed(readBytes(in, 2 * gt.getLengthInBytesCompressed()), 0, 2);
+
+        int w = in.getInt();
+        CurveCombPreProcessing g1Comb = readComb(in, curve1, w);
+        CurveCombPreProcessing g2Comb = readComb(in, curve2, w);
+
+        return new Sm9PublicParameters(pairing, g1, g2, ppubs, ppube, values[0], values[1], g1Comb, g2Comb);
+    }
+
+    public byte[] toBytes() {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            PropertiesParameters params = pairing.getDerivedParameters();
+            out.writeShort(PARAMETER_KEYS.length);
+            for (String key : PARAMETER_KEYS) {
+                writeString(out, key);
+                writeString(out, params.getString(key));
+            }
+
+            out.write(g1.toBytes());
+            out.write(g2.toBytes());
+            out.write(ppubs.toBytes());
+            out.write(ppube.toBytes());
+            out.write(signGT.toBytesCompressed());
+            out.write(encryptGT.toBytesCompressed());
+
+            out.writeInt(g1Comb.getW());
+            out.write(g1Comb.toBytes());
+            out.write(g2Comb.toBytes());
+            out.flush();
+
+            out.write(sm3(ByteBuffer.wrap(buffer.toByteArray())));
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void write(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(toBytes());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+
+    public TypeFPairing getPairing() {
+        return pairing;
+    }
+
+    public CurveElement getG1() {
+        return g1;
+    }
+
+    public CurveElement getG2() {
+        return g2;
+    }
+
+    public CurveElement getPpubs() {
+        return ppubs;
+    }
+
+    public CurveElement getPpube() {
+        return ppube;
+    }
+
+    /**
+     * e(P1, Ppubs), immutable.
+     */
+    public GTFiniteElement getSignGT() {
+        return signGT;
+    }
+
+    /**
+     * e(Ppube, P2), immutable.
+     */
+    public GTFiniteElement getEncryptGT() {
+        return encryptGT;
+    }
+
+    public CurveCombPreProcessing getG1Comb() {
+        return g1Comb;
+    }
+
+    public CurveCombPreProcessing getG2Comb() {
+        return g2Comb;
+    }
+
+
+    private static byte[] sm3(ByteBuffer content) {
+        SM3Digest digest = new SM3Digest();
+        byte[] chunk = new byte[8192];
+        while (content.hasRemaining()) {
+            int n = Math.min(chunk.length, content.remaining());
+            content.get(chunk, 0, n);
+            digest.update(chunk, 0, n);
+        }
+        byte[] hash = new byte[digest.getDigestSize()];
+        digest.doFinal(hash, 0);
+        return hash;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(Sm9KeyRecords.UTF8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        return new String(readBytes(in, in.getShort() & 0xffff), Sm9KeyRecords.UTF8);
+    }
+
+    private static byte[] readBytes(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static CurveElement readPoint(ByteBuffer in, CurveField field) throws Exception {
+        CurveElement point = field.newElement();
+        point.setFromBytes(readBytes(in, field.getLengthInBytes()));
+        if (point.isZero())
+            throw new Exception("public parameter snapshot holds a point off the curve");
+        return point;
+    }
+
+    private static CurveCombPreProcessing readComb(ByteBuffer in, CurveField field, int w) {
+        int length = field.getLengthInBytes() * ((1 << w) - 1);
+        return new CurveCombPreProcessing(field, w, readBytes(in, length), 0);
+    }
+}
@@ -0,0 +1,224 @@
+package src;
+
+import org.bouncycastle.crypto.digests.SM3Digest;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.security.SecureRandomSpi;
+
+/**
+ * Hash_DRBG over SM3 (NIST SP 800-90A / GM/T 0105), used as the default random source of the SM9 operations.
+ * <p>
+ * {@link #current()} hands every thread its own generator, so drawing random values never touches the
+ * operating system or a shared lock. Each generator is seeded from one process-wide SecureRandom and reseeds
+ * itself after {@link #RESEED_INTERVAL} requests or {@link #RESEED_MILLIS} milliseconds, whichever comes first.
+ */
+public class Sm9Random extends SecureRandom {
+
+    public static final long RESEED_INTERVAL = 1L << 20;
+    public static final long RESEED_MILLIS = 600 * 1000L;
+
+    private static final SecureRandom ENTROPY = new SecureRandom();
+
+    private static final ThreadLocal<Sm9Random> CURRENT = new ThreadLocal<Sm9Random>() {
+        @Override
+        protected Sm9Random initialValue() {
+            return new Sm9Random();
+        }
+    };
+
+    private final HashDrbg drbg;
+
+
+    public Sm9Random() {
+        this(new HashDrbg());
+    }
+
+    private Sm9Random(HashDrbg drbg) {
+        super(drbg, null);
+        this.drbg = drbg;
+    }
+
+    /**
+     * The generator of the calling thread.
+     */
+    public static Sm9Random current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Uniform scalar in [1, n-1], see {@link #nextScalar(SecureRandom, BigInteger)}.
+     */
+    public BigInteger nextScalar(BigInteger n) {
+        return nextScalar(this, n);
+    }
+
+    /**
+     * Uniform scalar in [1, n-1] drawn from random.
+     * <p>
+     * Reduces 64 bits more than n needs modulo n-1 (FIPS 186-4 B.4.1), which keeps the bias below 2^-64
+     * without the rejection loop of repeated {@code new BigInteger(bits, random)} draws.
+     */
+    public static BigInteger nextScalar(SecureRandom random, BigInteger n) {
+        byte[] bytes = new byte[(n.bitLength() + 64 + 7) / 8];
+        random.nextBytes(bytes);
+        return new BigInteger(1, bytes).mod(n.subtract(BigInteger.ONE)).add(BigInteger.ONE);
+    }
+
+    /**
+     * Forces a reseed from the process-wide entropy source.
+     */
+    public void reseed() {
+        drbg.reseed(null);
+    }
+
+
+    private static byte[] entropy(int length) {
+        byte[] out = new byte[length];
+        synchronized (ENTROPY) {
+            ENTROPY.nextBytes(out);
+        }
+        return out;
+    }
+
+    /**
+     * The SP 800-90A Hash_DRBG mechanism with SM3, seedlen = 440 bits. Instances are not thread safe; the
+     * enclosing SecureRandom serialises calls.
+     */
+    private static class HashDrbg extends SecureRandomSpi {
+        private static final int SEED_LENGTH = 55;
+        private static final int SECURITY_BYTES = 32;
+        private static final int MAX_REQUEST = 1 << 16;
+
+        private final SM3Digest digest = new SM3Digest();
+        private final byte[] hash = new byte[32];
+        private byte[] v;
+        private byte[] c;
+        private long reseedCounter;
+        private long reseedTime;
+
+        HashDrbg() {
+            byte[] nonce = new byte[16];
+            long id = Thread.currentThread().getId();
+            long time = System.nanoTime();
+            for (int i = 0; i < 8; i++) {
+                nonce[i] = (byte) (id >>> (8 * i));
+                nonce[8 + i] = (byte) (time >>> (8 * i));
+            }
+            byte[] seed = concat(entropy(SECURITY_BYTES + SECURITY_BYTES / 2), nonce);
+            v = hashDf(seed);
+            updateC();
+        }
+
+        @Override
+        protected void engineSetSeed(byte[] seed) {
+            // called by the SecureRandom constructor before the state exists
+            if (v != null)
+                reseed(seed);
+        }
+
+        @Override
+        protected void engineNextBytes(byte[] bytes) {
+            byte[] chunk = null;
+            for (int offset = 0; offset < bytes.length; offset += MAX_REQUEST) {
+                int len = Math.min(MAX_REQUEST, bytes.length - offset);
+                if (offset == 0 && len == bytes.length) {
+                    generate(bytes);
+                } else {
+                    if (chunk == null || chunk.length != len)
+                        chunk = new byte[len];
+                    generate(chunk);
+                    System.arraycopy(chunk, 0, bytes, offset, len);
+                }
+            }
+        }
+
+        @Override
+        protected byte[] engineGenerateSeed(int numBytes) {
+            return entropy(numBytes);
+        }
+
+        void reseed(byte[] additional) {
+            byte[] material = concat(new byte[]{1}, v, entropy(SECURITY_BYTES));
+            if (additional != null)
+                material = concat(material, additional);
+            v = hashDf(material);
+            updateC();
+        }
+
+        private void updateC() {
+            c = hashDf(concat(new byte[]{0}, v));
+            reseedCounter = 1;
+            reseedTime = System.currentTimeMillis();
+        }
+
+        private void generate(byte[] out) {
+            if (reseedCounter > RESEED_INTERVAL || System.currentTimeMillis() - reseedTime > RESEED_MILLIS)
+                reseed(null);
+
+            // Hashgen
+            byte[] data = v.clone();
+            byte[] one = {1};
+            for (int offset = 0; offset < out.length; offset += hash.length) {
+                digest.update(data, 0, data.length);
+                digest.doFinal(hash, 0);
+                System.arraycopy(hash, 0, out, offset, Math.min(hash.length, out.length - offset));
+                add(data, one);
+            }
+
+            // V = V + Hash(0x03 || V) + C + reseed_counter
+            digest.update((byte) 3);
+            digest.update(v, 0, v.length);
+            digest.doFinal(hash, 0);
+            add(v, hash);
+            add(v, c);
+            byte[] counter = new byte[8];
+            for (int i = 0; i < 8; i++)
+                counter[7 - i] = (byte) (reseedCounter >>> (8 * i));
+            add(v, counter);
+            reseedCounter++;
+        }
+
+        private byte[] hashDf(byte[] input) {
+            byte[] out = new byte[SEED_LENGTH];
+            int bits = SEED_LENGTH * 8;
+            byte counter = 1;
+            for (int offset = 0; offset < out.length; offset += hash.length, counter++) {
+                digest.update(counter);
+                digest.update((byte) (bits >>> 24));
+                digest.update((byte) (bits >>> 16));
+                digest.update((byte) (bits >>> 8));
+                digest.update((byte) bits);
+                digest.update(input, 0, input.length);
+                digest.doFinal(hash, 0);
+                System.arraycopy(hash, 0, out, offset, Math.min(hash.length, out.length - offset));
+            }
+            return out;
+        }
+
+        // a = (a + b) mod 2^(8 a.length), both big endian
+        private static void add(byte[] a, byte[] b) {
+            int carry = 0;
+            for (int i = a.length - 1, j = b.length - 1; i >= 0; i--, j--) {
+                int sum = (a[i] & 0xff) + (j >= 0 ? b[j] & 0xff : 0) + carry;
+                a[i] = (byte) sum;
+                carry = sum >>> 8;
+                if (j < 0 && carry == 0)
+                    break;
+            }
+        }
+
+        private static byte[] concat(byte[]... parts) {
+            int len = 0;
+            for (byte[] p : parts)
+                len += p.length;
+            byte[] out = new byte[len];
+            int offset = 0;
+            for (byte[] p : parts) {
+                System.arraycopy(p, 0, out, offset, p.length);
+                offset += p.length;
+            }
+            return out;
+        }
+    }
+}
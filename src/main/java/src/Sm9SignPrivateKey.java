@@ -2,6 +2,7 @@ package src;
 
 import src.api.Element;
 import src.field.curve.CurveElement;
+import src.field.curve.CurveField;
 
 
 /**
@@ -19,4 +20,33 @@ public class Sm9SignPrivateKey {
     public CurveElement getDs() {
         return ds;
     }
+
+    /**
+     * Encodes ds as 02/03 || x (33 bytes) or 04 || x || y (65 bytes).
+     */
+    public byte [] toBytes(boolean compressed){
+        return ds.toBytesPC(compressed);
+    }
+
+    public static Sm9SignPrivateKey fromBytes(byte [] source) throws Exception{
+        return fromBytes(source,KeyGenerationCenter.getInstance().getCurve1());
+    }
+
+    /**
+     * Decodes a key of the domain whose G1 curve is curve1.
+     */
+    public static Sm9SignPrivateKey fromBytes(byte [] source,CurveField curve1) throws Exception{
+        CurveElement ds=curve1.newElement();
+        try {
+            ds.setFromBytesPC(source);
+        }catch (IllegalArgumentException e)
+        {
+            throw new Exception("invalid private key");
+        }
+        if(ds.isZero())
+        {
+            throw new Exception("invalid private key");
+        }
+        return new Sm9SignPrivateKey(ds);
+    }
 }
@@ -8,12 +8,17 @@ import mcl.bn254.Ec1;
 import mcl.bn254.Ec2;
 import mcl.bn254.Fp12;
 import mcl.bn254.Mpz;
+import org.bouncycastle.crypto.OutputLengthException;
 import src.api.Element;
 import src.api.Polynomial;
 import src.field.curve.CurveElement;
 import src.field.gt.GTFiniteElement;
+import src.util.metrics.OperationCounters;
+import src.util.metrics.Sm9Metrics;
+import src.util.metrics.Sm9Metrics.Stage;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 
 /**
@@ -23,10 +28,26 @@ public class Sm9Signer {
 
     private Sm9SignPrivateKey privatekey;
     private String id;
+    private SecureRandom random;
+    private Sm9Domain domain;
 
     public Sm9Signer(){
 
     }
+
+    /**
+     * A signer working in domain instead of the domain of {@link KeyGenerationCenter#getInstance()}.
+     */
+    public Sm9Signer(Sm9Domain domain){
+        this.domain=domain;
+    }
+
+    /**
+     * Sets the source of the random scalars; null, the default, uses {@link Sm9Random#current()}.
+     */
+    public void setRandom(SecureRandom random){
+        this.random=random;
+    }
     public void initSign(Sm9SignPrivateKey privatekey)
     {
         this.privatekey=privatekey;
@@ -37,59 +58,104 @@ public class Sm9Signer {
     }
 
     public Signature generateSignature(byte [] message) throws Exception{
+        return generateSignature(ByteBuffer.wrap(message));
+    }
+
+    /**
+     * Signs message from its position to its limit without copying it; the buffer is not consumed.
+     */
+    public Signature generateSignature(ByteBuffer message) throws Exception{
+        OperationCounters.Scope scope=OperationCounters.enter("sign");
+        Sm9Metrics.Trace trace=Sm9Metrics.begin(Sm9Metrics.Operation.SIGN,null);
+        try {
+            return doGenerateSignature(message,trace);
+        } finally {
+            trace.end();
+            scope.exit();
+        }
+    }
+
+    private Signature doGenerateSignature(ByteBuffer message,Sm9Metrics.Trace trace) throws Exception{
 
         if(privatekey==null)
         {
             throw new Exception("not initial for sign");
         }
-        KeyGenerationCenter kgc=KeyGenerationCenter.getInstance();
+        Sm9Domain domain=domain();
 //        Ec1 p1=kgc.getG1();
 //
 //        Ec2 ppubs=kgc.getPpubs();
 //        Fp12 g=new Fp12();
 //        g.pairing(ppubs,p1);
-        CurveElement p1=kgc.getG1();
-        CurveElement ppubs=kgc.getPpubs();
-        Element g=kgc.pair(p1,ppubs);
+        Element g=domain.getSignGT();
 
-        BigInteger N=kgc.getN();
+        BigInteger N=domain.getN();
         BigInteger l,h;
         do {
-            BigInteger r;
-            do {
-                r = new BigInteger(N.bitLength(), new SecureRandom());
-
-            } while (r.compareTo(N) >= 0);
+            BigInteger r=Sm9Random.nextScalar(random!=null ? random : Sm9Random.current(),N);
 
             Element w=g.duplicate().pow(r);
+            trace.stage(Stage.GT_POW);
 
             //byte[] wb = Sm9Util.Fp12ToBytes(w);
             byte [] wb=Sm9Util.GTFiniteElementToByte(w);
-            byte[] merge = Sm9Util.byteMerger(message, wb);
-             h = Sm9Util.h2(merge, N);
+             h = Sm9Util.h2(message, wb, N);
              l = r.subtract(h).mod(N);
+            trace.stage(Stage.H2);
         }while(l.equals(BigInteger.ZERO));
 
         CurveElement ds =privatekey.getDs();
         CurveElement s=ds.duplicate().mul(l);
+        trace.stage(Stage.SCALAR_MUL);
 
         return new Signature(h,s);
     }
 
+    /**
+     * Signs message and writes the encoded signature into out.
+     *
+     * @return the number of bytes written to out.
+     */
+    public int generateSignature(ByteBuffer message,ByteBuffer out) throws Exception{
+        Signature signature=generateSignature(message);
+        if(out.remaining()<signature.getEncodedLength()) {
+            throw new OutputLengthException("output buffer too short");
+        }
+        return signature.writeTo(out);
+    }
+
     public boolean verifySignature(byte [] message,Signature signature) throws Exception{
+        return verifySignature(ByteBuffer.wrap(message),signature);
+    }
+
+    /**
+     * Verifies an encoded signature read from signature against message; neither buffer is copied.
+     */
+    public boolean verifySignature(ByteBuffer message,ByteBuffer signature) throws Exception{
+        return verifySignature(message,Signature.readFrom(signature,domain().getCurve1()));
+    }
+
+    public boolean verifySignature(ByteBuffer message,Signature signature) throws Exception{
+        OperationCounters.Scope scope=OperationCounters.enter("verify");
+        Sm9Metrics.Trace trace=Sm9Metrics.begin(Sm9Metrics.Operation.VERIFY,id);
+        try {
+            return doVerifySignature(message,signature,trace);
+        } finally {
+            trace.end();
+            scope.exit();
+        }
+    }
+
+    private boolean doVerifySignature(ByteBuffer message,Signature signature,Sm9Metrics.Trace trace) throws Exception{
 
         if(id==null)
         {
             throw new Exception("not initial for verify");
         }
-        KeyGenerationCenter kgc =KeyGenerationCenter.getInstance();
-        BigInteger N=kgc.getN();
-
-        CurveElement p1,p2,ppubs;
+        Sm9Domain domain=domain();
+        BigInteger N=domain.getN();
 
-        p1=kgc.getG1();
-        p2=kgc.getG2();
-        ppubs=kgc.getPpubs();
+        CurveElement ppubs=domain.getPpubs();
 
         if(signature.h.compareTo(BigInteger.ONE)<0 || signature.h.compareTo(N)>=0) {
             return false;
@@ -101,27 +167,36 @@ public class Sm9Signer {
 //        g.pairing(ppubs,p1);
 //        Fp12 t=new Fp12(g);
 //        t.power(new Mpz(signature.h.toString(10)));
-        Element g=kgc.pair(p1,ppubs);
+        Element g=domain.getSignGT();
         Element t=g.pow(signature.h);
+        trace.stage(Stage.GT_POW);
 
-        byte [] hid =new byte[]{kgc.hid};
+        byte [] hid =new byte[]{domain.getSignHid()};
         byte [] merge=Sm9Util.byteMerger(id.getBytes(),hid);
         BigInteger h1=Sm9Util.h1(merge,N);
+        trace.stage(Stage.H1);
 
 
-        CurveElement p=p2.duplicate().mul(h1).add(ppubs);
-        Element u=kgc.pair(signature.s,p);
+        CurveElement p=domain.getG2Comb().pow(h1).add(ppubs);
+        trace.stage(Stage.SCALAR_MUL);
+        Element u=domain.pair(signature.s,p);
+        trace.stage(Stage.PAIRING);
         Element w=u.mul(t);
+        trace.stage(Stage.GT_POW);
 
 
         byte[] wb2=Sm9Util.GTFiniteElementToByte(w);
 
-        byte[] merge2=Sm9Util.byteMerger(message,wb2);
-        BigInteger h2=Sm9Util.h2(merge2,N);
+        BigInteger h2=Sm9Util.h2(message,wb2,N);
+        trace.stage(Stage.H2);
 
         return h2.equals(signature.h);
     }
 
+    private Sm9Domain domain(){
+        return domain!=null ? domain : KeyGenerationCenter.getInstance().getDomain();
+    }
+
 
 
 }
@@ -7,9 +7,12 @@ import mcl.bn254.Fp;
 import mcl.bn254.Fp12;
 import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.digests.SM3Digest;
+import org.bouncycastle.util.BigIntegers;
 import src.api.Element;
 import src.api.Point;
 import src.api.Polynomial;
+import src.field.curve.CurveElement;
+import src.field.curve.CurveField;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
@@ -20,11 +23,18 @@ import java.util.regex.Pattern;
  */
 public class Sm9Util {
 
-    private static Digest digest=new SM3Digest();
+    // SM3Digest keeps state between update() calls, so every thread gets its own
+    private static final ThreadLocal<Digest> DIGEST = new ThreadLocal<Digest>() {
+        @Override
+        protected Digest initialValue() {
+            return new SM3Digest();
+        }
+    };
     private static final double LOG2 = Math.log(2.0);
     public static int BIGINTEGER_LENGTH =32;
 
     public static BigInteger h1(byte [] z, BigInteger n){
+        Digest digest=DIGEST.get();
         double log2n=Math.log(n.doubleValue())/LOG2;
         double hlen=8*Math.ceil((5*log2n)/32);
         int digestSize=digest.getDigestSize();
@@ -69,45 +79,39 @@ public class Sm9Util {
     }
 
     public static BigInteger h2(byte [] z,BigInteger n){
+        return h2(ByteBuffer.wrap(z),new byte[0],n);
+    }
+
+    /**
+     * H2(message || w, n) without concatenating the message and w first.
+     * The message buffer is read from its position to its limit and left untouched.
+     */
+    public static BigInteger h2(ByteBuffer message,byte [] w,BigInteger n){
+        Digest digest=DIGEST.get();
         double log2n=Math.log(n.doubleValue())/LOG2;
         double hlen=8*Math.ceil((5*log2n)/32);
         int digestSize=digest.getDigestSize();
         int v=digestSize*8;
         int counts=(int)Math.ceil(hlen/v);
         byte [] Ha=new byte[counts*digestSize];
-        for(int ct=1;ct<counts;ct++)
+        for(int ct=1;ct<=counts;ct++)
         {
             digest.reset();
             digest.update((byte)0x02);
-            digest.update(z,0,z.length);
+            update(digest,message);
+            digest.update(w,0,w.length);
             digest.update((byte)(ct>>24 & 0xff));
             digest.update((byte)(ct>>16 & 0xff));
             digest.update((byte)(ct>>8 & 0xff));
             digest.update((byte)(ct & 0xff));
             digest.doFinal(Ha,(ct-1)*digestSize);
         }
-        byte [] temp=new byte[digestSize];
-        digest.reset();
-        digest.update((byte)0x02);
-        digest.update(z,0,z.length);
-        digest.update((byte)(counts>>24 & 0xff));
-        digest.update((byte)(counts>>16 & 0xff));
-        digest.update((byte)(counts>>8 & 0xff));
-        digest.update((byte)(counts & 0xff));
-        digest.doFinal(temp,0);
 
-        BigInteger Hanum2;
+        BigInteger Hanum2=new BigInteger(1,Ha);
         if(hlen%v>0) {
             int nbits=(int)(hlen-(v*Math.floor(hlen/v)));
             int right=digestSize*8-nbits;
-            System.arraycopy(temp,0,Ha,(counts-1)*digestSize,digestSize);
-            Hanum2=new BigInteger(1,Ha);
             Hanum2=Hanum2.shiftRight(right);
-
-        }
-        else{
-            System.arraycopy(temp,0,Ha,(counts-1)*digestSize,digestSize);
-            Hanum2=new BigInteger(1,Ha);
         }
         return Hanum2.mod(n.subtract(BigInteger.ONE)).add(BigInteger.ONE);
 
@@ -166,6 +170,50 @@ public class Sm9Util {
         }
         return result;
     }
+    /**
+     * Encodes a point over Fq2 (G2) with each coordinate in SM9 order, high coefficient first (x1 || x0),
+     * the reverse of the library encoding. Compressed points are 02/03 || x, the prefix carrying the parity
+     * of y0 (of y1 when y0 is zero).
+     */
+    public static byte [] G2PointToBytes(CurveElement p,boolean compressed){
+        byte [] result=p.toBytesPC(compressed);
+        int coefficientLength=p.getX().getLengthInBytes()/2;
+        for(int offset=1;offset<result.length;offset+=2*coefficientLength)
+            swap(result,offset,coefficientLength);
+        return result;
+    }
+
+    /**
+     * Decodes a point written by {@link #G2PointToBytes(CurveElement, boolean)}.
+     *
+     * @throws IllegalArgumentException if the encoding is malformed or the point is not on the curve.
+     */
+    public static CurveElement bytesToG2Point(CurveField curve,byte [] source,int offset){
+        int coordinateLength=curve.getTargetField().getLengthInBytes();
+        int length=source[offset]==CurveElement.PC_UNCOMPRESSED ? 1+2*coordinateLength
+                : source[offset]==CurveElement.PC_INFINITY ? 1 : 1+coordinateLength;
+        if(offset+length>source.length)
+            throw new IllegalArgumentException("truncated point encoding");
+
+        byte [] b=new byte[length];
+        System.arraycopy(source,offset,b,0,length);
+        for(int i=1;i<length;i+=coordinateLength)
+            swap(b,i,coordinateLength/2);
+
+        CurveElement p=curve.newElement();
+        p.setFromBytesPC(b);
+        return p;
+    }
+
+    // swaps the two len byte halves starting at offset
+    private static void swap(byte [] b,int offset,int len){
+        for(int i=0;i<len;i++){
+            byte t=b[offset+i];
+            b[offset+i]=b[offset+len+i];
+            b[offset+len+i]=t;
+        }
+    }
+
     public static  byte [] ECpoint1Tobytes(ECPoint p)
     {
         byte [] x=p.scalePoint().getCoordinate().getX().toByteArray();
@@ -232,6 +280,13 @@ public class Sm9Util {
 
     }
     public static byte [] KDF(byte [] z,long klen){
+        if(klen%8==0){
+            byte [] k=new byte[(int)(klen/8)];
+            KDF(z,ByteBuffer.wrap(k));
+            return k;
+        }
+
+        Digest digest=DIGEST.get();
         int digestSize =digest.getDigestSize();
         int v=digestSize*8;
         assert (klen<4294967295L*v);
@@ -249,28 +304,66 @@ public class Sm9Util {
             digest.doFinal(ha,(ct-1)*digestSize);
         }
 
+        int lbits=(int) (klen-(v*Math.floor(klen/v)));
+        int shiftbit=digestSize*8-lbits;
+        BigInteger hanum=new BigInteger(1,ha);
+        hanum=hanum.shiftRight(shiftbit);
+        // klen bits right-aligned in whole bytes, without a sign byte and keeping leading zero bytes
+        return BigIntegers.asUnsignedByteArray((int)((klen+7)/8),hanum);
 
-        if(klen%v>0){
-            int lbits=(int) (klen-(v*Math.floor(klen/v)));
-            int shiftbit=digestSize*8-lbits;
-            BigInteger hanum=new BigInteger(1,ha);
-            hanum=hanum.shiftRight(shiftbit);
-            return hanum.toByteArray();
-        }
-        else{
-            return ha;
-        }
+    }
+
+    /**
+     * Fills out from its position to its limit with KDF(z, 8 * out.remaining()).
+     */
+    public static void KDF(byte [] z,ByteBuffer out){
+        Digest digest=DIGEST.get();
+        int digestSize =digest.getDigestSize();
+        byte [] ha =new byte[digestSize];
 
+        for(int ct=1;out.hasRemaining();ct++){
+            digest.reset();
+            digest.update(z,0,z.length);
+            digest.update((byte)(ct>>24 & 0xff));
+            digest.update((byte)(ct>>16 & 0xff));
+            digest.update((byte)(ct>>8 & 0xff));
+            digest.update((byte)(ct& 0xff));
+            digest.doFinal(ha,0);
+            out.put(ha,0,Math.min(digestSize,out.remaining()));
+        }
     }
 
     public static byte [] MAC(byte [] k2,byte[] z){
+        return MAC(k2,ByteBuffer.wrap(z));
+    }
+
+    /**
+     * MAC over z from its position to its limit; z itself is not consumed.
+     */
+    public static byte [] MAC(byte [] k2,ByteBuffer z){
+        Digest digest=DIGEST.get();
         byte [] k=new byte[digest.getDigestSize()];
         digest.reset();
-        digest.update(z,0,z.length);
+        update(digest,z);
         digest.update(k2,0,k2.length);
         digest.doFinal(k,0);
         return k;
     }
 
+    private static void update(Digest digest,ByteBuffer in){
+        if(in.hasArray()){
+            digest.update(in.array(),in.arrayOffset()+in.position(),in.remaining());
+            return;
+        }
+        // direct buffers have no backing array, stream them through a small scratch block
+        ByteBuffer src=in.duplicate();
+        byte [] block=new byte[Math.min(src.remaining(),4096)];
+        while(src.hasRemaining()){
+            int n=Math.min(src.remaining(),block.length);
+            src.get(block,0,n);
+            digest.update(block,0,n);
+        }
+    }
+
 
 }
@@ -171,6 +171,75 @@ public interface Field<E extends Element> {
      */
     Element[] add(Element[] a, Element[] b);
 
+    /**
+     * Inverts every element of the vector in place with a single field inversion, by Montgomery's trick:
+     * about three multiplications per element take the place of its inversion. Zero elements have no inverse
+     * and are left as they are.
+     *
+     * @param elements the vector of elements to be inverted.
+     * @return elements inverted.
+     * @since 2.0.0
+     */
+    Element[] invert(Element[] elements);
+
+    /**
+     * Sets out to a + b without touching a or b.
+     * <p>
+     * The three-address methods compute into an element the caller already has, so expressions need no
+     * duplicate() of their operands. out must be a mutable element of this field and may be a or b.
+     *
+     * @param out the element to hold the result.
+     * @param a   an element of the field.
+     * @param b   another element of the field.
+     * @return out.
+     * @since 2.0.0
+     */
+    E add(E out, Element a, Element b);
+
+    /**
+     * Sets out to a - b without touching a or b. out may be a or b.
+     *
+     * @param out the element to hold the result.
+     * @param a   an element of the field.
+     * @param b   the element to be subtracted from a.
+     * @return out.
+     * @since 2.0.0
+     */
+    E sub(E out, Element a, Element b);
+
+    /**
+     * Sets out to a * b without touching a or b. out may be a or b.
+     *
+     * @param out the element to hold the result.
+     * @param a   an element of the field.
+     * @param b   another element of the field.
+     * @return out.
+     * @since 2.0.0
+     */
+    E mul(E out, Element a, Element b);
+
+    /**
+     * Sets out to a^2 without touching a. out may be a.
+     *
+     * @param out the element to hold the result.
+     * @param a   the element to be squared.
+     * @return out.
+     * @since 2.0.0
+     */
+    E sqr(E out, Element a);
+
+    /**
+     * Sets out to a * b + c without touching a, b or c. out may be any of them.
+     *
+     * @param out the element to hold the result.
+     * @param a   an element of the field.
+     * @param b   the element to multiply a by.
+     * @param c   the element to be added to the product.
+     * @return out.
+     * @since 2.0.0
+     */
+    E mulAdd(E out, Element a, Element b, Element c);
+
     /**
      * Reads an ElementPowPreProcessing from the buffer source.
      *
@@ -3,6 +3,7 @@ package src.field.base;
 
 import src.api.Element;
 import src.api.ElementPowPreProcessing;
+import src.util.ElementArena;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -183,32 +184,43 @@ public abstract class AbstractElement<F extends AbstractField> implements Elemen
         int word = 0;               /* the word to look up. 0<word<base */
         int wbits = 0;              /* # of bits so far in word. wbits<=k. */
         int k = optimalPowWindowSize(n);
-        List<Element> lookup = buildPowWindow(k);
-        Element result = field.newElement().setToOne();
-
-        for (int inword = 0, s = n.bitLength() - 1; s >= 0; s--) {
-            result.square();
-            int bit = n.testBit(s) ? 1 : 0;
-
-            if (inword == 0 && bit == 0)
-                continue;           /* keep scanning.  note continue. */
-
-            if (inword == 0) {          /* was scanning, just found word */
-                inword = 1;             /* so, start new word */
-                word = 1;
-                wbits = 1;
-            } else {
-                word = (word << 1) + bit;
-                wbits++; /* continue word */
-            }
 
-            if (wbits == k || s == 0) {
-                result.mul(lookup.get(word));
-                inword = 0;
+        // the window and the result live in the arena, see buildPowWindow for the layout
+        ElementArena arena = ElementArena.get();
+        int mark = arena.mark();
+        try {
+            Element[] lookup = new Element[1 << k];
+            lookup[0] = arena.acquire(field).setToOne();
+            for (int s = 1; s < lookup.length; s++)
+                lookup[s] = arena.acquire(field).set(lookup[s - 1]).mul(this);
+            Element result = arena.acquire(field).setToOne();
+
+            for (int inword = 0, s = n.bitLength() - 1; s >= 0; s--) {
+                result.square();
+                int bit = n.testBit(s) ? 1 : 0;
+
+                if (inword == 0 && bit == 0)
+                    continue;           /* keep scanning.  note continue. */
+
+                if (inword == 0) {          /* was scanning, just found word */
+                    inword = 1;             /* so, start new word */
+                    word = 1;
+                    wbits = 1;
+                } else {
+                    word = (word << 1) + bit;
+                    wbits++; /* continue word */
+                }
+
+                if (wbits == k || s == 0) {
+                    result.mul(lookup[word]);
+                    inword = 0;
+                }
             }
-        }
 
-        set(result);
+            set(result);
+        } finally {
+            arena.reset(mark);
+        }
     }
 
 
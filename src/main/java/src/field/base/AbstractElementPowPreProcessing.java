@@ -4,6 +4,9 @@ package src.field.base;
 import src.api.Element;
 import src.api.ElementPowPreProcessing;
 import src.api.Field;
+import src.field.curve.CurveElement;
+import src.field.curve.CurveField;
+import src.field.curve.JacobianPoint;
 import src.util.io.FieldStreamReader;
 import src.util.io.PairingStreamWriter;
 
@@ -88,6 +91,11 @@ public class AbstractElementPowPreProcessing implements ElementPowPreProcessing
         numLookups = bits / k + 1;
         table = new Element[numLookups][lookupSize];
 
+        if (g instanceof CurveElement) {
+            initCurveTable((CurveElement) g);
+            return;
+        }
+
         Element multiplier = g.duplicate();
 
         for (int i = 0; i < numLookups; i++) {
@@ -100,6 +108,40 @@ public class AbstractElementPowPreProcessing implements ElementPowPreProcessing
         }
     }
 
+    /**
+     * initTable for a curve point: the entries are summed in Jacobian coordinates and normalized together, two
+     * field inversions for the whole table instead of one per entry.
+     */
+    protected void initCurveTable(CurveElement g) {
+        CurveField curve = g.getField();
+        int lookupSize = 1 << k;
+
+        // the multipliers 2^(k i) g
+        JacobianPoint[] multipliers = new JacobianPoint[numLookups];
+        JacobianPoint multiplier = new JacobianPoint(g);
+        for (int i = 0; i < numLookups; i++) {
+            multipliers[i] = new JacobianPoint(curve).set(multiplier);
+            for (int j = 0; j < k; j++)
+                multiplier.twice();
+        }
+        CurveElement[] affine = curve.normalize(multipliers);
+
+        // table[i][j] = j 2^(k i) g, row after row
+        JacobianPoint[] entries = new JacobianPoint[numLookups * (lookupSize - 1)];
+        for (int i = 0, e = 0; i < numLookups; i++) {
+            JacobianPoint sum = new JacobianPoint(curve).setToInfinity();
+            for (int j = 1; j < lookupSize; j++)
+                entries[e++] = new JacobianPoint(curve).set(sum.add(affine[i]));
+        }
+        CurveElement[] points = curve.normalize(entries);
+
+        for (int i = 0, e = 0; i < numLookups; i++) {
+            table[i][0] = field.newOneElement();
+            for (int j = 1; j < lookupSize; j++)
+                table[i][j] = points[e++];
+        }
+    }
+
     protected Element powBaseTable(BigInteger n) {
         /* early abort if raising to power 0 */
         if (n.signum() == 0) {
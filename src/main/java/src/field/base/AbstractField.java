@@ -5,6 +5,7 @@ package src.field.base;
 import src.api.Element;
 import src.api.ElementPowPreProcessing;
 import src.api.Field;
+import src.util.ElementArena;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
@@ -114,6 +115,89 @@ public abstract class AbstractField<E extends Element> implements Field<E> {
         return a;
     }
 
+    public Element[] invert(Element[] elements) {
+        int[] index = new int[elements.length];
+        int m = 0;
+        for (int i = 0; i < elements.length; i++) {
+            if (!elements[i].isZero())
+                index[m++] = i;
+        }
+        if (m == 0)
+            return elements;
+
+        // prefix[j] = e_0 * ... * e_j over the nonzero elements
+        Element[] prefix = new Element[m];
+        prefix[0] = elements[index[0]].duplicate();
+        for (int j = 1; j < m; j++)
+            prefix[j] = mul(newElement(), prefix[j - 1], elements[index[j]]);
+
+        // inv = (e_0 * ... * e_j)^-1, peeled back one element at a time
+        Element inv = prefix[m - 1].invert();
+        E t = newElement();
+        for (int j = m - 1; j > 0; j--) {
+            Element e = elements[index[j]];
+            mul(t, inv, prefix[j - 1]);
+            mul((E) inv, inv, e);
+            e.set(t);
+        }
+        elements[index[0]].set(inv);
+
+        return elements;
+    }
+
+    public E add(E out, Element a, Element b) {
+        if (out == b) {
+            out.add(a);
+        } else
+            out.set(a).add(b);
+
+        return out;
+    }
+
+    public E sub(E out, Element a, Element b) {
+        if (out == b) {
+            out.negate().add(a);
+        } else
+            out.set(a).sub(b);
+
+        return out;
+    }
+
+    public E mul(E out, Element a, Element b) {
+        if (out == b) {
+            if (a == b)
+                out.square();
+            else
+                out.mul(a);
+        } else
+            out.set(a).mul(b);
+
+        return out;
+    }
+
+    public E sqr(E out, Element a) {
+        out.set(a).square();
+
+        return out;
+    }
+
+    public E mulAdd(E out, Element a, Element b, Element c) {
+        if (out != c) {
+            mul(out, a, b).add(c);
+            return out;
+        }
+
+        ElementArena arena = ElementArena.get();
+        int mark = arena.mark();
+        try {
+            out.add(mul((E) arena.acquire(this), a, b));
+        } finally {
+            arena.reset(mark);
+        }
+
+        return out;
+    }
+
     public ElementPowPreProcessing getElementPowPreProcessingFromBytes(byte[] source) {
         return new AbstractElementPowPreProcessing(this, AbstractElementPowPreProcessing.DEFAULT_K, source, 0);
     }
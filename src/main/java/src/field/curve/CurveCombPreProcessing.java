@@ -0,0 +1,144 @@
+package src.field.curve;
+
+import src.api.Element;
+import src.api.ElementPowPreProcessing;
+import src.util.io.PairingStreamWriter;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * Fixed-base comb (Lim-Lee) for scalar multiplication of one curve point.
+ * <p>
+ * The scalar is cut into w rows of d = ceil(bits / w) bits and table[j] holds the sum of 2^(i d) g over the
+ * bits i set in j, so a multiplication is d doublings and at most d mixed additions, all in Jacobian
+ * coordinates. {@link #pow(BigInteger[])} multiplies many scalars and normalizes the results with one inversion.
+ * The table is read-only once built and may be shared between threads.
+ */
+public class CurveCombPreProcessing implements ElementPowPreProcessing {
+    public static final int DEFAULT_W = 8;
+
+    protected final CurveField field;
+    protected final int w;
+    protected final int d;
+    protected final CurveElement[] table;
+
+
+    public CurveCombPreProcessing(CurveElement g) {
+        this(g, DEFAULT_W);
+    }
+
+    public CurveCombPreProcessing(CurveElement g, int w) {
+        this.field = g.getField();
+        this.w = w;
+        this.d = (field.getOrder().bitLength() + w - 1) / w;
+        this.table = new CurveElement[1 << w];
+
+        initTable(g);
+    }
+
+
+    /**
+     * Loads a table written by {@link #toBytes()}.
+     */
+    public CurveCombPreProcessing(CurveField field, int w, byte[] source, int offset) {
+        this.field = field;
+        this.w = w;
+        this.d = (field.getOrder().bitLength() + w - 1) / w;
+        this.table = new CurveElement[1 << w];
+
+        table[0] = field.newElement();
+        for (int j = 1; j < table.length; j++) {
+            CurveElement element = field.newElement();
+            offset += element.setFromBytes(source, offset);
+            table[j] = (CurveElement) element.getImmutable();
+        }
+    }
+
+
+    public CurveField getField() {
+        return field;
+    }
+
+    public CurveElement pow(BigInteger n) {
+        return powJacobian(n).toAffine();
+    }
+
+    public CurveElement powZn(Element n) {
+        return pow(n.toBigInteger());
+    }
+
+    /**
+     * Multiplies the base by every n[i], sharing one field inversion across the results.
+     */
+    public CurveElement[] pow(BigInteger[] n) {
+        JacobianPoint[] points = new JacobianPoint[n.length];
+        for (int i = 0; i < n.length; i++)
+            points[i] = powJacobian(n[i]);
+        return field.normalize(points);
+    }
+
+    /**
+     * n times the base, left in Jacobian coordinates.
+     */
+    public JacobianPoint powJacobian(BigInteger n) {
+        if (n.signum() < 0 || n.compareTo(field.getOrder()) >= 0)
+            n = n.mod(field.getOrder());
+
+        JacobianPoint r = new JacobianPoint(field).setToInfinity();
+        for (int col = d - 1; col >= 0; col--) {
+            r.twice();
+
+            int index = 0;
+            for (int row = 0; row < w; row++) {
+                if (n.testBit(row * d + col))
+                    index |= 1 << row;
+            }
+            if (index != 0)
+                r.add(table[index]);
+        }
+        return r;
+    }
+
+    public int getW() {
+        return w;
+    }
+
+    /**
+     * Length of {@link #toBytes()}: every entry but the point at infinity, as x || y.
+     */
+    public int getLengthInBytes() {
+        return field.getLengthInBytes() * (table.length - 1);
+    }
+
+    public byte[] toBytes() {
+        try {
+            PairingStreamWriter out = new PairingStreamWriter(getLengthInBytes());
+            for (int j = 1; j < table.length; j++)
+                out.write(table[j]);
+            return out.toBytes();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    protected void initTable(CurveElement g) {
+        // table[2^i] = 2^(i d) g
+        table[0] = field.newElement();
+        table[1] = (CurveElement) g.duplicate().getImmutable();
+        CurveElement base = g.duplicate();
+        for (int i = 1; i < w; i++) {
+            for (int j = 0; j < d; j++)
+                base.twice();
+            table[1 << i] = (CurveElement) base.duplicate().getImmutable();
+        }
+
+        // table[j] = table[j without its top bit] + table[top bit of j]
+        for (int j = 3; j < table.length; j++) {
+            int top = Integer.highestOneBit(j);
+            if (top != j)
+                table[j] = (CurveElement) table[j ^ top].duplicate().add(table[top]).getImmutable();
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package src.field.curve;
 
 import src.api.Element;
+import src.api.Field;
+import src.api.Point;
 import src.field.base.AbstractPointElement;
+import src.util.ElementArena;
 import src.util.math.BigIntegerUtils;
+import src.util.metrics.OperationCounters;
+import src.util.metrics.OperationCounters.Op;
 
 import java.math.BigInteger;
 
@@ -11,6 +16,12 @@ import java.math.BigInteger;
  */
 public class CurveElement<E extends Element, F extends CurveField> extends AbstractPointElement<E, F> {
 
+    // GB/T 32918 point-to-octet-string prefixes
+    public static final byte PC_INFINITY = 0x00;
+    public static final byte PC_COMPRESSED_EVEN = 0x02;
+    public static final byte PC_COMPRESSED_ODD = 0x03;
+    public static final byte PC_UNCOMPRESSED = 0x04;
+
     protected int infFlag;
 
 
@@ -97,6 +108,7 @@ public class CurveElement<E extends Element, F extends CurveField> extends Abstr
     public CurveElement twice() {
         if (infFlag != 0)
             return this;
+        if (OperationCounters.ENABLED) OperationCounters.count(x instanceof Point ? Op.G2_DOUBLE : Op.G1_DOUBLE);
 
         if (y.isZero()) {
             infFlag = 1;
@@ -178,7 +190,7 @@ public class CurveElement<E extends Element, F extends CurveField> extends Abstr
     }
 
     public CurveElement mul(Element e) {
-//        counter++;
+        if (OperationCounters.ENABLED) OperationCounters.count(x instanceof Point ? Op.G2_ADD : Op.G1_ADD);
         // Apply the Chord-Tangent Law of Composition
         // Consider P1 = this = (x1, y1);
         //          P2 = e = (x2, y2);
@@ -207,19 +219,28 @@ public class CurveElement<E extends Element, F extends CurveField> extends Abstr
             infFlag = 1;
             return this;
         } else {
-            // P1 != P2, so the slope of the line L through P1 and P2 is
-            // lambda = (y2-y1)/(x2-x1)
-            Element lambda = element.y.duplicate().sub(y).mul(element.x.duplicate().sub(x).invert());
-
-            // x3 = lambda^2 - x1 - x2
-            Element x3 = lambda.duplicate().square().sub(x).sub(element.x);
-
-            //y3 = (x1-x3)lambda - y1
-            Element y3 = x.duplicate().sub(x3).mul(lambda).sub(y);
-
-            x.set(x3);
-            y.set(y3);
-            infFlag = 0;
+            ElementArena arena = ElementArena.get();
+            int mark = arena.mark();
+            try {
+                // P1 != P2, so the slope of the line L through P1 and P2 is
+                // lambda = (y2-y1)/(x2-x1)
+                Field f = x.getField();
+                Element lambda = f.sub(arena.acquire(f), element.x, x).invert();
+                Element t = f.sub(arena.acquire(f), element.y, y);
+                f.mul(lambda, lambda, t);
+
+                // x3 = lambda^2 - x1 - x2
+                Element x3 = f.sqr(arena.acquire(f), lambda);
+                f.sub(x3, f.sub(x3, x3, x), element.x);
+
+                //y3 = (x1-x3)lambda - y1
+                f.sub(y, f.mul(t, f.sub(t, x, x3), lambda), y);
+
+                x.set(x3);
+                infFlag = 0;
+            } finally {
+                arena.reset(mark);
+            }
         }
 
         return this;
@@ -383,6 +404,70 @@ public class CurveElement<E extends Element, F extends CurveField> extends Abstr
         return len;
     }
 
+    public int getLengthInBytesPC(boolean compressed) {
+        if (infFlag != 0)
+            return 1;
+        return 1 + (compressed ? 1 : 2) * x.getLengthInBytes();
+    }
+
+    /**
+     * Encodes the point as PC || x (PC = 02 or 03 by the parity of y) or 04 || x || y; infinity is the single byte 00.
+     */
+    public byte[] toBytesPC(boolean compressed) {
+        if (infFlag != 0)
+            return new byte[]{PC_INFINITY};
+
+        byte[] xBytes = x.toBytes();
+        byte[] result = new byte[getLengthInBytesPC(compressed)];
+        System.arraycopy(xBytes, 0, result, 1, xBytes.length);
+        if (compressed) {
+            result[0] = y.sign() > 0 ? PC_COMPRESSED_ODD : PC_COMPRESSED_EVEN;
+        } else {
+            result[0] = PC_UNCOMPRESSED;
+            byte[] yBytes = y.toBytes();
+            System.arraycopy(yBytes, 0, result, 1 + xBytes.length, yBytes.length);
+        }
+        return result;
+    }
+
+    public int setFromBytesPC(byte[] source) {
+        return setFromBytesPC(source, 0);
+    }
+
+    /**
+     * Decodes a point written by {@link #toBytesPC(boolean)}.
+     *
+     * @throws IllegalArgumentException if the prefix is unknown or the point is not on the curve.
+     */
+    public int setFromBytesPC(byte[] source, int offset) {
+        byte pc = source[offset];
+        if (pc == PC_INFINITY) {
+            setToZero();
+            return 1;
+        }
+
+        infFlag = 0;
+        int len = 1 + x.setFromBytes(source, offset + 1);
+        if (pc == PC_UNCOMPRESSED) {
+            len += y.setFromBytes(source, offset + len);
+            if (!isValid())
+                throw new IllegalArgumentException("point is not on the curve");
+            return len;
+        }
+        if (pc != PC_COMPRESSED_EVEN && pc != PC_COMPRESSED_ODD)
+            throw new IllegalArgumentException("unknown point encoding " + pc);
+
+        // squaring the root back is cheaper than a separate quadratic residue test
+        Element t = x.duplicate().square().add(field.a).mul(x).add(field.b);
+        y.set(t).sqrt();
+        if (!y.duplicate().square().isEqual(t))
+            throw new IllegalArgumentException("point is not on the curve");
+        if ((y.sign() > 0) != (pc == PC_COMPRESSED_ODD))
+            y.negate();
+
+        return len;
+    }
+
 
     public boolean isValid() {
         Element t0, t1;
@@ -400,19 +485,28 @@ public class CurveElement<E extends Element, F extends CurveField> extends Abstr
 
 
     protected void twiceInternal() {
-        // We have P1 = P2 so the tangent line T at P1 ha slope
-        //lambda = (3x^2 + a) / 2y
-        Element lambda = x.duplicate().square().mul(3).add(getField().a).mul(y.duplicate().twice().invert());
-
-        // x3 = lambda^2 - 2x
-        Element x3 = lambda.duplicate().square().sub(x.duplicate().twice());
-
-        // y3 = (x - x3) lambda - y
-        Element y3 = x.duplicate().sub(x3).mul(lambda).sub(y);
+        ElementArena arena = ElementArena.get();
+        int mark = arena.mark();
+        try {
+            // We have P1 = P2 so the tangent line T at P1 ha slope
+            //lambda = (3x^2 + a) / 2y
+            Field f = x.getField();
+            Element t = f.add(arena.acquire(f), y, y).invert();
+            Element lambda = f.sqr(arena.acquire(f), x).mul(3);
+            f.mul(lambda, f.add(lambda, lambda, getField().a), t);
+
+            // x3 = lambda^2 - 2x
+            Element x3 = f.sqr(arena.acquire(f), lambda);
+            f.sub(x3, f.sub(x3, x3, x), x);
+
+            // y3 = (x - x3) lambda - y
+            f.sub(y, f.mul(t, f.sub(t, x, x3), lambda), y);
 
-        x.set(x3);
-        y.set(y3);
-        infFlag = 0;
+            x.set(x3);
+            infFlag = 0;
+        } finally {
+            arena.reset(mark);
+        }
     }
 
     public void setPointFromX() {
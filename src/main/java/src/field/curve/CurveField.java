@@ -7,6 +7,8 @@ import src.field.base.AbstractFieldOver;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * @author Angelo De Caro (jpbclib@gmail.com)
@@ -31,6 +33,9 @@ public class CurveField<F extends Field> extends AbstractFieldOver<F, CurveEleme
         return new CurveField<F>(random, a, b, order, cofac);
     }
 
+    // points decoded by one task of newElementsFromBytesPC
+    private static final int DECODE_CHUNK = 8;
+
     protected Element a, b;
     protected Element gen, genNoCofac;
     protected ElementPow genPow;
@@ -220,9 +225,9 @@ public class CurveField<F extends Field> extends AbstractFieldOver<F, CurveEleme
         int i;
         int n = elements.length;
 
-        Element[] table = new Element[n];  //a big problem?
+        Element[] table = new Element[n];
         Element e0, e1, e2;
-        CurveElement q, r;
+        CurveElement q;
 
         q = (CurveElement) elements[0];
         e0 = q.getX().getField().newElement();
@@ -242,22 +247,12 @@ public class CurveField<F extends Field> extends AbstractFieldOver<F, CurveEleme
                 q.infFlag = 1;
                 continue;
             }
-        }
 
-        //to compute 1/2y multi. see Cohen's GTM139 Algorithm 10.3.4
-        for (i = 0; i < n; i++) {
-            q = (CurveElement) elements[i];
             table[i].set(q.getY()).twice();
-            if (i > 0)
-                table[i].mul(table[i - 1]);
-        }
-        e2.set(table[n - 1]).invert();
-        for (i = n - 1; i > 0; i--) {
-            q = (CurveElement) elements[i];
-            table[i].set(table[i - 1]).mul(e2);
-            e2.mul(q.getY()).twice(); //e2=e2*2y_j
         }
-        table[0].set(e2); //e2 no longer used.
+
+        //to compute 1/2y multi. see Cohen's GTM139 Algorithm 10.3.4; the points at infinity keep a zero
+        getTargetField().invert(table);
 
         for (i = 0; i < n; i++) {
             q = (CurveElement) elements[i];
@@ -286,33 +281,25 @@ public class CurveField<F extends Field> extends AbstractFieldOver<F, CurveEleme
     public Element[] add(Element[] a, Element[] b) {
         int n = a.length;
         Element[] table = new Element[n];
-        CurveElement p, q, r;
+        CurveElement p, q;
         Element e0, e1, e2;
 
         p = (CurveElement) a[0];
-        q = (CurveElement) b[0];
 
         e0 = p.getX().getField().newElement();
         e1 = e0.duplicate();
         e2 = e0.duplicate();
 
-        table[0] = q.getX().duplicate().sub(p.getX());
-        for (int i = 1; i < n; i++) {
-            p = (CurveElement) a[i];
-            q = (CurveElement) b[i];
-
-            table[i] = q.getX().duplicate().sub(p.getX()).mul(table[i-1]);
-        }
-        e2.set(table[n-1]).invert();
-        for (int i = n - 1; i > 0; i--) {
+        // 1/(x2-x1) for every pair, one inversion in all; the pairs handled without it keep a zero
+        for (int i = 0; i < n; i++) {
             p = (CurveElement) a[i];
             q = (CurveElement) b[i];
 
-            table[i].set(table[i-1]).mul(e2);
-            e1.set(q.getX()).sub(p.getX());
-            e2.mul(e1); //e2=e2*(x2_j-x1_j)
+            table[i] = e0.getField().newElement();
+            if (p.infFlag == 0 && q.infFlag == 0)
+                table[i].set(q.getX()).sub(p.getX());
         }
-        table[0].set(e2);  //e2 no longer used.
+        getTargetField().invert(table);
 
         for (int i = 0; i < n; i++) {
             p = (CurveElement) a[i];
@@ -357,10 +344,135 @@ public class CurveField<F extends Field> extends AbstractFieldOver<F, CurveEleme
         return a;
     }
 
+    /**
+     * Decodes count points written back to back by {@link CurveElement#toBytesPC(boolean)}.
+     *
+     * @throws IllegalArgumentException if any of the points is malformed or the input is too short.
+     */
+    public CurveElement[] newElementsFromBytesPC(byte[] source, int offset, int count) {
+        return newElementsFromBytesPC(source, offset, count, null);
+    }
+
+    /**
+     * {@link #newElementsFromBytesPC(byte[], int, int)} with the square roots of compressed points split
+     * across pool, or on the calling thread if pool is null.
+     */
+    public CurveElement[] newElementsFromBytesPC(byte[] source, int offset, int count, ForkJoinPool pool) {
+        CurveElement[] elements = new CurveElement[count];
+        int[] offsets = new int[count];
+
+        int coordinateLength = getTargetField().getLengthInBytes();
+        for (int i = 0; i < count; i++) {
+            if (offset >= source.length)
+                throw new IllegalArgumentException("truncated point encoding");
+            offsets[i] = offset;
+            switch (source[offset]) {
+                case CurveElement.PC_INFINITY:
+                    offset += 1;
+                    break;
+                case CurveElement.PC_UNCOMPRESSED:
+                    offset += 1 + 2 * coordinateLength;
+                    break;
+                default:
+                    offset += 1 + coordinateLength;
+            }
+        }
+        if (offset > source.length)
+            throw new IllegalArgumentException("truncated point encoding");
+
+        if (pool == null || count <= DECODE_CHUNK)
+            decode(source, offsets, elements, 0, count);
+        else
+            pool.invoke(new DecodeTask(source, offsets, elements, 0, count));
+        return elements;
+    }
+
+    private void decode(byte[] source, int[] offsets, CurveElement[] elements, int from, int to) {
+        for (int i = from; i < to; i++) {
+            elements[i] = newElement();
+            elements[i].setFromBytesPC(source, offsets[i]);
+        }
+    }
+
+    /**
+     * Converts Jacobian points to affine ones with a single field inversion shared through Montgomery's trick,
+     * {@link Field#invert(Element[])} of the Z coordinates.
+     */
+    public CurveElement[] normalize(JacobianPoint[] points) {
+        int n = points.length;
+        CurveElement[] elements = new CurveElement[n];
+
+        // the points at infinity have Z = 0, which the batch inversion leaves alone
+        Element[] zInv = new Element[n];
+        for (int i = 0; i < n; i++)
+            zInv[i] = points[i].z.duplicate();
+        Field f = getTargetField();
+        f.invert(zInv);
+
+        Element zz = f.newElement();
+        for (int i = 0; i < n; i++) {
+            elements[i] = newElement();
+            JacobianPoint p = points[i];
+            if (p.isInfinity())
+                continue;
+
+            f.sqr(zz, zInv[i]);
+            f.mul(elements[i].getX(), p.x, zz);
+            f.mul(elements[i].getY(), f.mul(zz, zz, zInv[i]), p.y);
+            elements[i].infFlag = 0;
+        }
+
+        return elements;
+    }
+
+    /**
+     * Computes the sum of scalars[i] points[i], faster than a multiplication per point: Straus' method for a
+     * few points and Pippenger's bucket method for many, parallel on the common ForkJoinPool for the largest
+     * inputs. See {@link MultiScalarMultiplication}.
+     */
+    public CurveElement multiScalarMul(CurveElement[] points, BigInteger[] scalars) {
+        return multiScalarMul(points, scalars, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * {@link #multiScalarMul(CurveElement[], BigInteger[])} on the given pool, or on the calling thread if
+     * pool is null.
+     */
+    public CurveElement multiScalarMul(CurveElement[] points, BigInteger[] scalars, ForkJoinPool pool) {
+        return new MultiScalarMultiplication(this, points, scalars).compute(pool);
+    }
+
     public ElementPow getGenPow() {
         if (genPow == null)
             genPow = gen.getElementPowPreProcessing();
         return genPow;
     }
 
+
+    /**
+     * Splits the points [from, to) in halves down to {@link #DECODE_CHUNK} and decodes them.
+     */
+    private class DecodeTask extends RecursiveAction {
+        private final byte[] source;
+        private final int[] offsets;
+        private final CurveElement[] elements;
+        private final int from, to;
+
+        DecodeTask(byte[] source, int[] offsets, CurveElement[] elements, int from, int to) {
+            this.source = source;
+            this.offsets = offsets;
+            this.elements = elements;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > DECODE_CHUNK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new DecodeTask(source, offsets, elements, from, mid), new DecodeTask(source, offsets, elements, mid, to));
+                return;
+            }
+            decode(source, offsets, elements, from, to);
+        }
+    }
 }
\ No newline at end of file
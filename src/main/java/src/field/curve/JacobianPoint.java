@@ -0,0 +1,228 @@
+package src.field.curve;
+
+import src.api.Element;
+import src.api.Field;
+import src.api.Point;
+import src.util.ElementArena;
+import src.util.metrics.OperationCounters;
+import src.util.metrics.OperationCounters.Op;
+
+/**
+ * A point of a {@link CurveField} in Jacobian coordinates, (X : Y : Z) standing for (X / Z^2, Y / Z^3).
+ * <p>
+ * Doubling and mixed addition with an affine point need no field inversion, so long chains of group
+ * operations stay in this form and are converted back with {@link CurveField#normalize(JacobianPoint[])},
+ * which shares one inversion across all points. Z = 0 is the point at infinity.
+ */
+public class JacobianPoint {
+    protected final CurveField field;
+    protected final Element x, y, z;
+
+    // scratch space, reused by every operation on this point
+    private final Element t0, t1, t2, t3;
+
+
+    public JacobianPoint(CurveField field) {
+        this.field = field;
+
+        Element e = field.getTargetField().newElement();
+        this.x = e;
+        this.y = e.duplicate();
+        this.z = e.duplicate();
+        this.t0 = e.duplicate();
+        this.t1 = e.duplicate();
+        this.t2 = e.duplicate();
+        this.t3 = e.duplicate();
+    }
+
+    public JacobianPoint(CurveElement p) {
+        this(p.getField());
+        set(p);
+    }
+
+
+    public CurveField getField() {
+        return field;
+    }
+
+    public boolean isInfinity() {
+        return z.isZero();
+    }
+
+    public JacobianPoint setToInfinity() {
+        x.setToOne();
+        y.setToOne();
+        z.setToZero();
+
+        return this;
+    }
+
+    public JacobianPoint set(CurveElement p) {
+        if (p.isZero())
+            return setToInfinity();
+
+        x.set(p.getX());
+        y.set(p.getY());
+        z.setToOne();
+
+        return this;
+    }
+
+    public JacobianPoint set(JacobianPoint p) {
+        x.set(p.x);
+        y.set(p.y);
+        z.set(p.z);
+
+        return this;
+    }
+
+    /**
+     * this = 2 this, "dbl-2007-bl" with the a Z^4 term skipped when a = 0.
+     */
+    public JacobianPoint twice() {
+        if (isInfinity())
+            return this;
+        if (y.isZero())
+            return setToInfinity();
+        if (OperationCounters.ENABLED) OperationCounters.count(x instanceof Point ? Op.G2_DOUBLE : Op.G1_DOUBLE);
+
+        // t0 = XX, t1 = YY, t2 = YYYY
+        t0.set(x).square();
+        t1.set(y).square();
+        t2.set(t1).square();
+
+        // t3 = S = 4 X YY
+        t3.set(x).mul(t1).twice().twice();
+
+        // t1 = M = 3 XX + a Z^4
+        t1.set(t0).twice().add(t0);
+        Element a = field.getA();
+        if (!a.isZero())
+            t1.add(t0.set(z).square().square().mul(a));
+
+        // Z3 = 2 Y Z, before Y is overwritten
+        z.mul(y).twice();
+
+        // X3 = M^2 - 2S
+        x.set(t1).square().sub(t3).sub(t3);
+
+        // Y3 = M (S - X3) - 8 YYYY
+        y.set(t3).sub(x).mul(t1).sub(t2.twice().twice().twice());
+
+        return this;
+    }
+
+    /**
+     * this = this + q for an affine q, "madd-2004-hmv": the unscaled mixed addition, 8M + 3S.
+     */
+    public JacobianPoint add(CurveElement q) {
+        if (q.isZero())
+            return this;
+        if (isInfinity())
+            return set(q);
+        if (OperationCounters.ENABLED) OperationCounters.count(x instanceof Point ? Op.G2_ADD : Op.G1_ADD);
+
+        // t0 = Z1Z1, t1 = U2 = x2 Z1Z1, t2 = S2 = y2 Z1 Z1Z1
+        t0.set(z).square();
+        t1.set(q.getX()).mul(t0);
+        t2.set(q.getY()).mul(z).mul(t0);
+
+        // t1 = H = U2 - X1, t2 = r = S2 - Y1
+        t1.sub(x);
+        t2.sub(y);
+        if (t1.isZero()) {
+            if (t2.isZero())
+                return set(q).twice();
+            return setToInfinity();
+        }
+
+        // Z3 = Z1 H
+        z.mul(t1);
+
+        // t0 = HH, t3 = HHH, t0 = V = X1 HH
+        t0.set(t1).square();
+        t3.set(t1).mul(t0);
+        t0.mul(x);
+
+        // X3 = r^2 - HHH - 2V
+        x.set(t2).square().sub(t3).sub(t0).sub(t0);
+
+        // Y3 = r (V - X3) - Y1 HHH
+        t3.mul(y);
+        y.set(t0).sub(x).mul(t2).sub(t3);
+
+        return this;
+    }
+
+    /**
+     * this = this + q for a Jacobian q, "add-2007-bl".
+     */
+    public JacobianPoint add(JacobianPoint q) {
+        if (q.isInfinity())
+            return this;
+        if (isInfinity())
+            return set(q);
+        if (q == this)
+            return twice();
+
+        Field f = x.getField();
+        ElementArena arena = ElementArena.get();
+        int mark = arena.mark();
+        try {
+            // z1z1 = Z1^2, z2z2 = Z2^2, u1 = X1 Z2Z2, s1 = Y1 Z2 Z2Z2
+            Element z1z1 = f.sqr(arena.acquire(f), z);
+            Element z2z2 = f.sqr(arena.acquire(f), q.z);
+            Element u1 = f.mul(arena.acquire(f), x, z2z2);
+            Element s1 = f.mul(arena.acquire(f), y, f.mul(t0, q.z, z2z2));
+
+            // h = U2 - U1, r = S2 - S1
+            Element h = f.sub(t1, f.mul(t1, q.x, z1z1), u1);
+            Element r = f.sub(t2, f.mul(t2, q.y, f.mul(t2, z, z1z1)), s1);
+            if (h.isZero()) {
+                if (r.isZero())
+                    return set(q).twice();
+                return setToInfinity();
+            }
+            if (OperationCounters.ENABLED) OperationCounters.count(x instanceof Point ? Op.G2_ADD : Op.G1_ADD);
+            r.twice();
+
+            // i = (2h)^2, j = h i, v = U1 i
+            Element i = f.sqr(t3, f.add(t3, h, h));
+            Element j = f.mul(t0, h, i);
+            Element v = f.mul(i, u1, i);
+
+            // Z3 = ((Z1 + Z2)^2 - Z1Z1 - Z2Z2) h
+            f.add(z, z, q.z);
+            f.sub(z, f.sub(z, f.sqr(z, z), z1z1), z2z2);
+            f.mul(z, z, h);
+
+            // X3 = r^2 - j - 2v
+            f.sub(x, f.sub(x, f.sqr(x, r), j), f.add(u1, v, v));
+
+            // Y3 = r (v - X3) - 2 s1 j
+            f.mul(j, j, s1).twice();
+            f.sub(y, f.mul(v, f.sub(v, v, x), r), j);
+        } finally {
+            arena.reset(mark);
+        }
+
+        return this;
+    }
+
+    /**
+     * this = -this.
+     */
+    public JacobianPoint negate() {
+        y.negate();
+
+        return this;
+    }
+
+    /**
+     * Converts this point to affine form, which costs one field inversion. Prefer
+     * {@link CurveField#normalize(JacobianPoint[])} for more than one point.
+     */
+    public CurveElement toAffine() {
+        return field.normalize(new JacobianPoint[]{this})[0];
+    }
+}
@@ -0,0 +1,250 @@
+package src.field.curve;
+
+import src.util.math.BigIntegerUtils;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sum of k_i P_i over the points of a {@link CurveField}, see {@link CurveField#multiScalarMul}.
+ * <p>
+ * Up to {@link #STRAUS_LIMIT} points Straus' method with interleaved width-w NAFs is used: one chain of
+ * doublings shared by all scalars and a mixed addition of a precomputed odd multiple for each nonzero digit.
+ * Beyond it, Pippenger's bucket method: the scalars are cut into c-bit windows, every point is dropped in the
+ * bucket of its digit and bucket j of a window weighs j. The points of the buckets are summed pairwise in
+ * affine coordinates, each round of additions over all buckets sharing one field inversion through
+ * {@link CurveField#add(src.api.Element[], src.api.Element[])}; from {@link #PARALLEL_LIMIT} points on the
+ * windows are computed in parallel on a ForkJoinPool.
+ */
+class MultiScalarMultiplication {
+    static final int STRAUS_LIMIT = 256;
+    static final int PARALLEL_LIMIT = 512;
+    // Straus: digits are odd and below 2^(WNAF_WIDTH - 1) in magnitude
+    static final int WNAF_WIDTH = 5;
+
+    private final CurveField field;
+    private final CurveElement[] points;
+    private final BigInteger[] scalars;
+    private final int bits;
+
+
+    MultiScalarMultiplication(CurveField field, CurveElement[] points, BigInteger[] scalars) {
+        if (points.length != scalars.length)
+            throw new IllegalArgumentException("points and scalars differ in length");
+
+        this.field = field;
+        this.points = points;
+        this.scalars = new BigInteger[scalars.length];
+        int bits = 0;
+        for (int i = 0; i < scalars.length; i++) {
+            this.scalars[i] = scalars[i].mod(field.getOrder());
+            bits = Math.max(bits, this.scalars[i].bitLength());
+        }
+        this.bits = bits;
+    }
+
+    CurveElement compute(ForkJoinPool pool) {
+        if (bits == 0)
+            return field.newElement();
+        if (points.length <= STRAUS_LIMIT)
+            return straus().toAffine();
+        return pippenger(pool).toAffine();
+    }
+
+
+    JacobianPoint straus() {
+        int n = points.length;
+        int tableSize = 1 << (WNAF_WIDTH - 2);
+
+        // the odd multiples P, 3P, ..., (2^(w-1) - 1)P of every point, normalized together
+        JacobianPoint[] doubles = new JacobianPoint[n];
+        for (int i = 0; i < n; i++)
+            doubles[i] = new JacobianPoint(points[i]).twice();
+        CurveElement[] twoP = field.normalize(doubles);
+
+        JacobianPoint[] multiples = new JacobianPoint[n * tableSize];
+        for (int i = 0; i < n; i++) {
+            JacobianPoint p = new JacobianPoint(points[i]);
+            for (int j = 0; j < tableSize; j++) {
+                multiples[i * tableSize + j] = new JacobianPoint(field).set(p);
+                p.add(twoP[i]);
+            }
+        }
+        CurveElement[] table = field.normalize(multiples);
+
+        byte[][] naf = new byte[n][];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            naf[i] = BigIntegerUtils.naf(scalars[i], (byte) WNAF_WIDTH);
+            length = Math.max(length, naf[i].length);
+        }
+
+        JacobianPoint r = new JacobianPoint(field).setToInfinity();
+        for (int bit = length - 1; bit >= 0; bit--) {
+            r.twice();
+            for (int i = 0; i < n; i++) {
+                if (bit >= naf[i].length || naf[i][bit] == 0)
+                    continue;
+
+                int d = naf[i][bit];
+                // r - T = -(-r + T), negation being free in Jacobian coordinates
+                if (d > 0) {
+                    r.add(table[i * tableSize + (d >> 1)]);
+                } else
+                    r.negate().add(table[i * tableSize + (-d >> 1)]).negate();
+            }
+        }
+
+        return r;
+    }
+
+    JacobianPoint pippenger(ForkJoinPool pool) {
+        final int c = windowBits(points.length);
+        int windows = (bits + c - 1) / c;
+
+        final JacobianPoint[] sums = new JacobianPoint[windows];
+        if (points.length >= PARALLEL_LIMIT && pool != null && windows > 1) {
+            pool.invoke(new WindowTask(sums, c, 0, windows));
+        } else {
+            for (int w = 0; w < windows; w++)
+                sums[w] = window(w, c);
+        }
+
+        // r = sum of 2^(c w) sums[w], Horner from the top window
+        JacobianPoint r = new JacobianPoint(field).setToInfinity();
+        for (int w = windows - 1; w >= 0; w--) {
+            for (int i = 0; i < c; i++)
+                r.twice();
+            r.add(sums[w]);
+        }
+
+        return r;
+    }
+
+    /**
+     * Window bits for n points, about log2(n) - 3, which balances the n bucket additions of a window against
+     * the 2^(c+1) additions summing its buckets.
+     */
+    static int windowBits(int n) {
+        int bits = 32 - Integer.numberOfLeadingZeros(n) - 3;
+        return Math.max(2, Math.min(16, bits));
+    }
+
+    /**
+     * The sum of j B_j over the buckets of window w.
+     */
+    JacobianPoint window(int w, int c) {
+        int bucketCount = (1 << c) - 1;
+        List<List<CurveElement>> buckets = new ArrayList<List<CurveElement>>(bucketCount);
+        for (int j = 0; j < bucketCount; j++)
+            buckets.add(new ArrayList<CurveElement>());
+
+        for (int i = 0; i < points.length; i++) {
+            int digit = digit(scalars[i], w * c, c);
+            if (digit != 0 && !points[i].isZero())
+                buckets.get(digit - 1).add(points[i]);
+        }
+
+        CurveElement[] bucket = reduce(buckets);
+
+        // running sum: the bucket of digit j is added j times
+        JacobianPoint running = new JacobianPoint(field).setToInfinity();
+        JacobianPoint sum = new JacobianPoint(field).setToInfinity();
+        for (int j = bucketCount - 1; j >= 0; j--) {
+            if (bucket[j] != null)
+                running.add(bucket[j]);
+            sum.add(running);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Sums every bucket to a single affine point, null for an empty bucket, by adding its points in pairs.
+     * Each round adds one pair of every bucket that still holds more than one point, all with one inversion.
+     * The first owned[j] points of bucket j are sums made here, which may be overwritten; the rest are input
+     * points and are copied before being written.
+     */
+    private CurveElement[] reduce(List<List<CurveElement>> buckets) {
+        int bucketCount = buckets.size();
+        int[] owned = new int[bucketCount];
+
+        List<CurveElement> a = new ArrayList<CurveElement>();
+        List<CurveElement> b = new ArrayList<CurveElement>();
+        while (true) {
+            a.clear();
+            b.clear();
+            for (int j = 0; j < bucketCount; j++) {
+                List<CurveElement> list = buckets.get(j);
+                for (int k = 0; k + 1 < list.size(); k += 2) {
+                    a.add(k < owned[j] ? list.get(k) : list.get(k).duplicate());
+                    b.add(list.get(k + 1));
+                }
+            }
+            if (a.isEmpty())
+                break;
+
+            field.add(a.toArray(new CurveElement[a.size()]), b.toArray(new CurveElement[b.size()]));
+
+            // the sums move to the front of their bucket, an odd point out stays behind them
+            int next = 0;
+            for (int j = 0; j < bucketCount; j++) {
+                List<CurveElement> list = buckets.get(j);
+                int pairs = list.size() / 2;
+                if (pairs == 0)
+                    continue;
+
+                List<CurveElement> reduced = new ArrayList<CurveElement>(pairs + 1);
+                for (int k = 0; k < pairs; k++)
+                    reduced.add(a.get(next++));
+                boolean oddOwned = list.size() % 2 == 1 && list.size() - 1 < owned[j];
+                if (list.size() % 2 == 1)
+                    reduced.add(list.get(list.size() - 1));
+                owned[j] = pairs + (oddOwned ? 1 : 0);
+                buckets.set(j, reduced);
+            }
+        }
+
+        CurveElement[] result = new CurveElement[bucketCount];
+        for (int j = 0; j < bucketCount; j++) {
+            List<CurveElement> list = buckets.get(j);
+            if (!list.isEmpty() && !list.get(0).isZero())
+                result[j] = list.get(0);
+        }
+        return result;
+    }
+
+    /**
+     * Bits [from, from + c) of k.
+     */
+    static int digit(BigInteger k, int from, int c) {
+        int digit = 0;
+        for (int i = c - 1; i >= 0; i--)
+            digit = (digit << 1) | (k.testBit(from + i) ? 1 : 0);
+        return digit;
+    }
+
+    private class WindowTask extends RecursiveAction {
+        private final JacobianPoint[] sums;
+        private final int c, from, to;
+
+        WindowTask(JacobianPoint[] sums, int c, int from, int to) {
+            this.sums = sums;
+            this.c = c;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new WindowTask(sums, c, from, mid), new WindowTask(sums, c, mid, to));
+                return;
+            }
+            sums[from] = window(from, c);
+        }
+    }
+}
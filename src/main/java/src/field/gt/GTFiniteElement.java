@@ -2,6 +2,8 @@ package src.field.gt;
 
 
 import src.api.Element;
+import src.api.Field;
+import src.api.Polynomial;
 import src.field.base.AbstractElement;
 import src.pairing.f.map.PairingMap;
 
@@ -176,6 +178,56 @@ public class GTFiniteElement extends AbstractElement {
         return value.toBytes();
     }
 
+    /**
+     * Length of {@link #toBytesCompressed()}, half of {@link #getLengthInBytes()}.
+     */
+    public int getLengthInBytesCompressed() {
+        return getField().getLengthInBytesCompressed();
+    }
+
+    /**
+     * Encodes this element in T2 torus form: the three Fq2 coefficients of c = (1 + g0) / g1 in Fq6,
+     * where this = g0 + g1 t over Fq6. The identity is encoded as all zeros.
+     */
+    public byte[] toBytesCompressed() {
+        return toBytesCompressed(TorusCompression.compress(value));
+    }
+
+    public int setFromBytesCompressed(byte[] source) {
+        return setFromBytesCompressed(source, 0);
+    }
+
+    public int setFromBytesCompressed(byte[] source, int offset) {
+        Element[] c = readCompressed(source, offset);
+        TorusCompression.decompress(c, value);
+
+        return getLengthInBytesCompressed();
+    }
+
+    Element[] readCompressed(byte[] source, int offset) {
+        Element[] c = new Element[3];
+        for (int i = 0; i < 3; i++) {
+            c[i] = coefficientField().newElement();
+            offset += c[i].setFromBytes(source, offset);
+        }
+        return c;
+    }
+
+    byte[] toBytesCompressed(Element[] c) {
+        byte[] out = new byte[getLengthInBytesCompressed()];
+        int offset = 0;
+        for (Element e : c) {
+            byte[] bytes = e.toBytes();
+            System.arraycopy(bytes, 0, out, offset, bytes.length);
+            offset += bytes.length;
+        }
+        return out;
+    }
+
+    private Field coefficientField() {
+        return ((Polynomial) ((Polynomial) value).getCoefficient(0)).getCoefficient(0).getField();
+    }
+
     public int sign() {
         throw new IllegalStateException("Not implemented yet!!!");
     }
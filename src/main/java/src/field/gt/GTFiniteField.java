@@ -1,5 +1,6 @@
 package src.field.gt;
 
+import src.api.Element;
 import src.api.Field;
 import src.field.base.AbstractFieldOver;
 import src.pairing.f.map.PairingMap;
@@ -39,4 +40,39 @@ public class GTFiniteField<F extends Field> extends AbstractFieldOver<F, GTFinit
         return getTargetField().getLengthInBytes();
     }
 
+    public int getLengthInBytesCompressed() {
+        return getLengthInBytes() / 2;
+    }
+
+    /**
+     * Decodes count consecutive torus-compressed elements, sharing one Fq6 inversion across the whole batch.
+     * Use this when loading many cached pairing values at once.
+     */
+    public GTFiniteElement[] newElementsFromBytesCompressed(byte[] source, int offset, int count) {
+        GTFiniteElement[] elements = new GTFiniteElement[count];
+        Element[] values = new Element[count];
+        Element[][] c = new Element[count][];
+
+        int length = getLengthInBytesCompressed();
+        for (int i = 0; i < count; i++) {
+            elements[i] = newElement();
+            values[i] = elements[i].value;
+            c[i] = elements[i].readCompressed(source, offset + i * length);
+        }
+        TorusCompression.decompress(c, values);
+
+        return elements;
+    }
+
+    /**
+     * Multiplies two torus-compressed elements and returns the compressed product, at the cost of one Fq6
+     * multiplication and one Fq6 inversion instead of two decompressions and a recompression.
+     */
+    public byte[] mulCompressed(byte[] a, byte[] b) {
+        GTFiniteElement e = newElement();
+        Element[] product = TorusCompression.mul(e.readCompressed(a, 0), e.readCompressed(b, 0));
+
+        return e.toBytesCompressed(product);
+    }
+
 }
@@ -82,6 +82,16 @@ public class ImmutableGTFiniteElement extends GTFiniteElement {
         throw new IllegalStateException("Invalid call on an immutable element");
     }
 
+    @Override
+    public int setFromBytesCompressed(byte[] source) {
+        throw new IllegalStateException("Invalid call on an immutable element");
+    }
+
+    @Override
+    public int setFromBytesCompressed(byte[] source, int offset) {
+        throw new IllegalStateException("Invalid call on an immutable element");
+    }
+
     @Override
     public GTFiniteElement square() {
         return (GTFiniteElement) duplicate().square().getImmutable();
@@ -0,0 +1,208 @@
+package src.field.gt;
+
+import src.api.Element;
+import src.api.Point;
+import src.api.Polynomial;
+
+/**
+ * T2 torus compression for the cyclotomic subgroup of Fq12 = Fq4[t]/(t^3 - w), Fq4 = Fq2[w]/(w^2 - u).
+ * <p>
+ * Viewing Fq12 as Fq6[t]/(t^2 - s) with Fq6 = Fq2[s]/(s^3 - u) and s = t^2, an element g = g0 + g1 t of norm one
+ * over Fq6 is represented by c = (1 + g0) / g1 and recovered as g = (c + t) / (c - t). The identity, where g1 = 0,
+ * is mapped to c = 0; the only other element with g1 = 0 is -1, which has even order and never lies in GT.
+ * <p>
+ * Fq6 elements are handled as arrays of three Fq2 coefficients.
+ */
+final class TorusCompression {
+
+    private TorusCompression() {
+    }
+
+
+    /**
+     * Returns c for a pairing value, as three Fq2 coefficients.
+     */
+    static Element[] compress(Element value) {
+        Element[][] g = split(value);
+        Element u = newU(g[0][0]);
+
+        if (isZero(g[1])) {
+            return zero(g[0][0]);
+        }
+
+        Element[] c = invert(g[1], u);
+        g[0][0].add(g[0][0].getField().newOneElement());
+        return mul(g[0], c, u);
+    }
+
+    /**
+     * Sets value to the element represented by c.
+     */
+    static void decompress(Element[] c, Element value) {
+        if (isZero(c)) {
+            value.setToOne();
+            return;
+        }
+
+        Element u = newU(c[0]);
+        Element[] d = denominator(c, u);
+        expand(c, invert(d, u), u, value);
+    }
+
+    /**
+     * Decompresses every c[i] into values[i] with a single Fq6 inversion shared through Montgomery's trick.
+     */
+    static void decompress(Element[][] c, Element[] values) {
+        int n = c.length;
+        if (n == 0)
+            return;
+        Element u = newU(c[0][0]);
+
+        // prefix[i] = d_0 * ... * d_i over the non-identity entries
+        Element[][] d = new Element[n][];
+        Element[][] prefix = new Element[n][];
+        Element[] acc = null;
+        for (int i = 0; i < n; i++) {
+            if (isZero(c[i]))
+                continue;
+            d[i] = denominator(c[i], u);
+            acc = acc == null ? copy(d[i]) : mul(acc, d[i], u);
+            prefix[i] = acc;
+        }
+
+        Element[] inv = acc == null ? null : invert(acc, u);
+        for (int i = n - 1; i >= 0; i--) {
+            if (d[i] == null) {
+                values[i].setToOne();
+                continue;
+            }
+
+            // inv currently holds (d_0 * ... * d_i)^-1
+            Element[] before = null;
+            for (int j = i - 1; j >= 0 && before == null; j--)
+                before = prefix[j];
+
+            Element[] dInv = before == null ? inv : mul(inv, before, u);
+            expand(c[i], dInv, u, values[i]);
+            if (before != null)
+                inv = mul(inv, d[i], u);
+        }
+    }
+
+    /**
+     * Product of the elements represented by a and b, computed as (a b + s) / (a + b) without leaving the torus.
+     */
+    static Element[] mul(Element[] a, Element[] b) {
+        if (isZero(a))
+            return copy(b);
+        if (isZero(b))
+            return copy(a);
+
+        Element u = newU(a[0]);
+        Element[] sum = add(a, b);
+        if (isZero(sum))
+            return zero(a[0]);
+
+        Element[] num = mul(a, b, u);
+        num[1].add(num[1].getField().newOneElement());
+        return mul(num, invert(sum, u), u);
+    }
+
+
+    // g = (c^2 + s) / d + (2c / d) t with d = c^2 - s, i.e. g0 = 1 + 2 s / d
+    private static void expand(Element[] c, Element[] dInv, Element u, Element value) {
+        Element[] g0 = mulByS(dInv, u);
+        for (Element e : g0)
+            e.twice();
+        g0[0].add(g0[0].getField().newOneElement());
+
+        Element[] g1 = mul(c, dInv, u);
+        for (Element e : g1)
+            e.twice();
+
+        join(g0, g1, value);
+    }
+
+    private static Element[] denominator(Element[] c, Element u) {
+        Element[] d = mul(c, c, u);
+        d[1].sub(d[1].getField().newOneElement());
+        return d;
+    }
+
+    // value = sum_j c_j t^j with c_j = c_j0 + c_j1 w and w = t^3; even powers of t are powers of s
+    private static Element[][] split(Element value) {
+        Polynomial p = (Polynomial) value;
+        Polynomial c0 = (Polynomial) p.getCoefficient(0);
+        Polynomial c1 = (Polynomial) p.getCoefficient(1);
+        Polynomial c2 = (Polynomial) p.getCoefficient(2);
+
+        return new Element[][]{
+                {c0.getCoefficient(0).duplicate(), c2.getCoefficient(0).duplicate(), c1.getCoefficient(1).duplicate()},
+                {c1.getCoefficient(0).duplicate(), c0.getCoefficient(1).duplicate(), c2.getCoefficient(1).duplicate()}
+        };
+    }
+
+    private static void join(Element[] g0, Element[] g1, Element value) {
+        Polynomial p = (Polynomial) value;
+        Polynomial c0 = (Polynomial) p.getCoefficient(0);
+        Polynomial c1 = (Polynomial) p.getCoefficient(1);
+        Polynomial c2 = (Polynomial) p.getCoefficient(2);
+
+        c0.getCoefficient(0).set(g0[0]);
+        c2.getCoefficient(0).set(g0[1]);
+        c1.getCoefficient(1).set(g0[2]);
+        c1.getCoefficient(0).set(g1[0]);
+        c0.getCoefficient(1).set(g1[1]);
+        c2.getCoefficient(1).set(g1[2]);
+    }
+
+    private static Element newU(Element fq2) {
+        Point u = (Point) fq2.getField().newElement();
+        u.getY().setToOne();
+        return u;
+    }
+
+    // Karatsuba multiplication in Fq6, reducing with s^3 = u
+    private static Element[] mul(Element[] a, Element[] b, Element u) {
+        Element t0 = a[0].duplicate().mul(b[0]);
+        Element t1 = a[1].duplicate().mul(b[1]);
+        Element t2 = a[2].duplicate().mul(b[2]);
+
+        Element c0 = a[1].duplicate().add(a[2]).mul(b[1].duplicate().add(b[2])).sub(t1).sub(t2).mul(u).add(t0);
+        Element c1 = a[0].duplicate().add(a[1]).mul(b[0].duplicate().add(b[1])).sub(t0).sub(t1).add(t2.duplicate().mul(u));
+        Element c2 = a[0].duplicate().add(a[2]).mul(b[0].duplicate().add(b[2])).sub(t0).sub(t2).add(t1);
+
+        return new Element[]{c0, c1, c2};
+    }
+
+    private static Element[] invert(Element[] a, Element u) {
+        Element A = a[0].duplicate().square().sub(a[1].duplicate().mul(a[2]).mul(u));
+        Element B = a[2].duplicate().square().mul(u).sub(a[0].duplicate().mul(a[1]));
+        Element C = a[1].duplicate().square().sub(a[0].duplicate().mul(a[2]));
+
+        Element f = a[2].duplicate().mul(B).add(a[1].duplicate().mul(C)).mul(u).add(a[0].duplicate().mul(A));
+        f.invert();
+
+        return new Element[]{A.mul(f), B.mul(f), C.mul(f)};
+    }
+
+    private static Element[] mulByS(Element[] a, Element u) {
+        return new Element[]{a[2].duplicate().mul(u), a[0].duplicate(), a[1].duplicate()};
+    }
+
+    private static Element[] add(Element[] a, Element[] b) {
+        return new Element[]{a[0].duplicate().add(b[0]), a[1].duplicate().add(b[1]), a[2].duplicate().add(b[2])};
+    }
+
+    private static Element[] copy(Element[] a) {
+        return new Element[]{a[0].duplicate(), a[1].duplicate(), a[2].duplicate()};
+    }
+
+    private static Element[] zero(Element fq2) {
+        return new Element[]{fq2.getField().newElement(), fq2.getField().newElement(), fq2.getField().newElement()};
+    }
+
+    static boolean isZero(Element[] a) {
+        return a[0].isZero() && a[1].isZero() && a[2].isZero();
+    }
+}
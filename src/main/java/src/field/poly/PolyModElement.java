@@ -4,7 +4,10 @@ package src.field.poly;
 import src.api.Element;
 import src.api.Field;
 import src.api.Polynomial;
+import src.util.ElementArena;
 import src.util.math.BigIntegerUtils;
+import src.util.metrics.OperationCounters;
+import src.util.metrics.OperationCounters.Op;
 
 import java.math.BigInteger;
 import java.util.List;
@@ -145,42 +148,12 @@ public class PolyModElement<E extends Element> extends AbstractPolyElement<E, Po
     }
 
     public PolyModElement<E> square() {
-        switch (field.n) {
-            case 3:
-                PolyModElement<E> p0 = field.newElement();
-                Element c0 = field.getTargetField().newElement();
-                Element c2 = field.getTargetField().newElement();
-
-                Element c3 = p0.coefficients.get(0);
-                Element c1 = p0.coefficients.get(1);
-
-                c3.set(coefficients.get(0)).mul(coefficients.get(1));
-                c1.set(coefficients.get(0)).mul(coefficients.get(2));
-                coefficients.get(0).square();
-
-                c2.set(coefficients.get(1)).mul(coefficients.get(2));
-                c0.set(coefficients.get(2)).square();
-                coefficients.get(2).set(coefficients.get(1)).square();
+        if (field.karatsuba)
+            return field.sqr(this, this);
 
-                coefficients.get(1).set(c3).add(c3);
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP4_SQUARE);
+        squareInternal();
 
-                c1.add(c1);
-
-                coefficients.get(2).add(c1);
-                p0.set(field.xpwr[1]);
-                p0.polymodConstMul(c0);
-                add(p0);
-
-                c2.add(c2);
-                p0.set(field.xpwr[0]);
-                p0.polymodConstMul(c2);
-                add(p0);
-
-                return this;
-
-            default:
-                squareInternal();
-        }
         return this;
     }
 
@@ -218,22 +191,23 @@ public class PolyModElement<E extends Element> extends AbstractPolyElement<E, Po
     }
 
     public PolyModElement<E> mul(Element e) {
-        Polynomial<E> element = (Polynomial<E>) e;
+        if (field.karatsuba)
+            return field.mul(this, this, e);
 
-        switch (field.n) {
-            case 3:
-                PolyModElement<E> p0 = field.newElement();
-                Element c3 = field.getTargetField().newElement();
-                Element c4 = field.getTargetField().newElement();
-
-                kar_poly_2(coefficients, c3, c4, coefficients, element.getCoefficients(), p0.coefficients);
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP4_MUL);
+        Polynomial<E> element = (Polynomial<E>) e;
 
-                p0.set(field.xpwr[0]).polymodConstMul(c3);
-                add(p0);
-                p0.set(field.xpwr[1]).polymodConstMul(c4);
-                add(p0);
+        ElementArena arena = ElementArena.get();
+        int mark = arena.mark();
+        try {
+            return mul(element, arena);
+        } finally {
+            arena.reset(mark);
+        }
+    }
 
-                return this;
+    private PolyModElement<E> mul(Polynomial<E> element, ElementArena arena) {
+        switch (field.n) {
 //            case 6:
             // TODO: port the PBC code
 //                throw new IllegalStateException("Not Implemented yet!");
@@ -312,11 +286,11 @@ public class PolyModElement<E extends Element> extends AbstractPolyElement<E, Po
 
                 Element[] high = new Element[field.n - 1];
                 for (int i = 0, size = field.n - 1; i < size; i++) {
-                    high[i] = field.getTargetField().newElement().setToZero();
+                    high[i] = arena.acquire(field.getTargetField()).setToZero();
                 }
-                PolyModElement<E> prod = field.newElement();
-                p0 = field.newElement();
-                Element c0 = field.getTargetField().newElement();
+                PolyModElement<E> prod = (PolyModElement<E>) arena.acquire(field).setToZero();
+                PolyModElement<E> p0 = (PolyModElement<E>) arena.acquire(field);
+                Element c0 = arena.acquire(field.getTargetField());
 
                 for (int i = 0; i < field.n; i++) {
                     int ni = field.n - i;
@@ -547,47 +521,53 @@ public class PolyModElement<E extends Element> extends AbstractPolyElement<E, Po
         Element c0;
         int i, j;
 
-        Element high[] = new Element[n - 1];
+        ElementArena arena = ElementArena.get();
+        int mark = arena.mark();
+        try {
+            Element high[] = new Element[n - 1];
 
-        for (i = 0; i < n - 1; i++) {
-            high[i] = field.getTargetField().newElement().setToZero();
-        }
+            for (i = 0; i < n - 1; i++) {
+                high[i] = arena.acquire(field.getTargetField()).setToZero();
+            }
 
-        prod = field.newElement();
-        dst = prod.coefficients;
-        p0 = field.newElement();
-        c0 = field.getTargetField().newElement();
+            prod = (PolyModElement<E>) arena.acquire(field).setToZero();
+            dst = prod.coefficients;
+            p0 = (PolyModElement<E>) arena.acquire(field);
+            c0 = arena.acquire(field.getTargetField());
 
-        for (i = 0; i < n; i++) {
-            int twicei = 2 * i;
+            for (i = 0; i < n; i++) {
+                int twicei = 2 * i;
 
-            c0.set(src.get(i)).square();
+                c0.set(src.get(i)).square();
 
-            if (twicei < n) {
-                dst.get(twicei).add(c0);
-            } else {
-                high[twicei - n].add(c0);
-            }
+                if (twicei < n) {
+                    dst.get(twicei).add(c0);
+                } else {
+                    high[twicei - n].add(c0);
+                }
+
+                for (j = i + 1; j < n - i; j++) {
+                    c0.set(src.get(i)).mul(src.get(j));
+                    c0.add(c0);
+                    dst.get(i + j).add(c0);
+                }
 
-            for (j = i + 1; j < n - i; j++) {
-                c0.set(src.get(i)).mul(src.get(j));
-                c0.add(c0);
-                dst.get(i + j).add(c0);
+                for (; j < n; j++) {
+                    c0.set(src.get(i)).mul(src.get(j));
+                    c0.add(c0);
+                    high[i + j - n].add(c0);
+                }
             }
 
-            for (; j < n; j++) {
-                c0.set(src.get(i)).mul(src.get(j));
-                c0.add(c0);
-                high[i + j - n].add(c0);
+            for (i = 0; i < n - 1; i++) {
+                p0.set(field.xpwr[i]).polymodConstMul(high[i]);
+                prod.add(p0);
             }
-        }
 
-        for (i = 0; i < n - 1; i++) {
-            p0.set(field.xpwr[i]).polymodConstMul(high[i]);
-            prod.add(p0);
+            set(prod);
+        } finally {
+            arena.reset(mark);
         }
-
-        set(prod);
     }
 
     /**
@@ -607,35 +587,28 @@ public class PolyModElement<E extends Element> extends AbstractPolyElement<E, Po
         c02 = scratch.get(1);
         c01 = scratch.get(2);
 
-        c3.set(s1.get(0)).add(s1.get(1));
-        c4.set(s2.get(0)).add(s2.get(1));
-        c01.set(c3).mul(c4);
-        c3.set(s1.get(0)).add(s1.get(2));
-        c4.set(s2.get(0)).add(s2.get(2));
-        c02.set(c3).mul(c4);
-        c3.set(s1.get(1)).add(s1.get(2));
-        c4.set(s2.get(1)).add(s2.get(2));
-        c12.set(c3).mul(c4);
-        dst.get(1).set(s1.get(1)).mul(s2.get(1));
+        Field f = field.getTargetField();
+
+        f.mul(c01, f.add(c3, s1.get(0), s1.get(1)), f.add(c4, s2.get(0), s2.get(1)));
+        f.mul(c02, f.add(c3, s1.get(0), s1.get(2)), f.add(c4, s2.get(0), s2.get(2)));
+        f.mul(c12, f.add(c3, s1.get(1), s1.get(2)), f.add(c4, s2.get(1), s2.get(2)));
+        f.mul(dst.get(1), s1.get(1), s2.get(1));
 
         //constant term
-        dst.get(0).set(s1.get(0)).mul(s2.get(0));
+        f.mul(dst.get(0), s1.get(0), s2.get(0));
 
         //coefficient of x^4
-        c4.set(s1.get(2)).mul(s2.get(2));
+        f.mul(c4, s1.get(2), s2.get(2));
 
         //coefficient of x^3
-        c3.set(dst.get(1)).add(c4);
-        c3.set(c12.duplicate().sub(c3));
+        f.sub(c3, c12, f.add(c3, dst.get(1), c4));
 
         //coefficient of x^2
-        dst.get(2).set(c4).add(dst.get(0));
-        c02.sub(dst.get(2));
-        dst.get(2).set(dst.get(1)).add(c02);
+        f.sub(c02, c02, f.add(dst.get(2), c4, dst.get(0)));
+        f.add(dst.get(2), dst.get(1), c02);
 
         //coefficient of x
-        c01.sub(dst.get(0));
-        dst.set(1, (E) c01.duplicate().sub(dst.get(1)));
+        f.sub(dst.get(1), f.sub(c01, c01, dst.get(0)), dst.get(1));
     }
 
     protected PolyElement polyInvert(PolyElement f) {
@@ -3,7 +3,11 @@ package src.field.poly;
 
 import src.api.Element;
 import src.api.Field;
+import src.api.Polynomial;
 import src.field.base.AbstractFieldOver;
+import src.util.ElementArena;
+import src.util.metrics.OperationCounters;
+import src.util.metrics.OperationCounters.Op;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
@@ -20,6 +24,10 @@ public class PolyModField<F extends Field> extends AbstractFieldOver<F, PolyModE
     protected int fixedLengthInBytes;
 
     protected PolyModElement[] xpwr;
+    // xpwrZero[i][j] is set when coefficient j of xpwr[i] is zero; reductions skip those products
+    protected boolean[][] xpwrZero;
+    // set when mul and sqr have a Karatsuba form here: any cubic extension, or x^2 = c
+    boolean karatsuba;
 
 
     public PolyModField(SecureRandom random, F targetField, int cyclotomicPolyDegree) {
@@ -91,6 +99,131 @@ public class PolyModField<F extends Field> extends AbstractFieldOver<F, PolyModE
         return n;
     }
 
+    public PolyModElement mul(PolyModElement out, Element a, Element b) {
+        if (!karatsuba)
+            return super.mul(out, a, b);
+        if (n == 2)
+            return mulQuadratic(out, a, b);
+
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP12_MUL);
+        ElementArena arena = ElementArena.get();
+        int mark = arena.mark();
+        try {
+            PolyModElement p0 = (PolyModElement) arena.acquire(this);
+            Element c3 = arena.acquire(targetField);
+            Element c4 = arena.acquire(targetField);
+
+            // kar_poly_2 reads every coefficient of a and b before it writes the same one of out
+            out.kar_poly_2(out.coefficients, c3, c4, ((Polynomial) a).getCoefficients(),
+                    ((Polynomial) b).getCoefficients(), p0.coefficients);
+            addConstMul(out, 0, c3);
+            addConstMul(out, 1, c4);
+        } finally {
+            arena.reset(mark);
+        }
+
+        return out;
+    }
+
+    public PolyModElement sqr(PolyModElement out, Element a) {
+        if (!karatsuba)
+            return super.sqr(out, a);
+        if (n == 2)
+            return sqrQuadratic(out, a);
+
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP12_SQUARE);
+        List<Element> s = ((Polynomial) a).getCoefficients();
+        List<Element> d = out.coefficients;
+
+        ElementArena arena = ElementArena.get();
+        int mark = arena.mark();
+        try {
+            Element c01 = targetField.mul(arena.acquire(targetField), s.get(0), s.get(1));
+            Element c02 = targetField.mul(arena.acquire(targetField), s.get(0), s.get(2));
+            Element c12 = targetField.mul(arena.acquire(targetField), s.get(1), s.get(2));
+            Element c22 = targetField.sqr(arena.acquire(targetField), s.get(2));
+
+            // out may be a: each coefficient is written once the ones below it no longer need it
+            targetField.sqr(d.get(0), s.get(0));
+            targetField.add(d.get(2), targetField.sqr(d.get(2), s.get(1)), c02.twice());
+            d.get(1).set(c01).twice();
+
+            addConstMul(out, 1, c22);
+            addConstMul(out, 0, c12.twice());
+        } finally {
+            arena.reset(mark);
+        }
+
+        return out;
+    }
+
+    /**
+     * Karatsuba for x^2 = c: out = a0 b0 + c a1 b1 + ((a0 + a1)(b0 + b1) - a0 b0 - a1 b1) x, three products
+     * and one mulAdd, which over Fq2 reduces once per coefficient, in place of four products and a reduction
+     * by xpwr.
+     */
+    private PolyModElement mulQuadratic(PolyModElement out, Element a, Element b) {
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP4_MUL);
+        List<Element> s1 = ((Polynomial) a).getCoefficients();
+        List<Element> s2 = ((Polynomial) b).getCoefficients();
+        List<Element> d = out.coefficients;
+
+        ElementArena arena = ElementArena.get();
+        int mark = arena.mark();
+        try {
+            Element e0 = targetField.mul(arena.acquire(targetField), s1.get(0), s2.get(0));
+            Element e1 = targetField.mul(arena.acquire(targetField), s1.get(1), s2.get(1));
+            Element e2 = targetField.add(arena.acquire(targetField), s1.get(0), s1.get(1));
+            Element e3 = targetField.add(arena.acquire(targetField), s2.get(0), s2.get(1));
+            targetField.mul(e2, e2, e3);
+
+            targetField.mulAdd(d.get(0), e1, xpwr[0].getCoefficient(0), e0);
+            targetField.sub(d.get(1), targetField.sub(e2, e2, e0), e1);
+        } finally {
+            arena.reset(mark);
+        }
+
+        return out;
+    }
+
+    /**
+     * out = a0^2 + c a1^2 + 2 a0 a1 x for x^2 = c.
+     */
+    private PolyModElement sqrQuadratic(PolyModElement out, Element a) {
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP4_SQUARE);
+        List<Element> s = ((Polynomial) a).getCoefficients();
+        List<Element> d = out.coefficients;
+
+        ElementArena arena = ElementArena.get();
+        int mark = arena.mark();
+        try {
+            Element e0 = targetField.sqr(arena.acquire(targetField), s.get(0));
+            Element e1 = targetField.sqr(arena.acquire(targetField), s.get(1));
+            Element e2 = targetField.mul(arena.acquire(targetField), s.get(0), s.get(1));
+
+            targetField.mulAdd(d.get(0), e1, xpwr[0].getCoefficient(0), e0);
+            d.get(1).set(e2).twice();
+        } finally {
+            arena.reset(mark);
+        }
+
+        return out;
+    }
+
+    /**
+     * out += xpwr[i] * c, c in the target field.
+     */
+    private void addConstMul(PolyModElement out, int i, Element c) {
+        List<Element> d = out.coefficients;
+        List<Element> s = xpwr[i].coefficients;
+        for (int j = 0; j < n; j++) {
+            if (!xpwrZero[i][j]) {
+                Element e = d.get(j);
+                targetField.mulAdd(e, s.get(j), c, e);
+            }
+        }
+    }
+
 
     /**
      * compute x^n,...,x^{2n-2} mod poly
@@ -119,6 +252,13 @@ public class PolyModField<F extends Field> extends AbstractFieldOver<F, PolyModE
             xpwr[i].add(p0);
         }
 
+        xpwrZero = new boolean[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++)
+                xpwrZero[i][j] = xpwr[i].getCoefficient(j).isZero();
+        }
+        karatsuba = n == 3 || (n == 2 && xpwrZero[0][1]);
+
 //        for (PolyModElement polyModElement : xpwr) {
 //            System.out.println("xprw = " + polyModElement);
 //        }
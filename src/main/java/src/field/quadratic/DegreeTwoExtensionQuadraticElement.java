@@ -109,13 +109,11 @@ public class DegreeTwoExtensionQuadraticElement<E extends Element> extends Quadr
         e0.add(e1).sqrt();
 
         //e0 = sqrt(x^2 + y^2)
-        e1.set(x).add(e0);
-        Element e2 = x.getField().newElement().set(2).invert();
-        e1.mul(e2);
+        e1.set(x).add(e0).halve();
 
         //e1 = (x + sqrt(x^2 + y^2))/2
 
-        if (e1.isSqr()) {
+        if (!e1.isSqr()) {
             e1.sub(e0);
             //e1 should be a square
         }
@@ -1,5 +1,6 @@
 package src.field.quadratic;
 
+import src.api.Element;
 import src.api.Field;
 
 import java.security.SecureRandom;
@@ -8,9 +9,12 @@ import java.security.SecureRandom;
  * @author Angelo De Caro (jpbclib@gmail.com)
  */
 public class DegreeTwoExtensionQuadraticField<F extends Field> extends QuadraticField<F, DegreeTwoExtensionQuadraticElement> {
+    private final Element minusOne;
 
     public DegreeTwoExtensionQuadraticField(SecureRandom random, F targetField) {
         super(random, targetField);
+
+        this.minusOne = targetField.newOneElement().negate().getImmutable();
     }
 
 
@@ -18,4 +22,9 @@ public class DegreeTwoExtensionQuadraticField<F extends Field> extends Quadratic
         return new DegreeTwoExtensionQuadraticElement(this);
     }
 
+    // i^2 = -1 here rather than the non-residue of the target field
+    protected Element getTargetNqr() {
+        return minusOne;
+    }
+
 }
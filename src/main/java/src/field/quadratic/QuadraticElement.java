@@ -3,6 +3,7 @@ package src.field.quadratic;
 
 import src.api.Element;
 import src.field.base.AbstractPointElement;
+import src.util.ElementArena;
 
 import java.math.BigInteger;
 
@@ -116,27 +117,24 @@ public class QuadraticElement<E extends Element> extends AbstractPointElement<E,
     }
 
     public QuadraticElement square() {
-        Element e0 = x.duplicate().square();
-        Element e1 = y.duplicate().square();
-        e1.mul(field.getTargetField().getNqr());
-        e0.add(e1);
-        e1.set(x).mul(y);
-        e1.twice();
-        x.set(e0);
-        y.set(e1);
-
-        return this;
+        return field.sqr(this, this);
     }
 
     public QuadraticElement invert() {
-        Element e0 = x.duplicate().square();
-        Element e1 = y.duplicate().square();
-        e1.mul(field.getTargetField().getNqr());
-        e0.sub(e1);
-        e0.invert();
-        x.mul(e0);
-        e0.negate();
-        y.mul(e0);
+        ElementArena arena = ElementArena.get();
+        int mark = arena.mark();
+        try {
+            Element e0 = arena.acquire(field.getTargetField()).set(x).square();
+            Element e1 = arena.acquire(field.getTargetField()).set(y).square();
+            e1.mul(field.getTargetField().getNqr());
+            e0.sub(e1);
+            e0.invert();
+            x.mul(e0);
+            e0.negate();
+            y.mul(e0);
+        } finally {
+            arena.reset(mark);
+        }
 
         return this;
     }
@@ -167,20 +165,7 @@ public class QuadraticElement<E extends Element> extends AbstractPointElement<E,
     }
 
     public QuadraticElement mul(Element e) {
-        QuadraticElement element = (QuadraticElement) e;
-
-        Element e0 = x.duplicate().add(y);
-        Element e1 = element.x.duplicate().add(element.y);
-        Element e2 = e0.duplicate().mul(e1);
-
-        e0.set(x).mul(element.x);
-        e1.set(y).mul(element.y);
-        
-        x.set(e1).mul(field.getTargetField().getNqr()).add(e0);
-        e2.sub(e0);
-        y.set(e2).sub(e1);
-
-        return this;
+        return field.mul(this, this, e);
     }
 
     public QuadraticElement mul(BigInteger n) {
@@ -207,22 +192,34 @@ public class QuadraticElement<E extends Element> extends AbstractPointElement<E,
     }
 
     public QuadraticElement sqrt() {
+        // Complex method: for a = x + y*i with i^2 = nqr, sqrt(a) = c + d*i where
+        // c^2 = (x +- sqrt(x^2 - nqr*y^2)) / 2, whichever is a square, and d = y / 2c.
+        // That is two square roots in the base field, one Legendre symbol and one inversion.
+        Element nqr = field.getTargetField().getNqr();
+
+        if (y.isZero()) {
+            if (x.isSqr())
+                x.sqrt();
+            else {
+                // x = (d*i)^2 = d^2 * nqr
+                y.set(x).div(nqr).sqrt();
+                x.setToZero();
+            }
+            return this;
+        }
+
         Element e0 = x.duplicate().square();
         Element e1 = y.duplicate().square();
-        e1.mul(field.getTargetField().getNqr());
+        e1.mul(nqr);
         e0.sub(e1);
         e0.sqrt();
-        e1.set(x).add(e0);
-
-        Element e2 = x.getField().newElement().set(2).invert();
-        e1.mul(e2);
+        e1.set(x).add(e0).halve();
 
         if (!e1.isSqr())
             e1.sub(e0);
 
         e0.set(e1).sqrt();
-        e1.set(e0).add(e0);
-        e1.invert();
+        e1.set(e0).twice().invert();
         y.mul(e1);
         x.set(e0);
 
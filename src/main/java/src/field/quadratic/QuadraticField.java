@@ -1,8 +1,14 @@
 package src.field.quadratic;
 
 
+import src.api.Element;
 import src.api.Field;
 import src.field.base.AbstractFieldOver;
+import src.field.z.AbstractZElement;
+import src.field.z.ZrField;
+import src.util.ElementArena;
+import src.util.metrics.OperationCounters;
+import src.util.metrics.OperationCounters.Op;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
@@ -13,12 +19,19 @@ import java.security.SecureRandom;
 public class QuadraticField<F extends Field, E extends QuadraticElement> extends AbstractFieldOver<F, E> {
     protected BigInteger order;
     protected int fixedLengthInBytes;
+    // the non-residue of the target field that i^2 equals, looked up once
+    private volatile Element targetNqr;
+    // over a prime field: its order, and the non-residue as the signed value of least magnitude, for the
+    // arithmetic on BigIntegers that reduces once per coefficient; null otherwise
+    private final BigInteger q;
+    private volatile BigInteger nqrValue;
 
 
     public QuadraticField(SecureRandom random, F targetField) {
         super(random, targetField);
 
         this.order = targetField.getOrder().multiply(targetField.getOrder());
+        this.q = targetField instanceof ZrField ? targetField.getOrder() : null;
 
         if (targetField.getLengthInBytes() < 0) {
             //f->length_in_bytes = fq_length_in_bytes;
@@ -44,5 +57,176 @@ public class QuadraticField<F extends Field, E extends QuadraticElement> extends
     public int getLengthInBytes() {
         return fixedLengthInBytes;
     }
+
+    public E add(E out, Element a, Element b) {
+        QuadraticElement qa = (QuadraticElement) a, qb = (QuadraticElement) b;
+        targetField.add(out.getX(), qa.getX(), qb.getX());
+        targetField.add(out.getY(), qa.getY(), qb.getY());
+
+        return out;
+    }
+
+    public E sub(E out, Element a, Element b) {
+        QuadraticElement qa = (QuadraticElement) a, qb = (QuadraticElement) b;
+        targetField.sub(out.getX(), qa.getX(), qb.getX());
+        targetField.sub(out.getY(), qa.getY(), qb.getY());
+
+        return out;
+    }
+
+    public E mul(E out, Element a, Element b) {
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP2_MUL);
+        if (q != null)
+            return mulLazy(out, a, b, null);
+
+        QuadraticElement qa = (QuadraticElement) a, qb = (QuadraticElement) b;
+
+        ElementArena arena = ElementArena.get();
+        int mark = arena.mark();
+        try {
+            // Karatsuba: the three products are taken before out, which may be a or b, is written
+            Element e0 = targetField.mul(arena.acquire(targetField), qa.getX(), qb.getX());
+            Element e1 = targetField.mul(arena.acquire(targetField), qa.getY(), qb.getY());
+            Element e2 = targetField.add(arena.acquire(targetField), qa.getX(), qa.getY());
+            Element e3 = targetField.add(arena.acquire(targetField), qb.getX(), qb.getY());
+            targetField.mul(e2, e2, e3);
+
+            // x = x1 x2 + nqr y1 y2, y = (x1 + y1)(x2 + y2) - x1 x2 - y1 y2
+            targetField.mulAdd(out.getX(), e1, getTargetNqr(), e0);
+            targetField.sub(out.getY(), targetField.sub(e2, e2, e0), e1);
+        } finally {
+            arena.reset(mark);
+        }
+
+        return out;
+    }
+
+    public E sqr(E out, Element a) {
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP2_SQUARE);
+        if (q != null)
+            return sqrLazy(out, a);
+
+        QuadraticElement qa = (QuadraticElement) a;
+
+        ElementArena arena = ElementArena.get();
+        int mark = arena.mark();
+        try {
+            Element e0 = targetField.sqr(arena.acquire(targetField), qa.getX());
+            Element e1 = targetField.sqr(arena.acquire(targetField), qa.getY());
+            Element e2 = targetField.mul(arena.acquire(targetField), qa.getX(), qa.getY());
+
+            // x = x^2 + nqr y^2, y = 2 x y
+            targetField.mulAdd(out.getX(), e1, getTargetNqr(), e0);
+            out.getY().set(e2).twice();
+        } finally {
+            arena.reset(mark);
+        }
+
+        return out;
+    }
+
+    /**
+     * Inverts a = x + y i as (x - y i) / (x^2 - nqr y^2), so the shared inversion and the multiplications of
+     * Montgomery's trick run on the norms in the target field.
+     */
+    public Element[] invert(Element[] elements) {
+        Element[] norms = new Element[elements.length];
+        Element t = targetField.newElement();
+        for (int i = 0; i < elements.length; i++) {
+            QuadraticElement e = (QuadraticElement) elements[i];
+            norms[i] = targetField.sqr(targetField.newElement(), e.getX());
+            targetField.sub(norms[i], norms[i], targetField.mul(t, targetField.sqr(t, e.getY()), getTargetNqr()));
+        }
+
+        // only zero has norm zero, and it stays zero below
+        targetField.invert(norms);
+        for (int i = 0; i < elements.length; i++) {
+            QuadraticElement e = (QuadraticElement) elements[i];
+            targetField.mul(e.getX(), e.getX(), norms[i]);
+            targetField.mul(e.getY(), e.getY(), norms[i]).negate();
+        }
+
+        return elements;
+    }
+
+    public E mulAdd(E out, Element a, Element b, Element c) {
+        if (q == null)
+            return super.mulAdd(out, a, b, c);
+
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP2_MUL);
+        return mulLazy(out, a, b, c);
+    }
+
+    /**
+     * out = a b (+ c), over a prime field. The three products of Karatsuba stay unreduced, below 4 q^2, and
+     * each coefficient of out, a signed sum below (|nqr| + 4) q^2 + q, takes a single mod instead of the four
+     * reductions of the products and sums. BigIntegers do not overflow, so that is all the bound there is to
+     * keep: nothing unreduced leaves this method.
+     */
+    private E mulLazy(E out, Element a, Element b, Element c) {
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP_MUL, 3);
+        QuadraticElement qa = (QuadraticElement) a, qb = (QuadraticElement) b;
+        BigInteger ax = valueOf(qa.getX()), ay = valueOf(qa.getY());
+        BigInteger bx = valueOf(qb.getX()), by = valueOf(qb.getY());
+
+        BigInteger e0 = ax.multiply(bx);
+        BigInteger e1 = ay.multiply(by);
+        BigInteger e2 = ax.add(ay).multiply(bx.add(by));
+
+        // x = x1 x2 + nqr y1 y2, y = (x1 + y1)(x2 + y2) - x1 x2 - y1 y2
+        BigInteger x = e0.add(e1.multiply(getNqrValue()));
+        BigInteger y = e2.subtract(e0).subtract(e1);
+        if (c != null) {
+            QuadraticElement qc = (QuadraticElement) c;
+            x = x.add(valueOf(qc.getX()));
+            y = y.add(valueOf(qc.getY()));
+        }
+
+        ((AbstractZElement) out.getX()).value = x.mod(q);
+        ((AbstractZElement) out.getY()).value = y.mod(q);
+
+        return out;
+    }
+
+    /**
+     * out = a^2 over a prime field with two products: x = (x + y)(x + nqr y) - (1 + nqr) x y, y = 2 x y, each
+     * reduced once.
+     */
+    private E sqrLazy(E out, Element a) {
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP_MUL, 2);
+        QuadraticElement qa = (QuadraticElement) a;
+        BigInteger ax = valueOf(qa.getX()), ay = valueOf(qa.getY());
+        BigInteger nqr = getNqrValue();
+
+        BigInteger t = ax.multiply(ay);
+        BigInteger x = ax.add(ay).multiply(ax.add(ay.multiply(nqr))).subtract(t.multiply(nqr.add(BigInteger.ONE)));
+
+        ((AbstractZElement) out.getX()).value = x.mod(q);
+        ((AbstractZElement) out.getY()).value = t.shiftLeft(1).mod(q);
+
+        return out;
+    }
+
+    private static BigInteger valueOf(Element e) {
+        return ((AbstractZElement) e).value;
+    }
+
+    private BigInteger getNqrValue() {
+        BigInteger nqr = nqrValue;
+        if (nqr == null) {
+            nqr = getTargetNqr().toBigInteger();
+            if (nqr.compareTo(q.shiftRight(1)) > 0)
+                nqr = nqr.subtract(q);
+            nqrValue = nqr;
+        }
+        return nqr;
+    }
+
+    protected Element getTargetNqr() {
+        Element nqr = targetNqr;
+        if (nqr == null)
+            targetNqr = nqr = targetField.getNqr();
+        return nqr;
+    }
     
 }
\ No newline at end of file
@@ -4,6 +4,8 @@ package src.field.z;
 import src.api.Element;
 import src.util.Arrays;
 import src.util.math.BigIntegerUtils;
+import src.util.metrics.OperationCounters;
+import src.util.metrics.OperationCounters.Op;
 
 import java.math.BigInteger;
 
@@ -12,6 +14,9 @@ import java.math.BigInteger;
  */
 public class ZrElement<F extends ZrField> extends AbstractZElement<F> {
 
+    // mul(int) reduces by repeated subtraction up to this multiplier
+    private static final int SMALL_MULTIPLIER = 4;
+
     protected BigInteger order;
 
 
@@ -51,7 +56,9 @@ public class ZrElement<F extends ZrField> extends AbstractZElement<F> {
     }
 
     public ZrElement set(Element value) {
-        this.value = value.toBigInteger().mod(order);
+        // copying an element of this field, the common case, needs no reduction
+        BigInteger v = value.toBigInteger();
+        this.value = v.signum() >= 0 && v.compareTo(order) < 0 ? v : v.mod(order);
 
         return this;
     }
@@ -78,13 +85,20 @@ public class ZrElement<F extends ZrField> extends AbstractZElement<F> {
 
     public ZrElement twice() {
 //        this.value = value.multiply(BigIntegerUtils.TWO).mod(order);
-        this.value = value.add(value).mod(order);
+        this.value = ZrField.reduce(value.shiftLeft(1), order);
 
         return this;
     }
 
     public ZrElement mul(int z) {
-        this.value = this.value.multiply(BigInteger.valueOf(z)).mod(order);
+        BigInteger v = this.value.multiply(BigInteger.valueOf(z));
+        if (z >= 0 && z <= SMALL_MULTIPLIER) {
+            // at most SMALL_MULTIPLIER - 1 subtractions are cheaper than a division
+            while (v.compareTo(order) >= 0)
+                v = v.subtract(order);
+            this.value = v;
+        } else
+            this.value = v.mod(order);
 
         return this;
     }
@@ -158,6 +172,7 @@ public class ZrElement<F extends ZrField> extends AbstractZElement<F> {
     }
 
     public ZrElement square() {
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP_SQUARE);
 //        value = value.modPow(BigIntegerUtils.TWO, order);
         value = value.multiply(value).mod(order);
 
@@ -165,6 +180,7 @@ public class ZrElement<F extends ZrField> extends AbstractZElement<F> {
     }
 
     public ZrElement invert() {
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP_INVERT);
         try {
             value = value.modInverse(order);
         } catch (Exception e) {
@@ -176,7 +192,13 @@ public class ZrElement<F extends ZrField> extends AbstractZElement<F> {
     }
 
     public ZrElement halve() {
-        value = value.multiply(((ZrField) field).twoInverse).mod(order);
+        // v / 2 is v >> 1 for even v and (v + order) >> 1 for odd v when order is odd
+        if (!value.testBit(0))
+            value = value.shiftRight(1);
+        else if (order.testBit(0))
+            value = value.add(order).shiftRight(1);
+        else
+            value = value.multiply(((ZrField) field).twoInverse).mod(order);
 
         return this;
     }
@@ -193,24 +215,31 @@ public class ZrElement<F extends ZrField> extends AbstractZElement<F> {
     }
 
     public ZrElement add(Element element) {
-        value = value.add(((AbstractZElement)element).value).mod(order);
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP_ADD);
+        value = ZrField.reduce(value.add(((AbstractZElement)element).value), order);
 
         return this;
     }
 
     public ZrElement sub(Element element) {
-        value = value.subtract(((ZrElement)element).value).mod(order);
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP_ADD);
+        value = ZrField.reduce(value.subtract(((ZrElement)element).value), order);
 
         return this;
     }
 
     public ZrElement div(Element element) {
+        if (OperationCounters.ENABLED) {
+            OperationCounters.count(Op.FP_INVERT);
+            OperationCounters.count(Op.FP_MUL);
+        }
         value = value.multiply(((ZrElement)element).value.modInverse(order)).mod(order);
 
         return this;
     }
 
     public ZrElement mul(Element element) {
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP_MUL);
         value = value.multiply(((AbstractZElement)element).value).mod(order);
 
         return this;
@@ -233,6 +262,20 @@ public class ZrElement<F extends ZrField> extends AbstractZElement<F> {
     }
 
     public ZrElement sqrt() {
+        switch (field.sqrtMethod) {
+            case ZrField.SQRT_3_MOD_4:
+                value = value.modPow(field.sqrtExponent, order);
+                return this;
+
+            case ZrField.SQRT_5_MOD_8:
+                // Atkin: b = (2a)^((q-5)/8), i = 2ab^2 (so i^2 = -1), sqrt(a) = ab(i - 1)
+                BigInteger twoA = value.shiftLeft(1).mod(order);
+                BigInteger b = twoA.modPow(field.sqrtExponent, order);
+                BigInteger i = twoA.multiply(b).multiply(b).mod(order);
+                value = value.multiply(b).multiply(i.subtract(BigInteger.ONE)).mod(order);
+                return this;
+        }
+
         // Apply the Tonelli-Shanks Algorithm
 
         Element e0 = field.newElement();
@@ -1,8 +1,11 @@
 package src.field.z;
 
 
+import src.api.Element;
 import src.field.base.AbstractField;
 import src.util.math.BigIntegerUtils;
+import src.util.metrics.OperationCounters;
+import src.util.metrics.OperationCounters.Op;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
@@ -11,10 +14,18 @@ import java.security.SecureRandom;
  * @author Angelo De Caro (jpbclib@gmail.com)
  */
 public class ZrField extends AbstractField<ZrElement> {
+    static final int SQRT_TONELLI_SHANKS = 0;
+    static final int SQRT_3_MOD_4 = 1;
+    static final int SQRT_5_MOD_8 = 2;
+
     protected BigInteger order;
     protected ZrElement nqr;
     protected int fixedLengthInBytes;
     protected BigInteger twoInverse;
+    // sqrt shortcut chosen from the order: q = 3 mod 4 uses a^((q+1)/4), q = 5 mod 8 uses Atkin's method
+    // with exponent (q-5)/8, anything else falls back to Tonelli-Shanks
+    protected int sqrtMethod;
+    protected BigInteger sqrtExponent;
 
 
     public ZrField(BigInteger order) {
@@ -38,6 +49,15 @@ public class ZrField extends AbstractField<ZrElement> {
 
         this.twoInverse = BigIntegerUtils.TWO.modInverse(order);
 
+        if (orderIsOdd && order.testBit(1)) {
+            this.sqrtMethod = SQRT_3_MOD_4;
+            this.sqrtExponent = order.add(BigInteger.ONE).shiftRight(2);
+        } else if (orderIsOdd && order.testBit(2) && !order.testBit(1)) {
+            this.sqrtMethod = SQRT_5_MOD_8;
+            this.sqrtExponent = order.subtract(BigInteger.valueOf(5)).shiftRight(3);
+        } else
+            this.sqrtMethod = SQRT_TONELLI_SHANKS;
+
         if (nqr != null)
             this.nqr = newElement().set(nqr);
     }
@@ -66,5 +86,60 @@ public class ZrField extends AbstractField<ZrElement> {
     public int getLengthInBytes() {
         return fixedLengthInBytes;
     }
-    
-}
\ No newline at end of file
+
+    public ZrElement add(ZrElement out, Element a, Element b) {
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP_ADD);
+        out.value = reduce(((AbstractZElement) a).value.add(((AbstractZElement) b).value), order);
+
+        return out;
+    }
+
+    public ZrElement sub(ZrElement out, Element a, Element b) {
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP_ADD);
+        out.value = reduce(((AbstractZElement) a).value.subtract(((AbstractZElement) b).value), order);
+
+        return out;
+    }
+
+    public ZrElement mul(ZrElement out, Element a, Element b) {
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP_MUL);
+        out.value = ((AbstractZElement) a).value.multiply(((AbstractZElement) b).value).mod(order);
+
+        return out;
+    }
+
+    public ZrElement sqr(ZrElement out, Element a) {
+        if (OperationCounters.ENABLED) OperationCounters.count(Op.FP_SQUARE);
+        BigInteger v = ((AbstractZElement) a).value;
+        out.value = v.multiply(v).mod(order);
+
+        return out;
+    }
+
+    public ZrElement mulAdd(ZrElement out, Element a, Element b, Element c) {
+        if (OperationCounters.ENABLED) {
+            OperationCounters.count(Op.FP_MUL);
+            OperationCounters.count(Op.FP_ADD);
+        }
+        // one reduction for the product and the sum
+        out.value = ((AbstractZElement) a).value.multiply(((AbstractZElement) b).value)
+                .add(((AbstractZElement) c).value).mod(order);
+
+        return out;
+    }
+
+    /**
+     * Reduces v modulo order. v is normally a sum or difference of two reduced values, in (-order, 2 order),
+     * which takes one addition or subtraction instead of a division; anything further out falls back to mod.
+     */
+    static BigInteger reduce(BigInteger v, BigInteger order) {
+        if (v.signum() < 0)
+            v = v.add(order);
+        else if (v.compareTo(order) >= 0)
+            v = v.subtract(order);
+        else
+            return v;
+
+        return v.signum() >= 0 && v.compareTo(order) < 0 ? v : v.mod(order);
+    }
+}
@@ -11,6 +11,7 @@ import src.field.poly.PolyModElement;
 import src.field.poly.PolyModField;
 import src.field.quadratic.QuadraticField;
 import src.field.z.ZrField;
+import src.pairing.f.parameters.PropertiesParameters;
 import src.util.math.BigIntegerUtils;
 
 import java.math.BigInteger;
@@ -140,13 +141,18 @@ public class TypeFPairing extends AbstractPairing {
         etwist = initEqMap();
 
         // ndonr temporarily holds the trace.
-        BigInteger ndonr = q.subtract(r).add(BigInteger.ONE);
-
-        // TODO: We can use a smaller quotientCmp, but I have to figure out
-        // BN curves again.
-        ndonr = BigIntegerUtils.pbc_mpz_curve_order_extn(q, ndonr, 12);
-        ndonr = ndonr.divide(r);
-        ndonr = ndonr.divide(r);
+        BigInteger ndonr;
+        if (curveParams.containsKey("ndonr")) {
+            ndonr = curveParams.getBigInteger("ndonr");
+        } else {
+            ndonr = q.subtract(r).add(BigInteger.ONE);
+
+            // TODO: We can use a smaller quotientCmp, but I have to figure out
+            // BN curves again.
+            ndonr = BigIntegerUtils.pbc_mpz_curve_order_extn(q, ndonr, 12);
+            ndonr = ndonr.divide(r);
+            ndonr = ndonr.divide(r);
+        }
         etwist.setQuotientCmp(ndonr);
 
         /*
@@ -156,19 +162,29 @@ public class TypeFPairing extends AbstractPairing {
         */
         tateExp = q.multiply(q).subtract(BigInteger.ONE).multiply(q).multiply(q).add(BigInteger.ONE).divide(r);
 
-        PolyModElement polyModElement = Fq12.newElement();
-        polyModElement.getCoefficient(1).setToOne();
-        polyModElement.pow(q);
-        polyModElement.pow(q);
-        xPowq2 = polyModElement.getCoefficient(1).duplicate();
-        polyModElement.pow(q);
-        polyModElement.pow(q);
-        polyModElement.pow(q);
-        polyModElement.pow(q);
-        xPowq6 = polyModElement.getCoefficient(1).duplicate();
-        polyModElement.pow(q);
-        polyModElement.pow(q);
-        xPowq8 = polyModElement.getCoefficient(1).duplicate();
+        if (curveParams.containsKey("xPowq2")) {
+            // Frobenius constants saved by getDerivedParameters()
+            xPowq2 = Fq4.newElement();
+            xPowq2.setFromBytes(curveParams.getBytes("xPowq2"));
+            xPowq6 = Fq4.newElement();
+            xPowq6.setFromBytes(curveParams.getBytes("xPowq6"));
+            xPowq8 = Fq4.newElement();
+            xPowq8.setFromBytes(curveParams.getBytes("xPowq8"));
+        } else {
+            PolyModElement polyModElement = Fq12.newElement();
+            polyModElement.getCoefficient(1).setToOne();
+            polyModElement.pow(q);
+            polyModElement.pow(q);
+            xPowq2 = polyModElement.getCoefficient(1).duplicate();
+            polyModElement.pow(q);
+            polyModElement.pow(q);
+            polyModElement.pow(q);
+            polyModElement.pow(q);
+            xPowq6 = polyModElement.getCoefficient(1).duplicate();
+            polyModElement.pow(q);
+            polyModElement.pow(q);
+            xPowq8 = polyModElement.getCoefficient(1).duplicate();
+        }
 
         // Init G1, G2, GT
         G1 = Eq;
@@ -207,6 +223,23 @@ public class TypeFPairing extends AbstractPairing {
         return new GTFiniteField(random, r, pairingMap, Fq12);
     }
 
+    /**
+     * The curve parameters together with the constants initFields() derives from them: the quotientCmp of the
+     * twist ("ndonr") and the Frobenius constants x^(q^2), x^(q^6), x^(q^8). A pairing built from the result
+     * skips those computations.
+     */
+    public PropertiesParameters getDerivedParameters() {
+        PropertiesParameters params = new PropertiesParameters();
+        for (String key : new String[]{"type", "x", "q", "r", "b", "beta", "alpha0", "alpha1"})
+            params.put(key, curveParams.getString(key));
+        params.put("ndonr", etwist.getQuotientCmp().toString());
+        params.putBytes("xPowq2", xPowq2.toBytes());
+        params.putBytes("xPowq6", xPowq6.toBytes());
+        params.putBytes("xPowq8", xPowq8.toBytes());
+        return params;
+    }
+
+    public Field getFq(){return Fq;}
     public  PolyModField getFp12(){return Fq12;}
     public PolyModField getFq4(){return Fq4;}
     public Field getFq2(){return Fq2;}
@@ -3,6 +3,7 @@ package src.pairing.f;
 import com.sun.xml.internal.bind.v2.model.core.EnumLeafInfo;
 import mcl.bn254.Fp;
 import src.api.Element;
+import src.api.Field;
 import src.api.Pairing;
 import src.api.Point;
 import src.api.Polynomial;
@@ -10,6 +11,8 @@ import src.field.gt.GTFiniteElement;
 import src.field.gt.GTFiniteField;
 import src.field.poly.PolyModField;
 import src.pairing.f.map.AbstractPairingMap;
+import src.util.ElementArena;
+import src.util.metrics.OperationCounters;
 
 import java.math.BigInteger;
 
@@ -19,42 +22,86 @@ import java.math.BigInteger;
 public class TypeFRatePairingMap extends AbstractPairingMap{
 
     private TypeFPairing pairingdata;
+    // (q^8 + q^6 - q^2 - 1), the easy part of the final exponent; the hard part is pairingdata.tateExp
+    private final BigInteger easyExp;
+    // 6x + 2, the Miller loop count
+    private final BigInteger loopCount;
+    // the Frobenius constants of fobasmiracl, {r, w} with r = u^-((q-1)/6) and w = r^2; computed on first use
+    // because the map is created before the fields of the pairing
+    private volatile Element[] frobenius;
 
     public TypeFRatePairingMap(TypeFPairing pairing){
         super(pairing);
         this.pairingdata=pairing;
+        BigInteger q=pairing.q;
+        this.easyExp=q.pow(8).add(q.pow(6)).subtract(q.pow(2)).subtract(BigInteger.ONE);
+        this.loopCount=pairing.x.multiply(BigInteger.valueOf(6)).add(BigInteger.valueOf(2));
     }
 
     public Element pairing(Point P, Point Q) {
+        OperationCounters.Scope scope=OperationCounters.enter("pairing");
+        try {
+            return doPairing(P, Q);
+        } finally {
+            scope.exit();
+        }
+    }
 
-        BigInteger a=pairingdata.x.multiply(BigInteger.valueOf(6)).add(BigInteger.valueOf(2));
+    private Element doPairing(Point P, Point Q) {
+        Element e=finalExponentiation(millerLoop(P,Q));
+
+        return new GTFiniteElement(this,(GTFiniteField) pairingdata.getGT(),e);
+    }
+
+    /**
+     * The Miller loop of the R-ate pairing on 6x+2, with the two Frobenius line steps at its end.
+     *
+     * @param P point at E(Fp)
+     * @param Q point at E(Fp2)
+     * @return the Fq12 value still to be raised by {@link #finalExponentiation(Element)}
+     */
+    public Polynomial millerLoop(Point P, Point Q) {
+
+        BigInteger a=loopCount;
 
         Point t=(Point) Q.duplicate();
         Polynomial f=(Polynomial) pairingdata.Fq12.newOneElement();
 
-          for (int i=a.bitLength()-2;i>=0;i--){
-            f.square();
-              f.mul(line(t,P));
-              t.add(t);
-            if(a.testBit(i)){
-                f.mul(line(t,Q,P));
-                t.add(Q);
+        ElementArena arena=ElementArena.get();
+        int mark=arena.mark();
+        try {
+            // every line value is written into l
+            Polynomial l=(Polynomial) arena.acquire(pairingdata.Fq12);
+
+            for (int i=a.bitLength()-2;i>=0;i--){
+                f.square();
+                f.mul(line(l,t,P));
+                t.add(t);
+                if(a.testBit(i)){
+                    f.mul(line(l,t,Q,P));
+                    t.add(Q);
+                }
             }
-        }
-
 
-        Point Q11=fobasmiracl(Q);
-        Point Q22=fobasmiracl(Q11);
-        f.mul(line(t,Q11,P));
-        t.add(Q11);
-        f.mul(line(t,(Point) Q22.negate(),P));
-        t.add(Q22);
-        BigInteger q=pairingdata.q;
-        Element e=f.duplicate().pow(q.pow(8).add(q.pow(6)).subtract(q.pow(2)).subtract(BigInteger.ONE)).pow(pairingdata.tateExp);
 
-        return new GTFiniteElement(this,(GTFiniteField) pairingdata.getGT(),e);
+            Point Q11=fobasmiracl(Q);
+            Point Q22=fobasmiracl(Q11);
+            f.mul(line(l,t,Q11,P));
+            t.add(Q11);
+            f.mul(line(l,t,(Point) Q22.negate(),P));
+            t.add(Q22);
+        } finally {
+            arena.reset(mark);
+        }
 
+        return f;
+    }
 
+    /**
+     * Raises the output of {@link #millerLoop(Point, Point)} to (q^12 - 1) / r, leaving f untouched.
+     */
+    public Element finalExponentiation(Element f) {
+        return f.duplicate().pow(easyExp).pow(pairingdata.tateExp);
     }
 
 
@@ -98,66 +145,68 @@ public class TypeFRatePairingMap extends AbstractPairingMap{
      * @return Fp12 Element
      */
     public Element line(Point A, Point B, Point C){
-        Element ax=A.getX().duplicate();
-        Element ay=A.getY().duplicate();
-        Element bx=B.getX().duplicate();
-        Element by=B.getY().duplicate();
-        Element cx=C.getX().duplicate();
-        Element cy=C.getY().duplicate();
-        Point lamda=(Point) ax.getField().newElement();
-        lamda=(Point)ay.duplicate().sub(by).div(ax.duplicate().sub(bx));
-        Element cof3=by.duplicate().sub(lamda.duplicate().mul(bx));
-        Element cof5=lamda.duplicate().mulZn(cx);
-
-        Polynomial result=pairingdata.Fq12.newElement();
-        Element betaInvert=pairingdata.negAlphaInv;
-
-        Point tempfp2=(Point)ax.getField().newElement();
-        tempfp2.getX().set(cy.negate());
-        tempfp2.getY().setToZero();
-
-//        result.getCoefficient(0).set(tempfp2);
-//        result.getCoefficient(3).set(cof3.mul(betaInvert));
-//        result.getCoefficient(5).set(cof5.mul(betaInvert));
-//        result.getCoefficient(0).set(tempfp2.mul(pairingdata.negAlpha));
-//        result.getCoefficient(3).set(cof3);
-//        result.getCoefficient(5).set(cof5);
-        Polynomial r0=(Polynomial) result.getCoefficient(0);
-        Polynomial r2=(Polynomial) result.getCoefficient(2);
-        r0.getCoefficient(0).set(tempfp2);
-        r0.getCoefficient(1).set(cof3.mul(betaInvert));
-        r2.getCoefficient(1).set(cof5.mul(betaInvert));
-        return result;
+        return line(pairingdata.Fq12.newElement(),A,B,C);
     }
 
     public Element line(Point A,Point C){
-        Element ax=A.getX().duplicate();
-        Element ay=A.getY().duplicate();
-        Element cx=C.getX().duplicate();
-        Element cy=C.getY().duplicate();
+        return line(pairingdata.Fq12.newElement(),A,C);
+    }
 
-       Element lamda= ax.getField().newElement();
-       lamda=ax.duplicate().square().mul(3).div(ay.duplicate().mul(2));
+    /**
+     * The line through A and B evaluated at C, written into result.
+     */
+    private Polynomial line(Polynomial result, Point A, Point B, Point C){
+        ElementArena arena=ElementArena.get();
+        int mark=arena.mark();
+        try {
+            Field fq2=A.getX().getField();
+            // lamda = (ay - by) / (ax - bx)
+            Element lamda=fq2.sub(arena.acquire(fq2),A.getX(),B.getX()).invert();
+            Element t=fq2.sub(arena.acquire(fq2),A.getY(),B.getY());
+            fq2.mul(lamda,lamda,t);
+            // cof3 = by - lamda bx
+            Element cof3=fq2.sub(t,B.getY(),fq2.mul(t,lamda,B.getX()));
+            return setLine(result,C,lamda,cof3);
+        } finally {
+            arena.reset(mark);
+        }
+    }
 
-       Element cof3=ay.duplicate().sub(lamda.duplicate().mul(ax));
-       Element cof5=lamda.duplicate().mulZn(cx);
+    /**
+     * The tangent at A evaluated at C, written into result.
+     */
+    private Polynomial line(Polynomial result, Point A, Point C){
+        ElementArena arena=ElementArena.get();
+        int mark=arena.mark();
+        try {
+            Field fq2=A.getX().getField();
+            // lamda = 3 ax^2 / 2 ay
+            Element lamda=fq2.add(arena.acquire(fq2),A.getY(),A.getY()).invert();
+            Element t=fq2.sqr(arena.acquire(fq2),A.getX()).mul(3);
+            fq2.mul(lamda,lamda,t);
+            // cof3 = ay - lamda ax
+            Element cof3=fq2.sub(t,A.getY(),fq2.mul(t,lamda,A.getX()));
+            return setLine(result,C,lamda,cof3);
+        } finally {
+            arena.reset(mark);
+        }
+    }
 
-       Polynomial result=pairingdata.Fq12.newElement();
-       Element betaInvert=pairingdata.negAlphaInv;
+    /**
+     * Writes the sparse line value, -cy and cof3 / -alpha in the first Fq4 coefficient and lamda cx / -alpha in
+     * the third, into result; lamda is overwritten.
+     */
+    private Polynomial setLine(Polynomial result, Point C, Element lamda, Element cof3){
+        Element betaInvert=pairingdata.negAlphaInv;
+        Field fq2=lamda.getField();
 
-       Point tempfp2=(Point)ax.getField().newElement();
-       tempfp2.getX().set(cy.negate());
-       tempfp2.getY().setToZero();
-//        result.getCoefficient(0).set(tempfp2);
-//       result.getCoefficient(3).set(cof3.mul(betaInvert));
-//       result.getCoefficient(5).set(cof5.mul(betaInvert));
+        result.setToZero();
         Polynomial r0=(Polynomial) result.getCoefficient(0);
         Polynomial r2=(Polynomial) result.getCoefficient(2);
-        r0.getCoefficient(0).set(tempfp2);
-        r0.getCoefficient(1).set(cof3.mul(betaInvert));
-        r2.getCoefficient(1).set(cof5.mul(betaInvert));
+        ((Point) r0.getCoefficient(0)).getX().set(C.getY()).negate();
+        fq2.mul(r0.getCoefficient(1),cof3,betaInvert);
+        fq2.mul(r2.getCoefficient(1),lamda.mulZn(C.getX()),betaInvert);
         return result;
-
     }
 
     public Element lineasFp12(Point A, Point C){
@@ -214,33 +263,35 @@ public class TypeFRatePairingMap extends AbstractPairingMap{
     }
 
     public Point fobasmiracl(Point point){
-        Point px=(Point) point.getX().duplicate();
-        Point py=(Point)point.getY().duplicate();
+        Element[] frobenius=frobeniusConstants();
 
-       BigInteger q= pairingdata.q;
-       //x the frob constant
-       Point x=(Point) pairingdata.Fq2.newElement();
-       x.getX().setToZero();
-       x.getY().setToOne();
-      // System.out.println(q.subtract(BigInteger.ONE).divide(BigInteger.valueOf(6)).toString(16));
-       x.pow(q.subtract(BigInteger.ONE).divide(BigInteger.valueOf(6)));
+        // duplicate keeps point's infinity flag, which a new element would not
+        Point result=(Point) point.duplicate();
 
-       Point w,r;
-       r=(Point)x.duplicate().invert();
-       w=(Point)r.duplicate().square();
-
-       px.getY().negate();
-       px.mul(w);
-
-       py.getY().negate();
-       py.mul(w).mul(r);
-
-       Point result=(Point) point.getField().newRandomElement();
-       result.getX().set(px);
-       result.getY().set(py);
-       return result;
+        Point px=(Point) result.getX();
+        px.getY().negate();
+        px.mul(frobenius[1]);
 
+        Point py=(Point) result.getY();
+        py.getY().negate();
+        py.mul(frobenius[1]).mul(frobenius[0]);
 
+        return result;
+    }
 
+    private Element[] frobeniusConstants(){
+        Element[] constants=frobenius;
+        if(constants==null){
+            BigInteger q=pairingdata.q;
+            Point x=(Point) pairingdata.Fq2.newElement();
+            x.getX().setToZero();
+            x.getY().setToOne();
+            x.pow(q.subtract(BigInteger.ONE).divide(BigInteger.valueOf(6)));
+
+            Element r=x.invert();
+            constants=new Element[]{r.getImmutable(),r.duplicate().square().getImmutable()};
+            frobenius=constants;
+        }
+        return constants;
     }
 }
@@ -0,0 +1,127 @@
+package src.pairing.f.accumulator;
+
+import src.api.Element;
+import src.api.Pairing;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes many independent pairings e(in1[i], in2[i]) in parallel and returns every GT element, where the
+ * {@link PairingAccumulator}s only return their product.
+ * <p>
+ * The index range is split in halves on a ForkJoinPool down to chunks of {@link #getChunkSize()} pairings, so
+ * idle workers steal the larger halves left by busy ones. Workers share nothing mutable: the temporaries of
+ * the pairing come from the {@link src.util.ElementArena} of the worker thread, and each result slot is written
+ * once, by the worker of its chunk. A pairing takes milliseconds, so chunks of one pairing balance the load
+ * best; larger chunks only cut the task overhead for very cheap pairings.
+ * <p>
+ * An engine built with a thread count owns its pool and {@link #close()} shuts it down; one given a pool
+ * leaves it to the caller.
+ */
+public class BatchPairingEngine implements AutoCloseable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1;
+
+    private final Pairing pairing;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final boolean ownsPool;
+
+
+    public BatchPairingEngine(Pairing pairing) {
+        this(pairing, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Runs on a pool of its own with the given number of threads, shut down by {@link #close()}.
+     */
+    public BatchPairingEngine(Pairing pairing, int threads, int chunkSize) {
+        this(pairing, new ForkJoinPool(threads), chunkSize, true);
+    }
+
+    public BatchPairingEngine(Pairing pairing, ForkJoinPool pool, int chunkSize) {
+        this(pairing, pool, chunkSize, false);
+    }
+
+    private BatchPairingEngine(Pairing pairing, ForkJoinPool pool, int chunkSize, boolean ownsPool) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunk size must be positive");
+
+        this.pairing = pairing;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.ownsPool = ownsPool;
+    }
+
+
+    /**
+     * Returns e(in1[i], in2[i]) for every i.
+     *
+     * @param in1 elements from G1.
+     * @param in2 elements from G2, as many as in1.
+     * @return elements from GT, result[i] being the pairing of in1[i] and in2[i].
+     */
+    public Element[] pairing(Element[] in1, Element[] in2) {
+        if (in1.length != in2.length)
+            throw new IllegalArgumentException("Array lengths mismatch.");
+
+        Element[] result = new Element[in1.length];
+        if (in1.length <= chunkSize) {
+            for (int i = 0; i < in1.length; i++)
+                result[i] = pairing.pairing(in1[i], in2[i]);
+        } else
+            pool.invoke(new PairingTask(in1, in2, result, 0, in1.length));
+
+        return result;
+    }
+
+    public Pairing getPairing() {
+        return pairing;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Shuts down the pool if the engine created it.
+     */
+    public void close() {
+        if (ownsPool)
+            pool.shutdown();
+    }
+
+
+    /**
+     * Splits the index range [from, to) at a chunk boundary until a single chunk is left, then pairs it.
+     */
+    private class PairingTask extends RecursiveAction {
+        private final Element[] in1, in2, result;
+        private final int from, to;
+
+        PairingTask(Element[] in1, Element[] in2, Element[] result, int from, int to) {
+            this.in1 = in1;
+            this.in2 = in2;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            int chunks = (to - from + chunkSize - 1) / chunkSize;
+            if (chunks > 1) {
+                int mid = from + (chunks / 2) * chunkSize;
+                invokeAll(new PairingTask(in1, in2, result, from, mid), new PairingTask(in1, in2, result, mid, to));
+                return;
+            }
+
+            for (int i = from; i < to; i++)
+                result[i] = pairing.pairing(in1[i], in2[i]);
+        }
+    }
+}
@@ -96,6 +96,31 @@ public class ImmutableField implements Field {
         return ElementUtils.cloneImmutable(field.add(temp, b));
     }
 
+    public Element[] invert(Element[] elements) {
+        Element[] temp = ElementUtils.duplicate(elements);
+        return ElementUtils.cloneImmutable(field.invert(temp));
+    }
+
+    public Element add(Element out, Element a, Element b) {
+        return field.add(out, a, b);
+    }
+
+    public Element sub(Element out, Element a, Element b) {
+        return field.sub(out, a, b);
+    }
+
+    public Element mul(Element out, Element a, Element b) {
+        return field.mul(out, a, b);
+    }
+
+    public Element sqr(Element out, Element a) {
+        return field.sqr(out, a);
+    }
+
+    public Element mulAdd(Element out, Element a, Element b, Element c) {
+        return field.mulAdd(out, a, b, c);
+    }
+
     public ElementPowPreProcessing getElementPowPreProcessingFromBytes(byte[] source) {
         return new ImmutableElementPowPreProcessing(this, field.getElementPowPreProcessingFromBytes(source));
     }
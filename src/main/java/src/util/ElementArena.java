@@ -0,0 +1,90 @@
+package src.util;
+
+import src.api.Element;
+import src.api.Field;
+
+/**
+ * A per-thread stack of mutable elements for the temporaries of field and curve arithmetic.
+ * <p>
+ * Code that needs temporaries takes a {@link #mark()}, {@link #acquire(Field) acquires} what it needs and
+ * resets to the mark in a finally block:
+ * <pre>
+ *   ElementArena arena = ElementArena.get();
+ *   int mark = arena.mark();
+ *   try {
+ *       Element t = arena.acquire(field).set(a).mul(b);
+ *       ...
+ *   } finally {
+ *       arena.reset(mark);
+ *   }
+ * </pre>
+ * An acquired element holds whatever value it was left with and must be set before use; it must not outlive
+ * the reset, so copy results out of it. Since the same code acquires from the same fields in the same order
+ * every time, each slot of the stack settles on one element of one field and after the first call nothing
+ * more is allocated for the temporaries; a slot asked for a different field gets a new element.
+ * <p>
+ * Only the wrapper objects are saved: the arithmetic of {@link src.field.z.ZrElement} still creates
+ * BigIntegers.
+ */
+public final class ElementArena {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final ThreadLocal<ElementArena> ARENA = new ThreadLocal<ElementArena>() {
+        @Override
+        protected ElementArena initialValue() {
+            return new ElementArena();
+        }
+    };
+
+    private Element[] stack = new Element[INITIAL_CAPACITY];
+    private int top;
+
+
+    private ElementArena() {
+    }
+
+    /**
+     * The arena of the calling thread.
+     */
+    public static ElementArena get() {
+        return ARENA.get();
+    }
+
+    public int mark() {
+        return top;
+    }
+
+    /**
+     * A mutable element of field with an undefined value, valid until the arena is reset below it.
+     */
+    public Element acquire(Field field) {
+        if (top == stack.length)
+            stack = java.util.Arrays.copyOf(stack, stack.length * 2);
+
+        Element element = stack[top];
+        if (element == null || element.getField() != field) {
+            element = field.newElement();
+            stack[top] = element;
+        }
+        top++;
+        return element;
+    }
+
+    /**
+     * Releases every element acquired since mark was taken.
+     */
+    public void reset(int mark) {
+        top = mark;
+    }
+
+    /**
+     * Number of elements held, in use or not.
+     */
+    public int size() {
+        int size = 0;
+        while (size < stack.length && stack[size] != null)
+            size++;
+        return size;
+    }
+}
@@ -1,8 +1,14 @@
 package src.util.concurrent;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Angelo De Caro (jpbclib@gmail.com)
@@ -38,6 +44,24 @@ public class ExecutorServiceUtils {
         cachedThreadPool.shutdown();
     }
 
+    /**
+     * A fixed pool of daemon threads named name-0, name-1, ... in front of a queue of at most queueCapacity
+     * tasks; tasks that do not fit go to handler.
+     */
+    public static ThreadPoolExecutor newBoundedThreadPool(final String name, int threads, int queueCapacity,
+                                                          RejectedExecutionHandler handler) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, handler);
+    }
+
 
     /**
      * @author Angelo De Caro (jpbclib@gmail.com)
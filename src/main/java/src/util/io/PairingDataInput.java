@@ -1,6 +1,8 @@
 package src.util.io;
 
 import src.api.*;
+import src.field.curve.CurveElement;
+import src.field.curve.CurveField;
 
 import java.io.DataInput;
 import java.io.IOException;
@@ -112,6 +114,28 @@ public class PairingDataInput implements DataInput {
         return elements;
     }
 
+    public CurveElement readElementCompressed(int fieldIdentifier) throws IOException {
+        CurveElement element = (CurveElement) pairing.getFieldAt(fieldIdentifier).newElement();
+        try {
+            element.setFromBytesPC(readBytes());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+        return element;
+    }
+
+    public CurveElement[] readElementsCompressed(int identifier) throws IOException {
+        int num = readInt();
+        byte[] buffer = new byte[readInt()];
+        readFully(buffer);
+
+        try {
+            return ((CurveField) pairing.getFieldAt(identifier)).newElementsFromBytesPC(buffer, 0, num);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
+        }
+    }
+
     public PairingPreProcessing readPairingPreProcessing() throws IOException {
         int size = readInt();
         byte[] buffer = new byte[size];
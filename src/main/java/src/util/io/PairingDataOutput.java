@@ -2,6 +2,7 @@ package src.util.io;
 
 
 import src.api.*;
+import src.field.curve.CurveElement;
 import src.util.Arrays;
 
 import java.io.DataOutput;
@@ -104,6 +105,30 @@ public class PairingDataOutput implements DataOutput {
         }
     }
 
+    /**
+     * Writes a curve point in its 02/03 || x form, about half of {@link #writeElement(Element)}.
+     */
+    public void writeElementCompressed(CurveElement element) throws IOException {
+        writeBytes(element.toBytesPC(true));
+    }
+
+    /**
+     * Writes the points back to back after their count and total length so that
+     * {@link PairingDataInput#readElementsCompressed(int)} can decompress them as one batch.
+     */
+    public void writeElementsCompressed(CurveElement[] elements) throws IOException {
+        writeInt(elements.length);
+        byte[][] encoded = new byte[elements.length][];
+        int length = 0;
+        for (int i = 0; i < elements.length; i++) {
+            encoded[i] = elements[i].toBytesPC(true);
+            length += encoded[i].length;
+        }
+        writeInt(length);
+        for (byte[] bytes : encoded)
+            write(bytes);
+    }
+
     public void writePreProcessing(PreProcessing processing) throws IOException {
         byte[] buffer = processing.toBytes();
 
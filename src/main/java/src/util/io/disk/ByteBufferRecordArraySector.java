@@ -0,0 +1,104 @@
+package src.util.io.disk;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Array of fixed-width raw records over a (usually memory-mapped) buffer.
+ * <p>
+ * Unlike {@link ByteBufferBigIntegerArraySector} nothing is decoded: {@link #getAt(int)} returns a view of the
+ * record sharing content with the buffer, and reads and writes use absolute positions, so disjoint records can
+ * be accessed from many threads without locking.
+ */
+public class ByteBufferRecordArraySector implements ArraySector<ByteBuffer> {
+
+    protected ByteBuffer buffer;
+    protected int offset, recordLength, numRecords;
+    protected int lengthInBytes;
+
+    protected Map<String, Integer> labelsMap;
+
+
+    public ByteBufferRecordArraySector(int recordLength, int numRecords) {
+        this.lengthInBytes = 4 + recordLength * numRecords;
+
+        this.offset = 4;
+        this.recordLength = recordLength;
+        this.numRecords = numRecords;
+    }
+
+    public ByteBufferRecordArraySector(int recordLength, int numRecords, String... labels) {
+        this(recordLength, numRecords);
+
+        labelsMap = new HashMap<String, Integer>(labels.length);
+        for (int i = 0; i < labels.length; i++) {
+            labelsMap.put(labels[i], i);
+        }
+    }
+
+
+    public int getLengthInBytes() {
+        return lengthInBytes;
+    }
+
+    public int getSize() {
+        return numRecords;
+    }
+
+    public int getRecordLength() {
+        return recordLength;
+    }
+
+    public ArraySector<ByteBuffer> mapTo(Mode mode, ByteBuffer buffer) {
+        this.buffer = buffer;
+
+        switch (mode) {
+            case INIT:
+                buffer.putInt(0, numRecords);
+                break;
+            case READ:
+                if (buffer.getInt(0) != numRecords)
+                    throw new IllegalStateException("Sector holds " + buffer.getInt(0) + " records, expected " + numRecords);
+                break;
+            default:
+                throw new IllegalStateException("Invalid mode!");
+        }
+
+        return this;
+    }
+
+    /**
+     * Returns a view of the record; writing to it writes through to the sector.
+     */
+    public ByteBuffer getAt(int index) {
+        ByteBuffer record = buffer.duplicate();
+        int position = offset + index * recordLength;
+        record.limit(position + recordLength).position(position);
+        return record.slice();
+    }
+
+    /**
+     * Copies value.remaining() bytes, at most one record, into the record without moving value.
+     */
+    public void setAt(int index, ByteBuffer value) {
+        if (value.remaining() > recordLength)
+            throw new IllegalArgumentException("Record too long: " + value.remaining());
+
+        getAt(index).put(value.duplicate());
+    }
+
+    public ByteBuffer getAt(String label) {
+        if (labelsMap == null)
+            throw new IllegalStateException();
+
+        return getAt(labelsMap.get(label));
+    }
+
+    public void setAt(String label, ByteBuffer value) {
+        if (labelsMap == null)
+            throw new IllegalStateException();
+
+        setAt(labelsMap.get(label), value);
+    }
+}
@@ -44,7 +44,7 @@ public class FileChannelDisk<S extends Sector> implements Disk<S> {
     public FileChannelDisk<S> mapTo(FileChannel channel) {
         try {
             this.channel = channel;
-            int channelCursor = 0;
+            long channelCursor = 0;
             for (Sector sector : sectors) {
                 channelCursor += sector.mapTo(
                         Sector.Mode.READ,
@@ -59,17 +59,19 @@ public class FileChannelDisk<S extends Sector> implements Disk<S> {
     }
 
     public FileChannelDisk<S> mapTo(String filePath) {
-        int size = 0;
+        long size = 0;
         for (Sector sector : sectors) {
             size += sector.getLengthInBytes();
         }
 
         try {
             RandomAccessFile f = new RandomAccessFile(filePath, "rw");
+            // drop any previous contents, so that the sectors start out zeroed
+            f.setLength(0);
             f.setLength(size);
             channel = f.getChannel();
 
-            int channelCursor = 0;
+            long channelCursor = 0;
             for (Sector sector : sectors) {
                 channelCursor += sector.mapTo(
                         Sector.Mode.INIT,
@@ -83,6 +85,49 @@ public class FileChannelDisk<S extends Sector> implements Disk<S> {
         return this;
     }
 
+    /**
+     * Maps an existing file written by {@link #mapTo(String)} for reading and writing, keeping its contents.
+     */
+    public FileChannelDisk<S> open(String filePath) {
+        long size = 0;
+        for (Sector sector : sectors) {
+            size += sector.getLengthInBytes();
+        }
+
+        try {
+            RandomAccessFile f = new RandomAccessFile(filePath, "rw");
+            long length = f.length();
+            if (length != size) {
+                f.close();
+                throw new IllegalStateException("File size " + length + " does not match the sectors, expected " + size);
+            }
+            channel = f.getChannel();
+
+            long channelCursor = 0;
+            for (Sector sector : sectors) {
+                channelCursor += sector.mapTo(
+                        Sector.Mode.READ,
+                        channel.map(FileChannel.MapMode.READ_WRITE, channelCursor, sector.getLengthInBytes())
+                ).getLengthInBytes();
+            }
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        return this;
+    }
+
+    public void close() {
+        if (channel != null)
+            try {
+                channel.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+    }
+
 
     public FileChannelDisk<S> addSector(String name, S sector) {
         sectors.add(sector);
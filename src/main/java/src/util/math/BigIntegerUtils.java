@@ -404,6 +404,33 @@ public class BigIntegerUtils {
         return res;
     }
 
+    /**
+     * Inverts every a[i] modulo n with a single modInverse (Montgomery's simultaneous inversion),
+     * at the cost of three modular multiplications per value.
+     *
+     * @throws ArithmeticException if some a[i] is not invertible modulo n.
+     */
+    public static BigInteger[] modInverse(BigInteger[] a, BigInteger n) {
+        int count = a.length;
+        BigInteger[] out = new BigInteger[count];
+        if (count == 0)
+            return out;
+
+        // out[i] = a[0] * ... * a[i]
+        out[0] = a[0].mod(n);
+        for (int i = 1; i < count; i++)
+            out[i] = out[i - 1].multiply(a[i]).mod(n);
+
+        BigInteger inv = out[count - 1].modInverse(n);
+        for (int i = count - 1; i > 0; i--) {
+            out[i] = inv.multiply(out[i - 1]).mod(n);
+            inv = inv.multiply(a[i]).mod(n);
+        }
+        out[0] = inv;
+
+        return out;
+    }
+
 
     /**
      * Divides `n` with primes up to `limit`. For each factor found,
@@ -0,0 +1,28 @@
+package src.util.metrics;
+
+/**
+ * {@link Sm9StageEvent}s for {@link Sm9Metrics}. Loaded by name only when the JVM has jdk.jfr.
+ */
+final class JfrStageEvents implements Sm9Metrics.Events {
+
+    public Object begin() {
+        Sm9StageEvent event = new Sm9StageEvent();
+        if (!event.isEnabled())
+            return null;
+
+        event.begin();
+        return event;
+    }
+
+    public void commit(Object event, Sm9Metrics.Trace trace, Sm9Metrics.Stage stage) {
+        if (event == null)
+            return;
+
+        Sm9StageEvent e = (Sm9StageEvent) event;
+        e.end();
+        e.operation = trace.getOperation().name();
+        e.stage = stage.name();
+        e.identityHash = trace.getIdentityHash();
+        e.commit();
+    }
+}
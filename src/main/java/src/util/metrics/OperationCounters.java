@@ -0,0 +1,210 @@
+package src.util.metrics;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Opt-in counts of the arithmetic done inside high-level operations (pairing, sign, verify, ...).
+ * <p>
+ * Counting is off unless the JVM is started with -Dsm9.opcount=true. The switch is a static final field, so
+ * with counting off the JIT removes every <code>if (OperationCounters.ENABLED)</code> guard along with the
+ * call behind it. With counting on, each thread counts into the innermost operation it has
+ * {@link #enter(String) entered}; when that operation exits its counts are added to the totals of the
+ * operation and to the enclosing operation, so a sign includes the pairing it performs. Arithmetic outside any
+ * operation is not counted.
+ * <p>
+ * The totals are also published over JMX as src.util.metrics:type=OperationCounters.
+ */
+public final class OperationCounters {
+
+    public static final boolean ENABLED = Boolean.getBoolean("sm9.opcount");
+
+    public enum Op {
+        FP_ADD, FP_MUL, FP_SQUARE, FP_INVERT,
+        FP2_MUL, FP2_SQUARE, FP4_MUL, FP4_SQUARE, FP12_MUL, FP12_SQUARE,
+        G1_DOUBLE, G1_ADD, G2_DOUBLE, G2_ADD
+    }
+
+    private static final Op[] OPS = Op.values();
+    private static final Scope NO_SCOPE = new Scope(null, null);
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<Scope>();
+    // per operation: the counts of every Op, then the number of invocations
+    private static final ConcurrentMap<String, AtomicLongArray> TOTALS = new ConcurrentHashMap<String, AtomicLongArray>();
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(),
+                        new ObjectName("src.util.metrics:type=OperationCounters"));
+            } catch (Exception e) {
+                // counting works without JMX
+            }
+        }
+    }
+
+
+    private OperationCounters() {
+    }
+
+    /**
+     * One running operation of one thread.
+     */
+    public static final class Scope {
+        private final String name;
+        private final Scope parent;
+        private final long[] counts;
+
+        Scope(String name, Scope parent) {
+            this.name = name;
+            this.parent = parent;
+            this.counts = name == null ? null : new long[OPS.length];
+        }
+
+        /**
+         * Ends the operation; call exactly once, in a finally block.
+         */
+        public void exit() {
+            if (name == null)
+                return;
+
+            AtomicLongArray totals = TOTALS.get(name);
+            if (totals == null) {
+                AtomicLongArray created = new AtomicLongArray(OPS.length + 1);
+                totals = TOTALS.putIfAbsent(name, created);
+                if (totals == null)
+                    totals = created;
+            }
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    totals.addAndGet(i, counts[i]);
+                    if (parent != null)
+                        parent.counts[i] += counts[i];
+                }
+            }
+            totals.incrementAndGet(OPS.length);
+            CURRENT.set(parent);
+        }
+    }
+
+    /**
+     * Starts counting for the operation name on this thread. Returns a shared no-op scope when counting is off.
+     */
+    public static Scope enter(String name) {
+        if (!ENABLED)
+            return NO_SCOPE;
+
+        Scope scope = new Scope(name, CURRENT.get());
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * Counts one op; callers guard the call with {@link #ENABLED}.
+     */
+    public static void count(Op op) {
+        Scope scope = CURRENT.get();
+        if (scope != null)
+            scope.counts[op.ordinal()]++;
+    }
+
+    /**
+     * Counts op times times, for routines that do several base field ops without going through the elements.
+     */
+    public static void count(Op op, int times) {
+        Scope scope = CURRENT.get();
+        if (scope != null)
+            scope.counts[op.ordinal()] += times;
+    }
+
+    /**
+     * Total counts of the operation name, with zero counts left out.
+     */
+    public static Map<Op, Long> getCounts(String name) {
+        Map<Op, Long> result = new EnumMap<Op, Long>(Op.class);
+        AtomicLongArray totals = TOTALS.get(name);
+        if (totals != null) {
+            for (int i = 0; i < OPS.length; i++) {
+                if (totals.get(i) != 0)
+                    result.put(OPS[i], totals.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Number of completed invocations of the operation name.
+     */
+    public static long getInvocations(String name) {
+        AtomicLongArray totals = TOTALS.get(name);
+        return totals == null ? 0 : totals.get(OPS.length);
+    }
+
+    /**
+     * Counts of the operation name divided by its invocations.
+     */
+    public static Map<Op, Double> getCountsPerInvocation(String name) {
+        Map<Op, Double> result = new EnumMap<Op, Double>(Op.class);
+        long invocations = getInvocations(name);
+        if (invocations != 0) {
+            for (Map.Entry<Op, Long> entry : getCounts(name).entrySet())
+                result.put(entry.getKey(), (double) entry.getValue() / invocations);
+        }
+        return result;
+    }
+
+    public static Iterable<String> getOperations() {
+        return Collections.unmodifiableSet(new TreeMap<String, AtomicLongArray>(TOTALS).keySet());
+    }
+
+    public static void reset() {
+        TOTALS.clear();
+    }
+
+
+    public interface OperationCountersMXBean {
+        boolean isEnabled();
+
+        String[] getOperations();
+
+        long getInvocations(String operation);
+
+        /**
+         * Counts per op name, e.g. "FP_MUL".
+         */
+        Map<String, Long> getCounts(String operation);
+
+        void reset();
+    }
+
+    static class Bean implements OperationCountersMXBean {
+        public boolean isEnabled() {
+            return ENABLED;
+        }
+
+        public String[] getOperations() {
+            return new TreeMap<String, AtomicLongArray>(TOTALS).keySet().toArray(new String[0]);
+        }
+
+        public long getInvocations(String operation) {
+            return OperationCounters.getInvocations(operation);
+        }
+
+        public Map<String, Long> getCounts(String operation) {
+            Map<String, Long> result = new TreeMap<String, Long>();
+            for (Map.Entry<Op, Long> entry : OperationCounters.getCounts(operation).entrySet())
+                result.put(entry.getKey().name(), entry.getValue());
+            return result;
+        }
+
+        public void reset() {
+            OperationCounters.reset();
+        }
+    }
+}
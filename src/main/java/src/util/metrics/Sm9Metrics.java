@@ -0,0 +1,270 @@
+package src.util.metrics;
+
+import org.bouncycastle.crypto.digests.SM3Digest;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Opt-in latency histograms for every stage of the SM9 operations, and matching JDK Flight Recorder events.
+ * <p>
+ * Recording is off unless the JVM is started with -Dsm9.metrics=true. An operation calls {@link #begin} once,
+ * {@link Trace#stage} at the end of each stage and {@link Trace#end} when it is done. A stage reached more than
+ * once, in a retry loop or as two separate steps of the same kind, adds up its times, and {@link Trace#end}
+ * records every stage once, so each histogram counts operations. A stage costs a System.nanoTime() call and
+ * the operation a few atomic increments per stage, well under 1% of the tenths of milliseconds any stage with
+ * a curve operation takes.
+ * <p>
+ * When the JVM has Flight Recorder (JDK 11, or 8u262 and later), every stage reached is also committed as an
+ * src.Sm9Stage event, timed from the end of the previous stage, whenever a recording has that event enabled.
+ * The event classes are loaded by name only then, so the metrics run on any Java 8.
+ * <p>
+ * {@link #snapshot()} copies all histograms for export to a metrics system.
+ */
+public final class Sm9Metrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("sm9.metrics");
+
+    public enum Operation {
+        SIGN, VERIFY, ENCRYPT, DECRYPT, ENCAPSULATE, DECAPSULATE
+    }
+
+    public enum Stage {
+        /** hashing the identity and building the public key from it */
+        H1,
+        H2,
+        /** scalar multiplication and point addition in G1 or G2 */
+        SCALAR_MUL,
+        PAIRING,
+        /** exponentiation and multiplication in GT */
+        GT_POW,
+        KDF,
+        MAC,
+        /** the SM4 cipher or the XOR stream of the ciphertext body */
+        SM4,
+        /** encoding or decoding the ciphertext */
+        ASN1,
+        /** the whole operation */
+        TOTAL
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final Stage[] STAGES = Stage.values();
+    private static final Events EVENTS = ENABLED ? loadEvents() : null;
+    private static final Trace NO_TRACE = new Trace(null, null);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final AtomicReferenceArray<LatencyHistogram> HISTOGRAMS =
+            new AtomicReferenceArray<LatencyHistogram>(OPERATIONS.length * STAGES.length);
+
+
+    private Sm9Metrics() {
+    }
+
+    /**
+     * Flight Recorder events of the stages. The implementation refers to jdk.jfr and is loaded by name.
+     */
+    interface Events {
+        /**
+         * Starts the event of a stage, null if no recording has it enabled.
+         */
+        Object begin();
+
+        void commit(Object event, Trace trace, Stage stage);
+    }
+
+    /**
+     * The stages of one running operation. Not thread safe; every operation begins its own.
+     */
+    public static final class Trace {
+        private final Operation operation;
+        private final Object identity;
+        private final long start;
+        private long last;
+        private long identityHash;
+        private final long[] nanos;
+        // bit i is set once stage i has ended
+        private int ended;
+        private Object event, totalEvent;
+
+        Trace(Operation operation, Object identity) {
+            this.operation = operation;
+            this.identity = identity;
+            this.start = operation == null ? 0 : System.nanoTime();
+            this.last = start;
+            this.nanos = operation == null ? null : new long[STAGES.length];
+            if (operation != null && EVENTS != null) {
+                totalEvent = EVENTS.begin();
+                event = EVENTS.begin();
+            }
+        }
+
+        /**
+         * Ends stage; the time since the previous stage ended or the operation began is added to it.
+         */
+        public void stage(Stage stage) {
+            if (operation == null)
+                return;
+
+            long now = System.nanoTime();
+            nanos[stage.ordinal()] += now - last;
+            ended |= 1 << stage.ordinal();
+            last = now;
+            if (EVENTS != null) {
+                EVENTS.commit(event, this, stage);
+                event = EVENTS.begin();
+            }
+        }
+
+        /**
+         * Ends the operation and records the time of every stage it reached and its total latency.
+         */
+        public void end() {
+            if (operation == null)
+                return;
+
+            long total = System.nanoTime() - start;
+            for (Stage stage : STAGES)
+                if ((ended & 1 << stage.ordinal()) != 0)
+                    histogram(operation, stage).record(nanos[stage.ordinal()]);
+            histogram(operation, Stage.TOTAL).record(total);
+            if (EVENTS != null)
+                EVENTS.commit(totalEvent, this, Stage.TOTAL);
+        }
+
+        Operation getOperation() {
+            return operation;
+        }
+
+        long getIdentityHash() {
+            if (identityHash == 0 && identity != null)
+                identityHash = hash(identity instanceof String ? ((String) identity).getBytes(UTF8) : (byte[]) identity);
+            return identityHash;
+        }
+    }
+
+    /**
+     * Starts timing operation. Returns a shared no-op trace when recording is off.
+     *
+     * @param identity the identity the operation works for, as a String or byte[], or null; events carry
+     *                 only a hash of it.
+     */
+    public static Trace begin(Operation operation, Object identity) {
+        if (!ENABLED)
+            return NO_TRACE;
+        return new Trace(operation, identity);
+    }
+
+    /**
+     * One histogram of a snapshot.
+     */
+    public static final class StageLatency {
+        private final Operation operation;
+        private final Stage stage;
+        private final LatencyHistogram.Snapshot latency;
+
+        StageLatency(Operation operation, Stage stage, LatencyHistogram.Snapshot latency) {
+            this.operation = operation;
+            this.stage = stage;
+            this.latency = latency;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public Stage getStage() {
+            return stage;
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        /**
+         * A metric name such as "sm9.verify.pairing".
+         */
+        public String getName() {
+            return "sm9." + operation.name().toLowerCase() + "." + stage.name().toLowerCase();
+        }
+
+        public String toString() {
+            return getName() + " " + latency;
+        }
+    }
+
+    /**
+     * Copies every histogram that has recorded something, operations in declaration order and stages in
+     * declaration order within each operation.
+     */
+    public static List<StageLatency> snapshot() {
+        List<StageLatency> result = new ArrayList<StageLatency>();
+        for (Operation operation : OPERATIONS) {
+            for (Stage stage : STAGES) {
+                LatencyHistogram histogram = HISTOGRAMS.get(slot(operation, stage));
+                if (histogram != null) {
+                    LatencyHistogram.Snapshot latency = histogram.snapshot();
+                    if (latency.getCount() != 0)
+                        result.add(new StageLatency(operation, stage, latency));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The histogram of one stage, null if it never recorded.
+     */
+    public static LatencyHistogram.Snapshot snapshot(Operation operation, Stage stage) {
+        LatencyHistogram histogram = HISTOGRAMS.get(slot(operation, stage));
+        return histogram == null ? null : histogram.snapshot();
+    }
+
+    public static void reset() {
+        for (int i = 0; i < HISTOGRAMS.length(); i++) {
+            LatencyHistogram histogram = HISTOGRAMS.get(i);
+            if (histogram != null)
+                histogram.reset();
+        }
+    }
+
+
+    private static int slot(Operation operation, Stage stage) {
+        return operation.ordinal() * STAGES.length + stage.ordinal();
+    }
+
+    private static LatencyHistogram histogram(Operation operation, Stage stage) {
+        int slot = slot(operation, stage);
+        LatencyHistogram histogram = HISTOGRAMS.get(slot);
+        if (histogram == null) {
+            HISTOGRAMS.compareAndSet(slot, null, new LatencyHistogram());
+            histogram = HISTOGRAMS.get(slot);
+        }
+        return histogram;
+    }
+
+    /**
+     * The first 8 bytes of SM3(identity), never 0.
+     */
+    private static long hash(byte[] identity) {
+        SM3Digest digest = new SM3Digest();
+        digest.update(identity, 0, identity.length);
+        byte[] out = new byte[digest.getDigestSize()];
+        digest.doFinal(out, 0);
+        long h = 0;
+        for (int i = 0; i < 8; i++)
+            h = (h << 8) | (out[i] & 0xff);
+        return h == 0 ? 1 : h;
+    }
+
+    private static Events loadEvents() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Events) Class.forName("src.util.metrics.JfrStageEvents").getDeclaredConstructor().newInstance();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+}
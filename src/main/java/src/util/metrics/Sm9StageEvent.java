@@ -0,0 +1,29 @@
+package src.util.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Flight Recorder event of one stage of an SM9 operation; its duration is the latency of the stage. Only
+ * touched, through {@link JfrStageEvents}, when the JVM has jdk.jfr, see {@link Sm9Metrics}.
+ */
+@Name("src.Sm9Stage")
+@Label("SM9 Stage")
+@Category("SM9")
+@Description("One stage of an SM9 sign, verify, encrypt, decrypt, encapsulate or decapsulate")
+@StackTrace(false)
+class Sm9StageEvent extends jdk.jfr.Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Identity Hash")
+    @Description("The first 8 bytes of SM3 of the identity, 0 if the operation has none")
+    long identityHash;
+}
@@ -12,6 +12,7 @@ import src.*;
 
 import javax.crypto.Cipher;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.Key;
 import java.security.SecureRandom;
 import java.security.Security;
@@ -44,6 +45,9 @@ import src.field.z.ZrElement;
 import src.field.z.ZrField;
 import src.pairing.f.TypeFCurveGenerator;
 import src.pairing.f.TypeFPairing;
+import src.util.metrics.LatencyHistogram;
+import src.util.metrics.OperationCounters;
+import src.util.metrics.Sm9Metrics;
 
 
 import static junit.framework.TestCase.assertEquals;
@@ -97,6 +101,14 @@ public class Sm9test {
         System.out.println("decapulate: "+Arrays.toString(k));
 
        assertArrayEquals(encapsulatedKey.getK(),k);
+
+        // 252 bits: right-aligned like Sm9Util.KDF
+        encapsulatedKey=kem.encapsulate(id.getBytes(),252);
+        k=kem.decapsulate(encapsulatedKey.getC(),id.getBytes(),privateKey,252);
+        assertArrayEquals(encapsulatedKey.getK(),k);
+        byte [] wb=Sm9Util.GTFiniteElementToByte(kgc.pair(encapsulatedKey.getC(),privateKey.getDe()));
+        byte [] z=Sm9Util.byteMerger(Sm9Util.byteMerger(encapsulatedKey.getC().toBytes(),wb),id.getBytes());
+        assertArrayEquals(Sm9Util.KDF(z,252),k);
     }
 
     @Test
@@ -114,6 +126,830 @@ public class Sm9test {
         assertArrayEquals(m,mp);
     }
     @Test
+    public void testEncryptByteBuffer()throws Exception{
+        Sm9EncryptPrivateKey privateKey=kgc.generateEncrypyPrivateKey(id);
+        byte [] m=new byte[200];
+        new SecureRandom().nextBytes(m);
+        for(int type=0;type<2;type++) {
+            Sm9Engine sm9Engine=new Sm9Engine(Cipher.getInstance("SM4/ECB/PKCS5Padding","BC"));
+            sm9Engine.initEncrypt(true,id,16,32,type);
+            ByteBuffer in=ByteBuffer.allocateDirect(m.length);
+            in.put(m).flip();
+            ByteBuffer ciphertext=ByteBuffer.allocateDirect(sm9Engine.getOutputSize(m.length));
+            sm9Engine.processBlock(in,ciphertext);
+            ciphertext.flip();
+
+            byte [] c=new byte[ciphertext.remaining()];
+            ciphertext.duplicate().get(c);
+            assertEquals(4,org.bouncycastle.asn1.ASN1Sequence.getInstance(c).size());
+
+            sm9Engine.initDecrypt(false,id,privateKey,16,32,type);
+            ByteBuffer out=ByteBuffer.allocateDirect(sm9Engine.getOutputSize(ciphertext.remaining()));
+            sm9Engine.processBlock(ciphertext,out);
+            out.flip();
+            byte [] mp=new byte[out.remaining()];
+            out.get(mp);
+            assertArrayEquals(m,mp);
+            assertArrayEquals(m,sm9Engine.processBlock(c,0,c.length));
+        }
+    }
+    @Test
+    public void testCiphertextCodec()throws Exception{
+        SecureRandom random=new SecureRandom();
+        byte [] c3=new byte[32];
+        for(int len:new int[]{0,1,127,128,255,256,70000}) {
+            CurveElement c1=kgc.getG1().duplicate().mul(new BigInteger(256,random));
+            random.nextBytes(c3);
+            byte [] c2=new byte[len];
+            random.nextBytes(c2);
+
+            org.bouncycastle.asn1.ASN1EncodableVector v=new org.bouncycastle.asn1.ASN1EncodableVector();
+            v.add(new org.bouncycastle.asn1.ASN1Integer(c1.getX().toBytes()));
+            v.add(new org.bouncycastle.asn1.ASN1Integer(c1.getY().toBytes()));
+            v.add(new org.bouncycastle.asn1.DEROctetString(c3));
+            v.add(new org.bouncycastle.asn1.DEROctetString(c2));
+            byte [] der=new org.bouncycastle.asn1.DERSequence(v).getEncoded(org.bouncycastle.asn1.ASN1Encoding.DER);
+            assertArrayEquals(der,Sm9CiphertextCodec.DER.encode(c1,c3,c2));
+
+            for(Sm9CiphertextCodec codec:new Sm9CiphertextCodec[]{Sm9CiphertextCodec.DER,Sm9CiphertextCodec.RAW,Sm9CiphertextCodec.RAW_COMPRESSED}) {
+                Sm9CiphertextCodec.Parts parts=codec.read(ByteBuffer.wrap(codec.encode(c1,c3,c2)),kgc.getCurve1(),32);
+                assertTrue(c1.isEqual(parts.c1));
+                assertArrayEquals(c3,parts.c3);
+                byte [] c2p=new byte[parts.c2.remaining()];
+                parts.c2.get(c2p);
+                assertArrayEquals(c2,c2p);
+            }
+        }
+
+        Sm9EncryptPrivateKey privateKey=kgc.generateEncrypyPrivateKey(id);
+        for(Sm9CiphertextCodec codec:new Sm9CiphertextCodec[]{Sm9CiphertextCodec.RAW,Sm9CiphertextCodec.RAW_COMPRESSED}) {
+            Sm9Engine sm9Engine=new Sm9Engine(Cipher.getInstance("SM4/ECB/NoPadding","BC"),codec);
+            sm9Engine.initEncrypt(true,id,16,32,0);
+            byte [] m=testString.getBytes();
+            byte [] c=sm9Engine.processBlock(m,0,m.length);
+            assertEquals((codec==Sm9CiphertextCodec.RAW ? 64 : 33)+32+m.length,c.length);
+            sm9Engine.initDecrypt(false,id,privateKey,16,32,0);
+            assertArrayEquals(m,sm9Engine.processBlock(c,0,c.length));
+        }
+    }
+    @Test
+    public void testPointCompression()throws Exception{
+        SecureRandom random=new SecureRandom();
+        int count=20;
+        CurveElement [] points=new CurveElement[count];
+        java.io.ByteArrayOutputStream encoded=new java.io.ByteArrayOutputStream();
+        for(int i=0;i<count;i++) {
+            points[i]=kgc.getG1().duplicate().mul(new BigInteger(256,random));
+            byte [] b=points[i].toBytesPC(i%2==0);
+            assertEquals(i%2==0 ? 33 : 65,b.length);
+            CurveElement p=kgc.getCurve1().newElement();
+            assertEquals(b.length,p.setFromBytesPC(b));
+            assertTrue(points[i].isEqual(p));
+            encoded.write(b);
+        }
+        CurveElement [] decoded=kgc.getCurve1().newElementsFromBytesPC(encoded.toByteArray(),0,count);
+        for(int i=0;i<count;i++)
+            assertTrue(points[i].isEqual(decoded[i]));
+        decoded=kgc.getCurve1().newElementsFromBytesPC(encoded.toByteArray(),0,count,java.util.concurrent.ForkJoinPool.commonPool());
+        for(int i=0;i<count;i++)
+            assertTrue(points[i].isEqual(decoded[i]));
+        // cut inside the 10th point, and before the 20th
+        for(int length:new int[]{33*5+65*4+10,encoded.size()-65}){
+            try {
+                kgc.getCurve1().newElementsFromBytesPC(Arrays.copyOf(encoded.toByteArray(),length),0,count);
+                assertTrue(false);
+            } catch (IllegalArgumentException e) {
+                // truncated
+            }
+        }
+
+        Sm9Signer signer=new Sm9Signer();
+        signer.initSign(kgc.generateSignPrivatekey(id));
+        Signature signature=signer.generateSignature(testString.getBytes());
+        ByteBuffer out=ByteBuffer.allocate(signature.getEncodedLength(true));
+        signature.writeTo(out,true);
+        out.flip();
+        signer.initVerify(id);
+        assertTrue(signer.verifySignature(ByteBuffer.wrap(testString.getBytes()),out));
+    }
+    @Test
+    public void testG2Compression()throws Exception{
+        byte [] p2=Sm9Util.G2PointToBytes(kgc.getG2(),false);
+        assertEquals("0485aef3d078640c98597b6027b441a01ff1dd2c190f5e93c454806c11d8806141"+
+                "3722755292130b08d2aab97fd34ec120ee265948d19c17abf9b7213baf82d65b"+
+                "17509b092e845c1266ba0d262cbee6ed0736a96fa347c8bd856dc76b84ebeb96"+
+                "a7cf28d519be3da65f3170153d278ff247efba98a71a08116215bba5c999a7c7",
+                org.bouncycastle.util.encoders.Hex.toHexString(p2));
+        assertTrue(kgc.getG2().isEqual(Sm9Util.bytesToG2Point(kgc.getCurve2(),p2,0)));
+
+        SecureRandom random=new SecureRandom();
+        for(int i=0;i<10;i++) {
+            CurveElement p=kgc.getG2().duplicate().mul(new BigInteger(256,random));
+            byte [] b=Sm9Util.G2PointToBytes(p,true);
+            assertEquals(65,b.length);
+            assertTrue(p.isEqual(Sm9Util.bytesToG2Point(kgc.getCurve2(),b,0)));
+        }
+
+        Sm9EncryptPrivateKey privateKey=Sm9EncryptPrivateKey.fromBytes(kgc.generateEncrypyPrivateKey(id).toBytes(true));
+        KEM kem=new KEM();
+        EncapsulatedKey encapsulatedKey=kem.encapsulate(id.getBytes(),256);
+        assertArrayEquals(encapsulatedKey.getK(),kem.decapsulate(encapsulatedKey.getC(),id.getBytes(),privateKey,256));
+
+        Sm9Signer signer=new Sm9Signer();
+        signer.initSign(Sm9SignPrivateKey.fromBytes(kgc.generateSignPrivatekey(id).toBytes(true)));
+        Signature signature=signer.generateSignature(testString.getBytes());
+        signer.initVerify(id);
+        assertTrue(signer.verifySignature(testString.getBytes(),signature));
+    }
+    @Test
+    public void testGTCompression()throws Exception{
+        GTFiniteElement g=(GTFiniteElement)kgc.pair(kgc.getPpube(),kgc.getG2());
+        GTFiniteField GT=g.getField();
+        assertEquals(192,g.getLengthInBytesCompressed());
+
+        SecureRandom random=new SecureRandom();
+        int count=8;
+        GTFiniteElement [] values=new GTFiniteElement[count];
+        java.io.ByteArrayOutputStream encoded=new java.io.ByteArrayOutputStream();
+        for(int i=0;i<count;i++) {
+            values[i]=i==3?GT.newElement().setToOne():g.duplicate().pow(new BigInteger(256,random));
+            byte [] b=values[i].toBytesCompressed();
+            GTFiniteElement e=GT.newElement();
+            assertEquals(192,e.setFromBytesCompressed(b));
+            assertTrue(values[i].isEqual(e));
+            encoded.write(b);
+        }
+
+        GTFiniteElement [] decoded=GT.newElementsFromBytesCompressed(encoded.toByteArray(),0,count);
+        for(int i=0;i<count;i++)
+            assertTrue(values[i].isEqual(decoded[i]));
+
+        byte [] product=GT.mulCompressed(values[0].toBytesCompressed(),values[1].toBytesCompressed());
+        assertArrayEquals(values[0].duplicate().mul(values[1]).toBytesCompressed(),product);
+        GTFiniteElement inverse=values[2].duplicate().invert();
+        assertArrayEquals(new byte[192],GT.mulCompressed(values[2].toBytesCompressed(),inverse.toBytesCompressed()));
+        assertArrayEquals(values[4].toBytesCompressed(),GT.mulCompressed(values[3].toBytesCompressed(),values[4].toBytesCompressed()));
+    }
+    @Test
+    public void testRandom()throws Exception{
+        Sm9Random random=Sm9Random.current();
+        assertTrue(random==Sm9Random.current());
+        boolean [] seen=new boolean[5];
+        for(int i=0;i<200;i++) {
+            int r=random.nextScalar(BigInteger.valueOf(5)).intValue();
+            assertTrue(r>=1&&r<=4);
+            seen[r]=true;
+        }
+        assertTrue(seen[1]&&seen[2]&&seen[3]&&seen[4]);
+
+        byte [] a=new byte[100000];
+        byte [] b=new byte[100000];
+        random.nextBytes(a);
+        random.reseed();
+        random.nextBytes(b);
+        assertTrue(!Arrays.equals(a,b));
+        assertTrue(!Arrays.equals(Arrays.copyOfRange(a,0,32),Arrays.copyOfRange(a,65536,65568)));
+
+        Sm9Signer signer=new Sm9Signer();
+        signer.setRandom(new Sm9Random());
+        signer.initSign(kgc.generateSignPrivatekey(id));
+        Signature signature=signer.generateSignature(testString.getBytes());
+        signer.initVerify(id);
+        assertTrue(signer.verifySignature(testString.getBytes(),signature));
+    }
+    @Test
+    public void testBatchExtract()throws Exception{
+        java.util.List<String> ids=new java.util.ArrayList<String>();
+        for(int i=0;i<10;i++)
+            ids.add(i+id);
+        Sm9SignPrivateKey [] ds=kgc.generateSignPrivatekeys(ids);
+        Sm9EncryptPrivateKey [] de=kgc.generateEncrypyPrivateKeys(ids);
+        for(int i=0;i<ids.size();i++) {
+            assertTrue(kgc.generateSignPrivatekey(ids.get(i)).getDs().isEqual(ds[i].getDs()));
+            assertTrue(kgc.generateEncrypyPrivateKey(ids.get(i)).getDe().isEqual(de[i].getDe()));
+        }
+
+        SecureRandom random=new SecureRandom();
+        BigInteger [] n={BigInteger.ZERO,BigInteger.ONE,new BigInteger(256,random),kgc.getN().subtract(BigInteger.ONE)};
+        CurveElement [] p=kgc.getG2Comb().pow(n);
+        for(int i=0;i<n.length;i++)
+            assertTrue(kgc.getG2().duplicate().mul(n[i]).isEqual(p[i]));
+    }
+    @Test
+    public void testKeyIssuer()throws Exception{
+        java.io.File ids=java.io.File.createTempFile("sm9ids",".txt");
+        java.io.File out=java.io.File.createTempFile("sm9keys",".bin");
+        ids.deleteOnExit();
+        out.deleteOnExit();
+        out.delete();
+        java.io.PrintWriter writer=new java.io.PrintWriter(ids,"UTF-8");
+        int count=37;
+        for(int i=0;i<count;i++)
+            writer.println("user"+i+"@example.com");
+        writer.close();
+
+        Sm9KeyIssuer issuer=new Sm9KeyIssuer(kgc).setBatchSize(8).setQueueCapacity(2);
+        Sm9KeyIssuer.Progress progress=issuer.issue(ids,out);
+        assertEquals(count,progress.getIssued());
+        assertEquals(0,progress.getResumedFrom());
+
+        Sm9KeyRecords records=Sm9KeyRecords.open(out);
+        assertEquals(count,records.getWatermark());
+        for(int i=0;i<count;i+=9) {
+            assertEquals("user"+i+"@example.com",records.getIdentity(i));
+            byte [] ds=new byte[65];
+            records.getSignKey(i).get(ds);
+            assertTrue(kgc.generateSignPrivatekey(records.getIdentity(i)).getDs().isEqual(Sm9SignPrivateKey.fromBytes(ds).getDs()));
+            byte [] de=new byte[129];
+            records.getEncryptKey(i).get(de);
+            assertTrue(kgc.generateEncrypyPrivateKey(records.getIdentity(i)).getDe().isEqual(Sm9EncryptPrivateKey.fromBytes(de).getDe()));
+        }
+        records.commit(16);
+        records.close();
+
+        progress=issuer.issue(ids,out);
+        assertEquals(16,progress.getResumedFrom());
+        assertEquals(count,progress.getIssued());
+
+        Sm9KeyStore store=Sm9KeyStore.open(out);
+        new java.io.File(out.getPath()+".idx").deleteOnExit();
+        assertEquals(count,store.size());
+        for(int i=0;i<count;i+=5) {
+            String user="user"+i+"@example.com";
+            assertEquals(i,store.find(user));
+            assertTrue(kgc.generateSignPrivatekey(user).getDs().isEqual(store.getSignPrivateKey(user).getDs()));
+            assertTrue(kgc.generateEncrypyPrivateKey(user).getDe().isEqual(store.getEncryptPrivateKey(user).getDe()));
+        }
+        assertEquals(-1,store.find("nobody@example.com"));
+        assertTrue(store.getSignPrivateKey("nobody@example.com")==null);
+        store.close();
+    }
+    @Test
+    public void testKeyStoreRebuild()throws Exception{
+        java.io.File out=java.io.File.createTempFile("sm9keys",".bin");
+        java.io.File index=new java.io.File(out.getPath()+".idx");
+        out.deleteOnExit();
+        index.deleteOnExit();
+        out.delete();
+
+        // 60 and then 40 records both take a 128 slot index, rebuilt in place over the old one
+        issueRecords(kgc,"user",60,out);
+        try {
+            issueRecords(kgc,"changed",60,out);
+            assertTrue(false);
+        } catch (Exception e) {
+            assertTrue(e.getMessage().startsWith("identity 0 differs"));
+        }
+        Sm9KeyStore store=Sm9KeyStore.open(out);
+        assertEquals(7,store.find("user7@example.com"));
+        store.close();
+
+        out.delete();
+        issueRecords(kgc,"other",40,out);
+        store=Sm9KeyStore.open(out);
+        for(int i=0;i<60;i++){
+            assertEquals(-1,store.find("user"+i+"@example.com"));
+            if(i<40)
+                assertEquals(i,store.find("other"+i+"@example.com"));
+        }
+        store.close();
+
+        // same count under new master keys
+        KeyGenerationCenter other=new KeyGenerationCenter();
+        out.delete();
+        issueRecords(other,"third",40,out);
+        store=Sm9KeyStore.open(out);
+        assertEquals(-1,store.find("other3@example.com"));
+        assertEquals(3,store.find("third3@example.com"));
+        assertTrue(other.generateSignPrivatekey("third3@example.com").getDs().isEqual(store.getSignPrivateKey("third3@example.com").getDs()));
+        store.close();
+    }
+    private static void issueRecords(KeyGenerationCenter kgc,String prefix,int count,java.io.File out)throws Exception{
+        java.util.List<String> ids=new java.util.ArrayList<String>();
+        for(int i=0;i<count;i++)
+            ids.add(prefix+i+"@example.com");
+        new Sm9KeyIssuer(kgc).issue(ids.iterator(),count,out);
+    }
+    @Test
+    public void testPublicParameters()throws Exception{
+        java.io.File file=java.io.File.createTempFile("sm9params",".bin");
+        file.deleteOnExit();
+        kgc.getPublicParameters().write(file);
+
+        Sm9PublicParameters params=Sm9PublicParameters.load(file);
+        assertTrue(params.getPpubs().isEqual(kgc.getPpubs()));
+        assertTrue(params.getPpube().isEqual(kgc.getPpube()));
+        assertTrue(params.getSignGT().isEqual(kgc.getSignGT()));
+        assertTrue(params.getEncryptGT().isEqual(kgc.getEncryptGT()));
+        BigInteger n=new BigInteger(250,new SecureRandom());
+        assertTrue(params.getG2Comb().pow(n).isEqual(kgc.getG2().duplicate().mul(n)));
+
+        KeyGenerationCenter loaded=new KeyGenerationCenter(params);
+        try {
+            loaded.generateSignPrivatekey(id);
+            assertTrue(false);
+        } catch (Exception e) {
+            // public-only center
+        }
+
+        Sm9SignPrivateKey signKey=kgc.generateSignPrivatekey(id);
+        Sm9EncryptPrivateKey encryptKey=kgc.generateEncrypyPrivateKey(id);
+        KeyGenerationCenter.setInstance(loaded);
+        try {
+            Sm9Signer signer=new Sm9Signer();
+            signer.initSign(signKey);
+            Signature signature=signer.generateSignature(testString.getBytes());
+            signer.initVerify(id);
+            assertTrue(signer.verifySignature(testString.getBytes(),signature));
+
+            Sm9Engine sm9Engine=new Sm9Engine(Cipher.getInstance("SM4/ECB/NoPadding","BC"));
+            sm9Engine.initEncrypt(true,id,16,32,1);
+            byte [] m="0123456789abcdeffedcba9876543210".getBytes();
+            byte [] ciphertext=sm9Engine.processBlock(m,0,m.length);
+            sm9Engine.initDecrypt(false,id,encryptKey,16,32,1);
+            assertArrayEquals(m,sm9Engine.processBlock(ciphertext,0,ciphertext.length));
+        } finally {
+            KeyGenerationCenter.setInstance(kgc);
+        }
+    }
+    @Test
+    public void testDomains()throws Exception{
+        KeyGenerationCenter tenant=new KeyGenerationCenter("tenant-b");
+        Sm9DomainRegistry registry=new Sm9DomainRegistry();
+        registry.register(kgc.getDomain());
+        registry.register(tenant.getDomain());
+        assertTrue(registry.get("tenant-b")==tenant.getDomain());
+        assertTrue(registry.get(KeyGenerationCenter.DEFAULT_DOMAIN)==kgc.getDomain());
+
+        final Sm9Domain domain=registry.require("tenant-b");
+        final Signature signature;
+        Sm9Signer signer=new Sm9Signer(domain);
+        signer.initSign(tenant.generateSignPrivatekey(id));
+        signature=signer.generateSignature(testString.getBytes());
+
+        Sm9Signer other=new Sm9Signer(registry.require(KeyGenerationCenter.DEFAULT_DOMAIN));
+        other.initVerify(id);
+        assertTrue(!other.verifySignature(testString.getBytes(),signature));
+
+        // verifiers on several threads share the domain's tables
+        final boolean[] verified=new boolean[4];
+        Thread[] threads=new Thread[verified.length];
+        for(int i=0;i<threads.length;i++) {
+            final int index=i;
+            threads[i]=new Thread() {
+                public void run() {
+                    try {
+                        Sm9Signer verifier=new Sm9Signer(domain);
+                        verifier.initVerify(id);
+                        verified[index]=verifier.verifySignature(testString.getBytes(),signature);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for(int i=0;i<threads.length;i++) {
+            threads[i].join();
+            assertTrue(verified[i]);
+        }
+        assertTrue(domain.getG2Comb()==tenant.getG2Comb());
+
+        KEM kem=new KEM(domain);
+        EncapsulatedKey key=kem.encapsulate(id.getBytes(),256);
+        assertArrayEquals(key.getK(),kem.decapsulate(key.getC(),id.getBytes(),tenant.generateEncrypyPrivateKey(id),256));
+
+        Sm9SignPrivateKey ds=tenant.generateSignPrivatekey(id);
+        assertTrue(ds.getDs().isEqual(Sm9SignPrivateKey.fromBytes(ds.toBytes(true),domain.getCurve1()).getDs()));
+        Sm9EncryptPrivateKey de=tenant.generateEncrypyPrivateKey(id);
+        assertTrue(de.getDe().isEqual(Sm9EncryptPrivateKey.fromBytes(de.toBytes(true),domain.getCurve2()).getDe()));
+        ByteBuffer encoded=ByteBuffer.allocate(signature.getEncodedLength(true));
+        signature.writeTo(encoded,true);
+        encoded.flip();
+        Signature decoded=Signature.readFrom(encoded,domain.getCurve1());
+        assertTrue(decoded.h.equals(signature.h));
+
+        byte [] m=new byte[3000];
+        new SecureRandom().nextBytes(m);
+        java.io.File in=java.io.File.createTempFile("sm9",".in");
+        java.io.File enc=java.io.File.createTempFile("sm9",".enc");
+        java.io.File out=java.io.File.createTempFile("sm9",".out");
+        try {
+            java.nio.file.Files.write(in.toPath(),m);
+            Sm9FileEngine fileEngine=new Sm9FileEngine(domain,java.util.concurrent.ForkJoinPool.commonPool(),1024);
+            fileEngine.encrypt(id,in,enc);
+            fileEngine.decrypt(id,de,enc,out);
+            assertArrayEquals(m,java.nio.file.Files.readAllBytes(out.toPath()));
+        } finally {
+            in.delete();
+            enc.delete();
+            out.delete();
+        }
+    }
+    @Test
+    public void testRotation()throws Exception{
+        Sm9DomainRegistry registry=new Sm9DomainRegistry();
+        KeyGenerationCenter old=new KeyGenerationCenter("rotating");
+        Sm9Domain before=registry.register(old.getDomain());
+
+        Sm9Signer signer=new Sm9Signer(before);
+        signer.initSign(old.generateSignPrivatekey(id));
+        Signature signature=signer.generateSignature(testString.getBytes());
+
+        java.util.concurrent.ExecutorService executor=java.util.concurrent.Executors.newSingleThreadExecutor();
+        try {
+            KeyGenerationCenter rotated=registry.rotateMasterKeys("rotating",executor,60000).get();
+            Sm9Domain after=registry.require("rotating");
+            assertTrue(after==rotated.getDomain());
+            assertTrue(!after.getPpubs().isEqual(before.getPpubs()));
+            assertTrue(registry.getRetired("rotating")==before);
+
+            Sm9Signer verifier=new Sm9Signer(registry.getRetired("rotating"));
+            verifier.initVerify(id);
+            assertTrue(verifier.verifySignature(testString.getBytes(),signature));
+            verifier=new Sm9Signer(after);
+            verifier.initVerify(id);
+            assertTrue(!verifier.verifySignature(testString.getBytes(),signature));
+
+            registry.rotate(before,executor,0).get();
+            assertTrue(registry.require("rotating")==before);
+            assertTrue(registry.getRetired("rotating")==null);
+        } finally {
+            executor.shutdown();
+        }
+    }
+    @Test
+    public void testAsyncService()throws Exception{
+        Sm9AsyncService service=new Sm9AsyncService(kgc.getDomain(),2,4);
+        try {
+            byte [] m=testString.getBytes();
+            Signature signature=service.sign(kgc.generateSignPrivatekey(id),m).get();
+            assertTrue(service.verify(id,m,signature).get());
+
+            byte [] c=service.encrypt(id,m,16,32,1).get();
+            assertArrayEquals(m,service.decrypt(id,kgc.generateEncrypyPrivateKey(id),c,16,32,1).get());
+
+            // 2 running and 4 queued at most: a burst of 16 sees rejections instead of blocking
+            java.util.List<java.util.concurrent.CompletableFuture<Boolean>> futures=new java.util.ArrayList<java.util.concurrent.CompletableFuture<Boolean>>();
+            for(int i=0;i<16;i++)
+                futures.add(service.verify(id,m,signature));
+            int rejected=0;
+            for(java.util.concurrent.CompletableFuture<Boolean> f:futures) {
+                try {
+                    assertTrue(f.get());
+                } catch (java.util.concurrent.ExecutionException e) {
+                    assertTrue(e.getCause() instanceof java.util.concurrent.RejectedExecutionException);
+                    rejected++;
+                }
+            }
+            assertTrue(rejected>0);
+
+            Sm9AsyncService.Stats verify=service.getStats()[1];
+            assertEquals(rejected,verify.getRejected());
+            assertEquals(17-rejected,verify.getCompleted());
+            assertTrue(verify.getMaxNanos()>=verify.getMeanNanos());
+        } finally {
+            service.shutdown(10,java.util.concurrent.TimeUnit.SECONDS);
+        }
+    }
+    @Test
+    public void testPairingSplit(){
+        src.pairing.f.TypeFRatePairingMap map=new src.pairing.f.TypeFRatePairingMap(kgc.getPairing());
+        Element f=map.millerLoop(kgc.getG1(),kgc.getPpubs());
+        Element e=map.finalExponentiation(f);
+        assertArrayEquals(kgc.getSignGT().toBytes(),e.toBytes());
+        assertArrayEquals(e.toBytes(),map.finalExponentiation(f).toBytes());
+    }
+    @Test
+    public void testOperationCounters()throws Exception{
+        OperationCounters.reset();
+        Sm9Signer signer=new Sm9Signer();
+        signer.initSign(kgc.generateSignPrivatekey(id));
+        Signature signature=signer.generateSignature(testString.getBytes());
+        assertEquals(OperationCounters.ENABLED ? 1 : 0,OperationCounters.getInvocations("sign"));
+        assertTrue(OperationCounters.ENABLED==OperationCounters.getCounts("sign").containsKey(OperationCounters.Op.G1_ADD));
+
+        // the pairing of verify only
+        OperationCounters.reset();
+        signer.initVerify(id);
+        assertTrue(signer.verifySignature(testString.getBytes(),signature));
+
+        if(!OperationCounters.ENABLED) {
+            assertEquals(0,OperationCounters.getInvocations("verify"));
+            assertTrue(OperationCounters.getCounts("verify").isEmpty());
+            return;
+        }
+        assertEquals(1,OperationCounters.getInvocations("verify"));
+        assertEquals(1,OperationCounters.getInvocations("pairing"));
+        java.util.Map<OperationCounters.Op,Long> pairing=OperationCounters.getCounts("pairing");
+        java.util.Map<OperationCounters.Op,Long> verify=OperationCounters.getCounts("verify");
+        assertTrue(pairing.get(OperationCounters.Op.FP12_MUL)>0);
+        assertTrue(verify.get(OperationCounters.Op.FP12_MUL)>=pairing.get(OperationCounters.Op.FP12_MUL));
+    }
+    @Test
+    public void testStageMetrics()throws Exception{
+        LatencyHistogram histogram=new LatencyHistogram();
+        for(long v=1;v<=100000;v++)
+            histogram.record(v*1000);
+        LatencyHistogram.Snapshot latency=histogram.snapshot();
+        assertEquals(100000,latency.getCount());
+        assertEquals(100000000,latency.getMax());
+        assertTrue(Math.abs(latency.getValueAtPercentile(50)-50000000)<=50000000/32);
+        assertTrue(Math.abs(latency.getValueAtPercentile(99.9)-99900000)<=99900000/32);
+        assertEquals(latency.getMax(),latency.getValueAtPercentile(100));
+
+        Sm9Metrics.reset();
+        Sm9EncryptPrivateKey privateKey=kgc.generateEncrypyPrivateKey(id);
+        Sm9Engine sm9Engine=new Sm9Engine(Cipher.getInstance("SM4/ECB/PKCS5Padding","BC"));
+        sm9Engine.initEncrypt(true,id,16,32,1);
+        byte [] m=testString.getBytes();
+        byte [] c=sm9Engine.processBlock(m,0,m.length);
+        sm9Engine.initDecrypt(false,id,privateKey,16,32,1);
+        assertArrayEquals(m,sm9Engine.processBlock(c,0,c.length));
+        Sm9Signer signer=new Sm9Signer();
+        signer.initSign(kgc.generateSignPrivatekey(id));
+        Signature signature=signer.generateSignature(m);
+        signer.initVerify(id);
+        assertTrue(signer.verifySignature(m,signature));
+
+        if(!Sm9Metrics.ENABLED) {
+            assertTrue(Sm9Metrics.snapshot().isEmpty());
+            return;
+        }
+        for(Sm9Metrics.Stage stage:new Sm9Metrics.Stage[]{Sm9Metrics.Stage.ASN1,Sm9Metrics.Stage.PAIRING,Sm9Metrics.Stage.KDF,
+                Sm9Metrics.Stage.MAC,Sm9Metrics.Stage.SM4,Sm9Metrics.Stage.TOTAL})
+            assertTrue(Sm9Metrics.snapshot(Sm9Metrics.Operation.DECRYPT,stage).getCount()>0);
+        LatencyHistogram.Snapshot total=Sm9Metrics.snapshot(Sm9Metrics.Operation.ENCRYPT,Sm9Metrics.Stage.TOTAL);
+        assertEquals(1,total.getCount());
+        assertTrue(total.getMax()>=Sm9Metrics.snapshot(Sm9Metrics.Operation.ENCRYPT,Sm9Metrics.Stage.GT_POW).getMax());
+
+        // every stage is recorded once per operation, however often it was reached
+        for(Sm9Metrics.StageLatency stage:Sm9Metrics.snapshot())
+            assertEquals(stage.getName(),1,stage.getLatency().getCount());
+        assertEquals(1,Sm9Metrics.snapshot(Sm9Metrics.Operation.VERIFY,Sm9Metrics.Stage.GT_POW).getCount());
+        assertEquals(1,Sm9Metrics.snapshot(Sm9Metrics.Operation.ENCRYPT,Sm9Metrics.Stage.SM4).getCount());
+    }
+    @Test
+    public void testElementArena(){
+        src.util.ElementArena arena=src.util.ElementArena.get();
+        int mark=arena.mark();
+        Element a=arena.acquire(kgc.getPairing().getFq2());
+        Element b=arena.acquire(kgc.getPairing().getFq2());
+        assertTrue(a!=b);
+        arena.reset(mark);
+        assertTrue(a==arena.acquire(kgc.getPairing().getFq2()));
+        arena.reset(mark);
+
+        // the second pairing reuses the temporaries of the first
+        Element e=kgc.getPairing().pairing(kgc.getG1(),kgc.getPpubs());
+        int size=arena.size();
+        assertEquals(mark,arena.mark());
+        assertArrayEquals(e.toBytes(),kgc.getPairing().pairing(kgc.getG1(),kgc.getPpubs()).toBytes());
+        assertEquals(size,arena.size());
+        assertArrayEquals(kgc.getSignGT().toBytes(),e.toBytes());
+    }
+    @Test
+    public void testThreeAddress(){
+        Field fq2=kgc.getPairing().getFq2();
+        Field fq=((Point) fq2.newElement()).getX().getField();
+        for(Field f:new Field[]{fq,fq2,kgc.getPairing().getFp12()}){
+            Element a=f.newRandomElement(),b=f.newRandomElement(),c=f.newRandomElement();
+            byte[] ab=a.duplicate().mul(b).toBytes();
+
+            assertArrayEquals(ab,f.mul(f.newElement(),a,b).toBytes());
+            assertArrayEquals(a.duplicate().add(b).toBytes(),f.add(f.newElement(),a,b).toBytes());
+            assertArrayEquals(a.duplicate().sub(b).toBytes(),f.sub(f.newElement(),a,b).toBytes());
+            assertArrayEquals(a.duplicate().square().toBytes(),f.sqr(f.newElement(),a).toBytes());
+            assertArrayEquals(a.duplicate().mul(b).add(c).toBytes(),f.mulAdd(f.newElement(),a,b,c).toBytes());
+
+            // out may be any of the operands
+            assertArrayEquals(ab,f.mul(b.duplicate(),a,b).toBytes());
+            Element x=a.duplicate();
+            assertArrayEquals(ab,f.mul(x,x,b).toBytes());
+            x=b.duplicate();
+            assertArrayEquals(b.duplicate().sub(a).toBytes(),f.sub(x,x,a).toBytes());
+            x=b.duplicate();
+            assertArrayEquals(a.duplicate().sub(b).toBytes(),f.sub(x,a,x).toBytes());
+            x=a.duplicate();
+            assertArrayEquals(a.duplicate().square().toBytes(),f.mul(x,x,x).toBytes());
+            x=c.duplicate();
+            assertArrayEquals(a.duplicate().mul(b).add(c).toBytes(),f.mulAdd(x,a,b,x).toBytes());
+        }
+    }
+    @Test
+    public void testLazyReduction(){
+        Field fq2=kgc.getPairing().getFq2();
+        Field fq=((Point) fq2.newElement()).getX().getField();
+        for(Field f:new Field[]{fq,fq2,kgc.getPairing().getFq4(),kgc.getPairing().getFp12()}){
+            for(int i=0;i<10;i++){
+                Element a=f.newRandomElement(),b=f.newRandomElement(),c=f.newRandomElement();
+                assertArrayEquals(a.duplicate().mul(b).mul(c).toBytes(),a.duplicate().mul(b.duplicate().mul(c)).toBytes());
+                assertArrayEquals(a.duplicate().mul(b.duplicate().add(c)).toBytes(),a.duplicate().mul(b).add(a.duplicate().mul(c)).toBytes());
+                assertArrayEquals(a.duplicate().mul(a).toBytes(),a.duplicate().square().toBytes());
+                assertTrue(a.duplicate().mul(a.duplicate().invert()).isOne());
+                assertArrayEquals(a.toBytes(),a.duplicate().twice().halve().toBytes());
+                assertArrayEquals(a.duplicate().add(a).add(a).toBytes(),a.duplicate().mul(3).toBytes());
+                assertTrue(a.duplicate().sub(a).isZero());
+            }
+        }
+    }
+    @Test
+    public void testBatchInversion(){
+        Field fq2=kgc.getPairing().getFq2();
+        Field fq=((Point) fq2.newElement()).getX().getField();
+        for(Field f:new Field[]{fq,fq2,kgc.getPairing().getFp12()}){
+            Element[] elements=new Element[5];
+            for(int i=0;i<elements.length;i++)
+                elements[i]=f.newRandomElement();
+            elements[2].setToZero();
+            Element[] expected=new Element[elements.length];
+            for(int i=0;i<elements.length;i++)
+                expected[i]=elements[i].isZero()?elements[i].duplicate():elements[i].duplicate().invert();
+            f.invert(elements);
+            for(int i=0;i<elements.length;i++)
+                assertArrayEquals(expected[i].toBytes(),elements[i].toBytes());
+        }
+
+        for(CurveElement g:new CurveElement[]{kgc.getG1(),kgc.getG2()}){
+            src.field.curve.JacobianPoint[] points=new src.field.curve.JacobianPoint[4];
+            for(int i=0;i<points.length;i++)
+                points[i]=new src.field.curve.JacobianPoint(g).twice();
+            points[1].setToInfinity();
+            points[3].twice();
+            CurveElement[] affine=g.getField().normalize(points);
+            assertTrue(affine[0].isEqual(g.duplicate().twice()));
+            assertTrue(affine[1].isZero());
+            assertTrue(affine[3].isEqual(g.duplicate().twice().twice()));
+
+            BigInteger n=new BigInteger(256,new SecureRandom());
+            assertTrue(g.getElementPowPreProcessing().pow(n).isEqual(g.duplicate().mul(n)));
+        }
+    }
+    @Test
+    public void testMultiScalarMul(){
+        SecureRandom random=new SecureRandom();
+        for(CurveElement g:new CurveElement[]{kgc.getG1(),kgc.getG2()}){
+            // Straus for a few points, Pippenger for many
+            for(int n:g==kgc.getG1()?new int[]{1,5,300}:new int[]{5}){
+                CurveElement[] points=new CurveElement[n];
+                BigInteger[] scalars=new BigInteger[n];
+                for(int i=0;i<n;i++){
+                    points[i]=g.duplicate().mul(new BigInteger(256,random));
+                    scalars[i]=new BigInteger(256,random);
+                }
+                if(n>1){
+                    points[0]=g.getField().newElement();
+                    scalars[1]=BigInteger.ZERO;
+                    points[n-1]=points[n-2].duplicate();
+                    scalars[n-1]=scalars[n-2].negate();
+                }
+
+                CurveElement expected=g.getField().newElement();
+                for(int i=0;i<n;i++)
+                    expected.add(points[i].duplicate().mul(scalars[i].mod(g.getField().getOrder())));
+                assertTrue(expected.isEqual(g.getField().multiScalarMul(points,scalars)));
+            }
+        }
+
+        // Pippenger on G2, and past the parallel threshold on G1, with and without a pool. The points are
+        // a0 G, (a0 + 1) G, ... so that the sum is a single multiplication of G
+        for(CurveElement g:new CurveElement[]{kgc.getG1(),kgc.getG2()}){
+            int n=g==kgc.getG1() ? 700 : 300;
+            BigInteger order=g.getField().getOrder();
+            BigInteger a0=new BigInteger(256,random).mod(order);
+            CurveElement[] points=new CurveElement[n];
+            BigInteger[] scalars=new BigInteger[n];
+            BigInteger sum=BigInteger.ZERO;
+            points[0]=g.duplicate().mul(a0);
+            for(int i=0;i<n;i++){
+                if(i>0)
+                    points[i]=points[i-1].duplicate().add(g);
+                scalars[i]=new BigInteger(256,random);
+                sum=sum.add(scalars[i].multiply(a0.add(BigInteger.valueOf(i))));
+            }
+            CurveElement expected=g.duplicate().mul(sum.mod(order));
+            assertTrue(expected.isEqual(g.getField().multiScalarMul(points,scalars)));
+            assertTrue(expected.isEqual(g.getField().multiScalarMul(points,scalars,null)));
+        }
+    }
+    @Test
+    public void testBatchPairing(){
+        SecureRandom random=new SecureRandom();
+        int n=7;
+        Element[] in1=new Element[n];
+        Element[] in2=new Element[n];
+        for(int i=0;i<n;i++){
+            in1[i]=kgc.getG1().duplicate().mul(new BigInteger(256,random));
+            in2[i]=kgc.getG2().duplicate().mul(new BigInteger(256,random));
+        }
+
+        // odd chunks so that the last one is short
+        src.pairing.f.accumulator.BatchPairingEngine engine=
+                new src.pairing.f.accumulator.BatchPairingEngine(kgc.getPairing(),2,2);
+        Element[] result=engine.pairing(in1,in2);
+        assertEquals(n,result.length);
+        for(int i=0;i<n;i++)
+            assertTrue(kgc.getPairing().pairing(in1[i],in2[i]).isEqual(result[i]));
+        assertEquals(0,engine.pairing(new Element[0],new Element[0]).length);
+        engine.close();
+    }
+    @Test
+    public void testSignByteBuffer()throws Exception{
+        Sm9Signer signer=new Sm9Signer();
+        signer.initSign(kgc.generateSignPrivatekey(id));
+        ByteBuffer message=ByteBuffer.allocateDirect(testString.length());
+        message.put(testString.getBytes()).flip();
+        ByteBuffer signature=ByteBuffer.allocate(128);
+        signer.generateSignature(message,signature);
+        signature.flip();
+
+        signer.initVerify(id);
+        assertTrue(signer.verifySignature(testString.getBytes(),Signature.readFrom(signature.duplicate())));
+        assertTrue(signer.verifySignature(message,signature));
+    }
+    @Test
+    public void testFileEncrypt()throws Exception{
+        Sm9EncryptPrivateKey privateKey=kgc.generateEncrypyPrivateKey(id);
+        byte [] m=new byte[10000];
+        new SecureRandom().nextBytes(m);
+        java.io.File in=java.io.File.createTempFile("sm9",".in");
+        java.io.File enc=java.io.File.createTempFile("sm9",".enc");
+        java.io.File out=java.io.File.createTempFile("sm9",".out");
+        try {
+            java.nio.file.Files.write(in.toPath(),m);
+            Sm9FileEngine fileEngine=new Sm9FileEngine(java.util.concurrent.ForkJoinPool.commonPool(),1024);
+            fileEngine.encrypt(id,in,enc);
+            fileEngine.decrypt(id,privateKey,enc,out);
+            assertArrayEquals(m,java.nio.file.Files.readAllBytes(out.toPath()));
+
+            Sm9FileEngine.Reader reader=fileEngine.open(id,privateKey,enc);
+            byte [] part=new byte[3000];
+            assertEquals(3000,reader.read(1500,part,0,part.length));
+            assertArrayEquals(Arrays.copyOfRange(m,1500,4500),part);
+
+            // a read past the end stops there, and only [off, off + n) of dst is written
+            byte [] tail=new byte[100];
+            assertEquals(50,reader.read(9950,tail,10,80));
+            assertArrayEquals(Arrays.copyOfRange(m,9950,10000),Arrays.copyOfRange(tail,10,60));
+            assertArrayEquals(new byte[10],Arrays.copyOf(tail,10));
+            assertArrayEquals(new byte[40],Arrays.copyOfRange(tail,60,100));
+            assertEquals(-1,reader.read(10000,tail,0,tail.length));
+
+            try {
+                reader.read(-1,part,0,part.length);
+                assertTrue(false);
+            } catch (IllegalArgumentException e) {
+            }
+            try {
+                reader.read(0,part,1,part.length);
+                assertTrue(false);
+            } catch (IllegalArgumentException e) {
+            }
+            try {
+                reader.read(0,part,-1,10);
+                assertTrue(false);
+            } catch (IllegalArgumentException e) {
+            }
+            reader.close();
+        } finally {
+            in.delete();
+            enc.delete();
+            out.delete();
+        }
+    }
+    @Test
+    public void testFileTruncated()throws Exception{
+        Sm9EncryptPrivateKey privateKey=kgc.generateEncrypyPrivateKey(id);
+        byte [] m=new byte[10000];
+        new SecureRandom().nextBytes(m);
+        java.io.File in=java.io.File.createTempFile("sm9",".in");
+        java.io.File enc=java.io.File.createTempFile("sm9",".enc");
+        java.io.File out=java.io.File.createTempFile("sm9",".out");
+        try {
+            java.nio.file.Files.write(in.toPath(),m);
+            Sm9FileEngine fileEngine=new Sm9FileEngine(java.util.concurrent.ForkJoinPool.commonPool(),1024);
+            fileEngine.encrypt(id,in,enc);
+
+            // keep the first 5 chunks and fix up the plaintext length of the header to match
+            byte [] container=java.nio.file.Files.readAllBytes(enc.toPath());
+            int headerLength=container.length-10000-10*32;
+            ByteBuffer cut=ByteBuffer.wrap(Arrays.copyOf(container,headerLength+5*(1024+32)));
+            cut.putLong(12,5*1024);
+            java.nio.file.Files.write(enc.toPath(),cut.array());
+
+            try {
+                fileEngine.decrypt(id,privateKey,enc,out);
+                assertTrue(false);
+            } catch (Exception e) {
+                assertTrue(e.getMessage().startsWith("mac not right"));
+            }
+        } finally {
+            in.delete();
+            enc.delete();
+            out.delete();
+        }
+    }
+    @Test
     public void testh() {
         BigInteger N =new BigInteger("B640000002A3A6F1D603AB4FF58EC74449F2934B18EA8BEEE56EE19CD69ECF25",16);
         byte [] ida="Alice".getBytes();
@@ -164,6 +1000,10 @@ public class Sm9test {
                 "908EE558DF5F5E0721317FC6E829C242426F62",16);
         byte [] k=Sm9Util.KDF(merge.toByteArray(),0x0100);
         assertArrayEquals(new BigInteger("4FF5CF86D2AD40C8F4BAC98D76ABDBDE0C0E2F0A829D3F911EF5B2BCE0695480",16).toByteArray(),k);
+        // 252 bits are the first 252 of the 256, right-aligned in 32 bytes
+        byte [] k252=Sm9Util.KDF(merge.toByteArray(),0x0100-4);
+        assertEquals(32,k252.length);
+        assertEquals(new BigInteger(1,k).shiftRight(4),new BigInteger(1,k252));
     }
     @Test
     public void testEc1tobytes()